@@ -0,0 +1,137 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.mozilla.javascript.ErrorReporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures Optimizer.optimize with every runner engine on the test
+ * fixtures. The cold benchmark runs one build with a new runner in a new
+ * JVM, as a single mvn invocation does. The warm benchmark reuses a runner
+ * for build after build, as a multi-module or multi-profile build does.
+ *
+ * Run it with mvn -Pbenchmark verify. Results are written as JSON to
+ * target/jmh-result.json.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RunnerBenchmark {
+
+    /**
+     * Name of a {@link RunnerProvider}. {@link #main(String[])} replaces the
+     * default with every engine available on this machine.
+     */
+    @Param({"rhino"})
+    public String engine;
+
+    /**
+     * Build profile, as a test resource.
+     */
+    @Param({"testcase1/buildconfig1.js", "testcase2/buildconfig2.js"})
+    public String profile;
+
+    private RunnerProvider provider;
+    private File buildProfile;
+    private Optimizer optimizer;
+    private ErrorReporter reporter;
+    private Runner warmRunner;
+
+    @Setup
+    public void setUp() throws Exception {
+        provider = getProvider(engine);
+        buildProfile = new File(getClass().getClassLoader().getResource(profile).toURI());
+        optimizer = new Optimizer(new File("target/benchmark-work"));
+        reporter = new MojoErrorReporter(new SystemStreamLog(), true);
+        RunnerSettings settings = getSettings();
+        settings.setNodeWorker(true);
+        warmRunner = provider.createRunner(settings, 0);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(5)
+    public void cold() throws Exception {
+        optimizer.optimize(buildProfile, reporter, provider.createRunner(getSettings(), 0));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 5, time = 10)
+    @Measurement(iterations = 5, time = 10)
+    @Fork(1)
+    public void warm() throws Exception {
+        optimizer.optimize(buildProfile, reporter, warmRunner);
+    }
+
+    /**
+     * Run the benchmarks with every engine that can create a runner here,
+     * unless engines are picked with -p engine=..., and write the results
+     * to target/jmh-result.json.
+     * @param args JMH command line options
+     * @throws Exception if the benchmarks cannot be run
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine)
+                .include(RunnerBenchmark.class.getName())
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File("target/jmh-result.json").getPath());
+        if (!commandLine.getParameter("engine").hasValue()) {
+            List<String> engines = getAvailableEngines();
+            builder.param("engine", engines.toArray(new String[engines.size()]));
+        }
+        Options options = builder.build();
+        new org.openjdk.jmh.runner.Runner(options).run();
+    }
+
+    private static List<String> getAvailableEngines() {
+        List<String> engines = new ArrayList<String>();
+        for (RunnerProvider provider : ServiceLoader.load(RunnerProvider.class)) {
+            if (provider.createRunner(getSettings(), 0) != null) {
+                engines.add(provider.getName());
+            } else {
+                System.out.println("Skipping the " + provider.getName() + " engine, which is not available.");
+            }
+        }
+        return engines;
+    }
+
+    private static RunnerProvider getProvider(String name) {
+        for (RunnerProvider provider : ServiceLoader.load(RunnerProvider.class)) {
+            if (provider.getName().equals(name)) {
+                return provider;
+            }
+        }
+        throw new IllegalArgumentException("Unknown engine " + name);
+    }
+
+    private static RunnerSettings getSettings() {
+        RunnerSettings settings = new RunnerSettings();
+        settings.setNodeCommand(NodeJsRunner.detectNodeCommand());
+        settings.setWorkDirectory(new File("target/benchmark-work"));
+        return settings;
+    }
+}
@@ -0,0 +1,256 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Fingerprint of everything an r.js build reads: the build profile, the
+ * optimizer script, the scripts bundled with the plugin, the plugin options
+ * that affect the output, and every file under the input directory. Each file is
+ * recorded with its size, modification time and content hash. When size and
+ * modification time match the previous fingerprint the recorded hash is
+ * reused, so unchanged trees are fingerprinted without reading them.
+ */
+public class BuildFingerprint {
+
+    private static final String FILE_PREFIX = "file:";
+
+    private static final String PATH_PREFIX = "path:";
+
+    private static final String OPTION_PREFIX = "option:";
+
+    private final SortedMap<String, String> entries;
+
+    private BuildFingerprint(SortedMap<String, String> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Fingerprint the inputs of a build.
+     * @param profile the build profile
+     * @param optimizerHash content hash of the optimizer script
+     * @param options the plugin options that affect the output, by name
+     * @param previous the previous fingerprint, used to skip hashing unchanged files, may be null
+     * @return the fingerprint
+     * @throws IOException if an input can not be read
+     */
+    public static BuildFingerprint compute(BuildProfile profile, String optimizerHash, Map<String, String> options,
+            BuildFingerprint previous) throws IOException {
+        Map<String, String> known = previous != null ? previous.entries : new TreeMap<String, String>();
+        SortedMap<String, String> entries = new TreeMap<String, String>();
+        entries.put("profile", ContentHash.of(profile.getFile()));
+        entries.put("optimizer", optimizerHash);
+        entries.put("builtInOptimizer", ClasspathResource.get(Optimizer.CLASSPATH_R_JS).getHash());
+        entries.put("bootstrap", ClasspathResource.get(Optimizer.CLASSPATH_BOOTSTRAP_JS).getHash());
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            entries.put(OPTION_PREFIX + option.getKey(), String.valueOf(option.getValue()));
+        }
+
+        File input = profile.getInputDirectory();
+        Pattern exclusion = profile.getFileExclusion();
+        File output = profile.getOutput();
+        for (Map.Entry<String, File> file : listFiles(input, exclusion, output).entrySet()) {
+            String key = FILE_PREFIX + file.getKey();
+            entries.put(key, state(file.getValue(), known.get(key)));
+        }
+
+        // Sources that live outside the input directory: the mainConfigFile,
+        // and paths entries that r.js copies in from elsewhere.
+        File mainConfigFile = profile.getMainConfigFile();
+        if (mainConfigFile != null) {
+            addOutsideFile(entries, known, input, mainConfigFile);
+        }
+        for (Object path : profile.getPaths().values()) {
+            if (path instanceof String && isLocalPath((String) path)) {
+                File target = resolve(profile.getBaseUrl(), (String) path);
+                if (target.isDirectory()) {
+                    for (File file : listFiles(target, exclusion, output).values()) {
+                        addOutsideFile(entries, known, input, file);
+                    }
+                } else {
+                    addOutsideFile(entries, known, input, new File(target.getPath() + ".js"));
+                }
+            }
+        }
+
+        return new BuildFingerprint(entries);
+    }
+
+    /**
+     * Load a fingerprint saved by {@link #save(File)}.
+     * @param file the file the fingerprint was saved to
+     * @return the fingerprint, or null if there is none or it can not be read
+     */
+    public static BuildFingerprint load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtil.close(in);
+        }
+
+        SortedMap<String, String> entries = new TreeMap<String, String>();
+        for (String key : properties.stringPropertyNames()) {
+            entries.put(key, properties.getProperty(key));
+        }
+        return new BuildFingerprint(entries);
+    }
+
+    /**
+     * Save the fingerprint.
+     * @param file the file to save to
+     * @throws IOException if the file can not be written
+     */
+    public void save(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(entries);
+        file.getParentFile().mkdirs();
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            properties.store(out, "Inputs of the last successful requirejs optimization");
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+
+    /**
+     * Whether or not the build inputs are the same as when the previous
+     * fingerprint was taken. Only contents are compared, a file that was
+     * touched without being changed is still up to date.
+     * @param previous the previous fingerprint, may be null
+     * @return true if no input was added, removed or changed
+     */
+    public boolean isUpToDate(BuildFingerprint previous) {
+        if (previous == null || !entries.keySet().equals(previous.entries.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (!isSame(entry.getKey(), entry.getValue(), previous.entries.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the files under the input directory that were added, removed or
+     * changed since the previous fingerprint was taken.
+     * @param previous the previous fingerprint, may be null
+     * @return paths relative to the input directory, or null if the profile,
+     *         the optimizer, an option or a file outside the input directory changed as well
+     */
+    public SortedSet<String> getChangedFiles(BuildFingerprint previous) {
+        if (previous == null) {
+            return null;
+        }
+        SortedSet<String> keys = new TreeSet<String>(entries.keySet());
+        keys.addAll(previous.entries.keySet());
+        SortedSet<String> changed = new TreeSet<String>();
+        for (String key : keys) {
+            String state = entries.get(key);
+            String previousState = previous.entries.get(key);
+            if (state != null && previousState != null && isSame(key, state, previousState)) {
+                continue;
+            }
+            if (!key.startsWith(FILE_PREFIX)) {
+                return null;
+            }
+            changed.add(key.substring(FILE_PREFIX.length()));
+        }
+        return changed;
+    }
+
+    /**
+     * List the files under a directory the way r.js copies them, skipping
+     * excluded names and the output location.
+     * @param directory the directory to list
+     * @param exclusion pattern of file and directory names to skip, may be null
+     * @param skip a file or directory to leave out, may be null
+     * @return the files keyed by their slash separated path relative to the directory
+     */
+    public static SortedMap<String, File> listFiles(File directory, Pattern exclusion, File skip) {
+        SortedMap<String, File> files = new TreeMap<String, File>();
+        collect(directory, "", exclusion, skip != null ? skip.getAbsoluteFile() : null, files);
+        return files;
+    }
+
+    private static void collect(File directory, String prefix, Pattern exclusion, File skip, Map<String, File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if ((exclusion != null && exclusion.matcher(child.getName()).find())
+                    || child.getAbsoluteFile().equals(skip)) {
+                continue;
+            }
+            if (child.isDirectory()) {
+                collect(child, prefix + child.getName() + "/", exclusion, skip, files);
+            } else {
+                files.put(prefix + child.getName(), child);
+            }
+        }
+    }
+
+    private static void addOutsideFile(Map<String, String> entries, Map<String, String> known, File input, File file) throws IOException {
+        if (isUnder(file, input)) {
+            return;
+        }
+        String key = PATH_PREFIX + file.getAbsolutePath();
+        entries.put(key, file.isFile() ? state(file, known.get(key)) : "missing");
+    }
+
+    private static String state(File file, String previous) throws IOException {
+        String stat = file.length() + ":" + file.lastModified();
+        if (previous != null && previous.startsWith(stat + ":")) {
+            return previous;
+        }
+        return stat + ":" + ContentHash.of(file);
+    }
+
+    private static boolean isSame(String key, String state, String previousState) {
+        if (key.startsWith(OPTION_PREFIX)) {
+            return state.equals(previousState);
+        }
+        return hashOf(state).equals(hashOf(previousState));
+    }
+
+    private static String hashOf(String state) {
+        return state.substring(state.lastIndexOf(':') + 1);
+    }
+
+    private static boolean isLocalPath(String path) {
+        return !path.equals("empty:") && path.indexOf("//") == -1;
+    }
+
+    private static boolean isUnder(File file, File directory) {
+        String dir = directory.getAbsolutePath() + File.separator;
+        return file.getAbsolutePath().startsWith(dir);
+    }
+
+    private static File resolve(File base, String path) throws IOException {
+        File resolved = new File(path);
+        return (resolved.isAbsolute() ? resolved : new File(base, path)).getCanonicalFile();
+    }
+}
@@ -0,0 +1,272 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.regexp.NativeRegExp;
+
+/**
+ * Read-only view of an r.js build profile, used by the plugin to find the
+ * files a build reads and writes. Paths are resolved the way r.js resolves
+ * them: relative to the directory holding the profile, except for baseUrl,
+ * which is relative to appDir when appDir is set.
+ */
+public class BuildProfile {
+
+    private static final Pattern DEFAULT_EXCLUSION = Pattern.compile("^\\.");
+
+    private final File file;
+    private final String contents;
+    private final Map<String, Object> values;
+
+    private BuildProfile(File file, String contents, Map<String, Object> values) {
+        this.file = file;
+        this.contents = contents;
+        this.values = values;
+    }
+
+    /**
+     * Read a build profile.
+     * @param file the build profile
+     * @return the profile
+     * @throws IOException if the profile can not be read or evaluated
+     */
+    public static BuildProfile load(File file) throws IOException {
+        String contents = FileUtils.fileRead(file, "UTF-8");
+        Context cx = new ContextFactory().enterContext();
+        try {
+            cx.setOptimizationLevel(-1);
+            Scriptable scope = cx.initStandardObjects();
+            Object result = cx.evaluateString(scope, "(" + contents + ")", file.getAbsolutePath(), 1, null);
+            if (!(result instanceof Scriptable)) {
+                throw new IOException("Build profile " + file + " is not an object.");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> values = (Map<String, Object>) toJava(result);
+            return new BuildProfile(file.getAbsoluteFile(), contents, values);
+        } catch (RhinoException e) {
+            throw new IOException("Build profile " + file + " is malformed: " + e.getMessage());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    /**
+     * @return the build profile file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the build profile source, as r.js evaluates it
+     */
+    public String getContents() {
+        return contents;
+    }
+
+    /**
+     * @return the appDir, or null if the build does not copy a whole app
+     */
+    public File getAppDir() {
+        String appDir = getString("appDir");
+        return appDir != null ? resolve(file.getParentFile(), appDir) : null;
+    }
+
+    /**
+     * @return the baseUrl modules are resolved against
+     */
+    public File getBaseUrl() {
+        String baseUrl = getString("baseUrl");
+        File appDir = getAppDir();
+        if (baseUrl == null) {
+            return appDir != null ? appDir : file.getParentFile();
+        }
+        return resolve(appDir != null ? appDir : file.getParentFile(), baseUrl);
+    }
+
+    /**
+     * @return the output directory, or null for single file builds
+     */
+    public File getDir() {
+        String dir = getString("dir");
+        return dir != null ? resolve(file.getParentFile(), dir) : null;
+    }
+
+    /**
+     * @return the output file of a single file build, or null for directory builds
+     */
+    public File getOut() {
+        String out = getString("out");
+        return out != null ? resolve(file.getParentFile(), out) : null;
+    }
+
+    /**
+     * @return the mainConfigFile, or null if none is used
+     */
+    public File getMainConfigFile() {
+        String mainConfigFile = getString("mainConfigFile");
+        return mainConfigFile != null ? resolve(file.getParentFile(), mainConfigFile) : null;
+    }
+
+    /**
+     * @return the directory the build reads its sources from: appDir, or baseUrl when there is no appDir
+     */
+    public File getInputDirectory() {
+        File appDir = getAppDir();
+        return appDir != null ? appDir : getBaseUrl();
+    }
+
+    /**
+     * @return the output directory or file of the build
+     */
+    public File getOutput() {
+        File dir = getDir();
+        return dir != null ? dir : getOut();
+    }
+
+    /**
+     * @return the pattern r.js uses to skip files and directories when copying the input directory
+     */
+    public Pattern getFileExclusion() {
+        Object exclusion = values.containsKey("fileExclusionRegExp")
+                ? values.get("fileExclusionRegExp") : values.get("dirExclusionRegExp");
+        if (exclusion == null) {
+            return values.containsKey("fileExclusionRegExp") ? null : DEFAULT_EXCLUSION;
+        }
+        try {
+            return Pattern.compile(exclusion.toString());
+        } catch (PatternSyntaxException e) {
+            return DEFAULT_EXCLUSION;
+        }
+    }
+
+    /**
+     * @return the paths config, as written in the profile
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getPaths() {
+        Object paths = values.get("paths");
+        return paths instanceof Map ? (Map<String, Object>) paths : Collections.<String, Object>emptyMap();
+    }
+
+    /**
+     * @return the modules (layers) of a directory build, as written in the profile
+     */
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> getModules() {
+        List<Map<String, Object>> modules = new ArrayList<Map<String, Object>>();
+        Object list = values.get("modules");
+        if (list instanceof List) {
+            for (Object module : (List<Object>) list) {
+                if (module instanceof Map) {
+                    modules.add((Map<String, Object>) module);
+                }
+            }
+        }
+        return modules;
+    }
+
+    /**
+     * @return the names of the modules (layers) the build creates
+     */
+    public List<String> getModuleNames() {
+        List<String> names = new ArrayList<String>();
+        if (values.get("modules") instanceof List) {
+            for (Map<String, Object> module : getModules()) {
+                if (module.get("name") != null) {
+                    names.add(module.get("name").toString());
+                }
+            }
+        } else if (getString("name") != null) {
+            names.add(getString("name"));
+        }
+        return names;
+    }
+
+    /**
+     * Get a top level string option.
+     * @param name the option name
+     * @return the option value, or null if it is not set or not a string
+     */
+    public String getString(String name) {
+        Object value = values.get(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Get a top level boolean option.
+     * @param name the option name
+     * @param defaultValue value to use if the option is not set
+     * @return the option value
+     */
+    public boolean getBoolean(String name, boolean defaultValue) {
+        Object value = values.get(name);
+        return value instanceof Boolean ? ((Boolean) value).booleanValue() : defaultValue;
+    }
+
+    /**
+     * Get a top level option.
+     * @param name the option name
+     * @return the option value converted to Java types, or null if it is not set
+     */
+    public Object get(String name) {
+        return values.get(name);
+    }
+
+    private static File resolve(File base, String path) {
+        File resolved = new File(path);
+        if (!resolved.isAbsolute()) {
+            resolved = new File(base, path);
+        }
+        try {
+            return resolved.getCanonicalFile();
+        } catch (IOException e) {
+            return resolved.getAbsoluteFile();
+        }
+    }
+
+    private static Object toJava(Object value) {
+        if (value instanceof NativeRegExp) {
+            return ScriptableObject.getProperty((Scriptable) value, "source").toString();
+        } else if (value instanceof NativeArray) {
+            NativeArray array = (NativeArray) value;
+            List<Object> list = new ArrayList<Object>();
+            for (int i = 0; i < array.getLength(); i++) {
+                list.add(toJava(array.get(i, array)));
+            }
+            return list;
+        } else if (value instanceof Scriptable && !(value instanceof Function)) {
+            Scriptable object = (Scriptable) value;
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (Object id : object.getIds()) {
+                Object property = id instanceof Integer
+                        ? ScriptableObject.getProperty(object, ((Integer) id).intValue())
+                        : ScriptableObject.getProperty(object, id.toString());
+                map.put(id.toString(), toJava(property));
+            }
+            return map;
+        } else if (value instanceof CharSequence) {
+            return value.toString();
+        } else if (value == Scriptable.NOT_FOUND || value instanceof Undefined) {
+            return null;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,190 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * A machine-readable report of an execution of the plugin, saved as JSON:
+ * the engine r.js ran with, and for every build profile how long it took,
+ * what became of it, the errors and warnings reported, and the stats the
+ * optimizer wrote for it.
+ */
+public class BuildReport {
+
+    private static final int VERSION = 1;
+
+    private final String engine;
+    private final long start = System.currentTimeMillis();
+    private final List<Profile> profiles = new ArrayList<Profile>();
+
+    /**
+     * @param engine the name of the engine r.js runs with
+     */
+    public BuildReport(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Start reporting on a build profile. Profiles may be reported on from
+     * several threads.
+     * @param configFile the build profile
+     * @param runner the runner the profile is optimized with
+     * @return the report of the profile
+     */
+    public synchronized Profile addProfile(File configFile, Runner runner) {
+        Profile profile = new Profile(configFile.getPath(), runner.getClass().getSimpleName());
+        profiles.add(profile);
+        return profile;
+    }
+
+    /**
+     * @return the report as a JSON object
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"version\": ").append(VERSION).append(",\n");
+        json.append("  \"engine\": ").append(Json.quote(engine)).append(",\n");
+        json.append("  \"durationMillis\": ").append(System.currentTimeMillis() - start).append(",\n");
+        json.append("  \"profiles\": [");
+        for (int i = 0; i < profiles.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n").append(profiles.get(i).toJson());
+        }
+        return json.append(profiles.isEmpty() ? "]\n}\n" : "\n  ]\n}\n").toString();
+    }
+
+    /**
+     * @param file the file to save the report to
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getPath(), "UTF-8", toJson());
+    }
+
+    /**
+     * The report of one build profile.
+     */
+    public static class Profile {
+
+        private final String configFile;
+        private final String runner;
+        private final long start = System.currentTimeMillis();
+        private long duration = -1;
+        private String status = "failed";
+        private String message;
+        private int errors;
+        private int warnings;
+        private String stats;
+
+        Profile(String configFile, String runner) {
+            this.configFile = configFile;
+            this.runner = runner;
+        }
+
+        /**
+         * Record that the profile is done.
+         * @param status what became of it: "optimized", "rebuilt", "up-to-date" or "failed"
+         * @param message what went wrong, or null
+         */
+        public synchronized void finish(String status, String message) {
+            this.duration = System.currentTimeMillis() - start;
+            this.status = status;
+            this.message = message;
+        }
+
+        /**
+         * @param reporter the reporter r.js reported errors and warnings to
+         */
+        public synchronized void setReporter(MojoErrorReporter reporter) {
+            this.errors = reporter.getErrorCnt();
+            this.warnings = reporter.getWarningCnt();
+        }
+
+        /**
+         * Include the stats the optimizer wrote for the build.
+         * @param statsFile the stats file
+         * @throws IOException if the file cannot be read
+         */
+        public synchronized void readStats(File statsFile) throws IOException {
+            String json = statsFile.isFile() ? FileUtils.fileRead(statsFile, "UTF-8").trim() : null;
+            this.stats = json != null && json.startsWith("{") && json.endsWith("}") ? json : null;
+        }
+
+        /**
+         * @return whether stats were included for the build
+         */
+        public synchronized boolean hasStats() {
+            return stats != null;
+        }
+
+        /**
+         * Include stats read from the output of a build that the optimizer
+         * wrote no stats file for, because r.js did not run through the
+         * optimizer bootstrap: the files and the input and output bytes of
+         * each layer listed in the build.txt of a directory build, or the
+         * output bytes of a single file build. What only the bootstrap can
+         * count, such as the copied and minified files, is reported as null.
+         * @param profile the build profile
+         * @throws IOException if build.txt cannot be read
+         */
+        public synchronized void readOutputStats(BuildProfile profile) throws IOException {
+            StringBuilder layers = new StringBuilder();
+            Integer traced = null;
+            if (profile.getDir() != null) {
+                LayerIndex index = LayerIndex.read(profile.getDir(), profile.getModuleNames());
+                if (index == null) {
+                    return;
+                }
+                Set<String> tracedFiles = new HashSet<String>();
+                for (LayerIndex.Layer layer : index.getLayers().values()) {
+                    long inputBytes = 0;
+                    for (String file : layer.getFiles()) {
+                        tracedFiles.add(file);
+                        inputBytes += new File(profile.getInputDirectory(), file).length();
+                    }
+                    appendLayer(layers, layer.getName(), String.valueOf(layer.getFiles().size()),
+                            String.valueOf(inputBytes), new File(profile.getDir(), layer.getOutput()));
+                }
+                traced = tracedFiles.size();
+            } else if (profile.getOut() != null && profile.getOut().isFile()) {
+                appendLayer(layers, profile.getString("name"), "null", "null", profile.getOut());
+            } else {
+                return;
+            }
+            this.stats = "{\"copied\":null,\"traced\":" + traced + ",\"minified\":null,\"minifyCache\":null,"
+                    + "\"graphIndex\":null,\"layers\":[" + layers + "]}";
+        }
+
+        private static void appendLayer(StringBuilder layers, String name, String files, String inputBytes,
+                File output) {
+            if (layers.length() > 0) {
+                layers.append(',');
+            }
+            layers.append("{\"name\":").append(Json.quote(name))
+                    .append(",\"files\":").append(files)
+                    .append(",\"inputBytes\":").append(inputBytes)
+                    .append(",\"outputBytes\":").append(output.isFile() ? String.valueOf(output.length()) : "null")
+                    .append('}');
+        }
+
+        synchronized String toJson() {
+            long millis = duration >= 0 ? duration : System.currentTimeMillis() - start;
+            return "    {\n"
+                    + "      \"configFile\": " + Json.quote(configFile) + ",\n"
+                    + "      \"runner\": " + Json.quote(runner) + ",\n"
+                    + "      \"status\": " + Json.quote(status) + ",\n"
+                    + "      \"message\": " + Json.quote(message) + ",\n"
+                    + "      \"durationMillis\": " + millis + ",\n"
+                    + "      \"errors\": " + errors + ",\n"
+                    + "      \"warnings\": " + warnings + ",\n"
+                    + "      \"stats\": " + (stats != null ? stats : "null") + "\n"
+                    + "    }";
+        }
+    }
+}
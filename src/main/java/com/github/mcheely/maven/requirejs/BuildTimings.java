@@ -0,0 +1,221 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * How long the phases of an r.js build took, per layer and per file, as
+ * recorded by the optimizer bootstrap in the file given to it with
+ * --timings. Every line of the file is a phase, the module of its layer,
+ * the file relative to the build dir and the milliseconds it took,
+ * separated by tabs; the layer and file may be empty.
+ */
+public class BuildTimings {
+
+    private static final String HEADER = "# requirejs-maven-plugin timings 1";
+
+    /**
+     * The phase the bootstrap records the whole build as.
+     */
+    static final String BUILD = "build";
+
+    private final List<Timing> timings;
+
+    private BuildTimings(List<Timing> timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * Parse the timings the bootstrap wrote.
+     * @param text contents of the timings file
+     * @return the timings, or null if the text is not in the expected format
+     */
+    public static BuildTimings parse(String text) {
+        String[] lines = text.split("\r?\n");
+        if (lines.length == 0 || !lines[0].equals(HEADER)) {
+            return null;
+        }
+        List<Timing> timings = new ArrayList<Timing>();
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].split("\t", -1);
+            if (fields.length != 4) {
+                return null;
+            }
+            try {
+                timings.add(new Timing(fields[0], fields[1], fields[2], Long.parseLong(fields[3])));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return new BuildTimings(timings);
+    }
+
+    /**
+     * Read the timings the bootstrap wrote.
+     * @param file the timings file
+     * @return the timings, or null if the file is missing or not in the expected format
+     * @throws IOException if the file cannot be read
+     */
+    public static BuildTimings read(File file) throws IOException {
+        return file.isFile() ? parse(FileUtils.fileRead(file, "UTF-8")) : null;
+    }
+
+    /**
+     * @return the time of the whole build, in milliseconds
+     */
+    public long getTotal() {
+        long total = 0;
+        for (Timing timing : timings) {
+            if (timing.phase.equals(BUILD)) {
+                total += timing.millis;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return the time spent in each phase, in the order the phases first ran
+     */
+    public Map<String, Long> getPhases() {
+        Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        for (Timing timing : timings) {
+            if (!timing.phase.equals(BUILD)) {
+                add(phases, timing.phase, timing.millis);
+            }
+        }
+        return phases;
+    }
+
+    /**
+     * @return the time spent in each phase for each layer, by module name
+     */
+    public Map<String, Map<String, Long>> getLayers() {
+        Map<String, Map<String, Long>> layers = new LinkedHashMap<String, Map<String, Long>>();
+        for (Timing timing : timings) {
+            if (timing.layer.length() > 0) {
+                Map<String, Long> phases = layers.get(timing.layer);
+                if (phases == null) {
+                    phases = new LinkedHashMap<String, Long>();
+                    layers.put(timing.layer, phases);
+                }
+                add(phases, timing.phase, timing.millis);
+            }
+        }
+        return layers;
+    }
+
+    /**
+     * @param count the number of files
+     * @return the timings of the slowest files, slowest first
+     */
+    public List<Timing> getSlowestFiles(int count) {
+        List<Timing> files = new ArrayList<Timing>();
+        for (Timing timing : timings) {
+            if (timing.file.length() > 0) {
+                files.add(timing);
+            }
+        }
+        Collections.sort(files, new Comparator<Timing>() {
+            public int compare(Timing a, Timing b) {
+                return a.millis < b.millis ? 1 : a.millis > b.millis ? -1 : 0;
+            }
+        });
+        return files.subList(0, Math.min(count, files.size()));
+    }
+
+    /**
+     * Summarize the timings for the build log: the time of each phase, of
+     * each layer, and of the slowest files.
+     * @param slowestFiles the number of slowest files to list
+     * @return the lines of the summary
+     */
+    public List<String> summarize(int slowestFiles) {
+        List<String> lines = new ArrayList<String>();
+        long total = getTotal();
+        long phasesTotal = 0;
+        lines.add("Build time: " + total + " ms");
+        for (Map.Entry<String, Long> phase : getPhases().entrySet()) {
+            lines.add("  " + phase.getKey() + ": " + phase.getValue() + " ms");
+            phasesTotal += phase.getValue();
+        }
+        if (total > phasesTotal) {
+            lines.add("  other: " + (total - phasesTotal) + " ms");
+        }
+        for (Map.Entry<String, Map<String, Long>> layer : getLayers().entrySet()) {
+            StringBuilder line = new StringBuilder("Layer ").append(layer.getKey()).append(":");
+            String separator = " ";
+            for (Map.Entry<String, Long> phase : layer.getValue().entrySet()) {
+                line.append(separator).append(phase.getKey()).append(' ').append(phase.getValue()).append(" ms");
+                separator = ", ";
+            }
+            lines.add(line.toString());
+        }
+        List<Timing> files = getSlowestFiles(slowestFiles);
+        if (!files.isEmpty()) {
+            lines.add("Slowest files:");
+            for (Timing file : files) {
+                lines.add("  " + file.file + ": " + file.millis + " ms (" + file.phase + ")");
+            }
+        }
+        return lines;
+    }
+
+    private static void add(Map<String, Long> times, String key, long millis) {
+        Long time = times.get(key);
+        times.put(key, time == null ? millis : time + millis);
+    }
+
+    /**
+     * The time of one phase, for a layer or file if it was for one.
+     */
+    public static class Timing {
+
+        private final String phase;
+        private final String layer;
+        private final String file;
+        private final long millis;
+
+        Timing(String phase, String layer, String file, long millis) {
+            this.phase = phase;
+            this.layer = layer;
+            this.file = file;
+            this.millis = millis;
+        }
+
+        /**
+         * @return the r.js function the time was spent in
+         */
+        public String getPhase() {
+            return phase;
+        }
+
+        /**
+         * @return the module of the layer, or an empty string
+         */
+        public String getLayer() {
+            return layer;
+        }
+
+        /**
+         * @return the file relative to the build dir, or an empty string
+         */
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * @return the time, in milliseconds
+         */
+        public long getMillis() {
+            return millis;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.DefiningClassLoader;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+/**
+ * On-disk cache of the Java classes Rhino generates for a script, so that a
+ * fresh JVM can skip compiling r.js from source. Entries are keyed by a hash
+ * of the script contents, the Rhino version and the compiler settings that
+ * affect the generated bytecode.
+ */
+public class ClassFileCache {
+
+    private static final String CLASS_PREFIX = "com.github.mcheely.maven.requirejs.generated.Script_";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final File directory;
+
+    /**
+     * Create a new class file cache.
+     * @param directory the directory cache entries are stored in
+     */
+    public ClassFileCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Whether or not scripts compiled with the given context can be cached.
+     * Interpreted scripts do not generate classes, so they can not be stored.
+     * @param cx the current context
+     * @return true if the context compiles scripts to classes
+     */
+    public static boolean supports(Context cx) {
+        return cx.getOptimizationLevel() >= 0;
+    }
+
+    /**
+     * Load a script from the cache, compiling and storing it on a miss.
+     * @param cx the current context, used for compilation
+     * @param source the script source
+     * @param sourceHash hash of the script source
+     * @param path the path the script was read from, used in error messages
+     * @return the compiled script
+     */
+    public Script getScript(Context cx, String source, String sourceHash, String path) {
+        String key = ContentHash.of(sourceHash
+                + '|' + cx.getImplementationVersion()
+                + '|' + cx.getOptimizationLevel()
+                + '|' + cx.getLanguageVersion()
+                + '|' + cx.isGeneratingDebug());
+        File entry = new File(directory, key + ".classes");
+
+        Object[] classFiles = null;
+        if (entry.isFile()) {
+            try {
+                classFiles = read(entry);
+            } catch (IOException e) {
+                // Unreadable or truncated entry, recompile and replace it.
+                classFiles = null;
+            }
+        }
+
+        if (classFiles != null) {
+            try {
+                return load(classFiles);
+            } catch (LinkageError e) {
+                // Corrupt classes that still read as an entry, such as a
+                // ClassFormatError or VerifyError, recompile and replace them.
+                entry.delete();
+            }
+        }
+
+        CompilerEnvirons env = new CompilerEnvirons();
+        env.initFromContext(cx);
+        ClassCompiler compiler = new ClassCompiler(env);
+        classFiles = compiler.compileToClassFiles(source, path, 1, CLASS_PREFIX + key);
+        try {
+            write(entry, classFiles);
+        } catch (IOException e) {
+            // The cache is only an optimization, carry on with the compiled classes.
+            entry.delete();
+        }
+        return load(classFiles);
+    }
+
+    private static Script load(Object[] classFiles) {
+        DefiningClassLoader loader = new DefiningClassLoader(ClassFileCache.class.getClassLoader());
+        Class<?> mainClass = null;
+        for (int i = 0; i < classFiles.length; i += 2) {
+            Class<?> clazz = loader.defineClass((String) classFiles[i], (byte[]) classFiles[i + 1]);
+            if (mainClass == null) {
+                mainClass = clazz;
+            }
+        }
+        loader.linkClass(mainClass);
+
+        try {
+            return (Script) mainClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new RhinoRunnerException("Unable to instantiate cached script.", e);
+        } catch (IllegalAccessException e) {
+            throw new RhinoRunnerException("Unable to instantiate cached script.", e);
+        }
+    }
+
+    private static Object[] read(File entry) throws IOException {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            if (count <= 0) {
+                throw new IOException("Corrupt class file cache entry " + entry);
+            }
+            Object[] classFiles = new Object[count * 2];
+            for (int i = 0; i < count; i++) {
+                classFiles[i * 2] = in.readUTF();
+                int length = in.readInt();
+                if (length < 0 || length > entry.length()) {
+                    throw new IOException("Corrupt class file cache entry " + entry);
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                classFiles[i * 2 + 1] = bytes;
+            }
+            return classFiles;
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    private void write(File entry, Object[] classFiles) throws IOException {
+        directory.mkdirs();
+        // Write to a temporary file first so concurrent builds never see a partial entry.
+        File temp = File.createTempFile(entry.getName(), ".tmp", directory);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(classFiles.length / 2);
+            for (int i = 0; i < classFiles.length; i += 2) {
+                byte[] bytes = (byte[]) classFiles[i + 1];
+                out.writeUTF((String) classFiles[i]);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        } finally {
+            IOUtil.close(out);
+        }
+
+        if (!temp.renameTo(entry)) {
+            temp.delete();
+            if (!entry.isFile()) {
+                throw new IOException("Unable to store " + entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A script bundled with the plugin. Resources are read and hashed once per
+ * JVM, and extracted to a file named after their content hash so that
+ * extraction happens once per plugin version rather than once per build.
+ * An extracted file is only reused once its contents match that hash.
+ */
+public final class ClasspathResource {
+
+    private static final ConcurrentMap<String, ClasspathResource> LOADED = new ConcurrentHashMap<String, ClasspathResource>();
+
+    private final String name;
+    private final byte[] contents;
+    private final String hash;
+
+    private ClasspathResource(String name, byte[] contents) {
+        this.name = name;
+        this.contents = contents;
+        this.hash = ContentHash.of(contents);
+    }
+
+    /**
+     * @return the directory resources are extracted to when no other location
+     *         is configured, private to the current user
+     */
+    public static File getDefaultDirectory() {
+        return new File(System.getProperty("user.home"), ".m2/requirejs-cache/scripts");
+    }
+
+    /**
+     * Get a bundled resource.
+     * @param name absolute classpath name of the resource, such as "/r.js"
+     * @return the resource
+     * @throws IOException if the resource does not exist or can not be read
+     */
+    public static ClasspathResource get(String name) throws IOException {
+        ClasspathResource resource = LOADED.get(name);
+        if (resource == null) {
+            resource = new ClasspathResource(name, read(name));
+            LOADED.putIfAbsent(name, resource);
+        }
+        return resource;
+    }
+
+    /**
+     * @return hash of the resource contents
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Get the extracted form of the resource, extracting it if it is not
+     * already present in the directory or if the file there does not hold
+     * the contents of the resource.
+     * @param directory the directory to extract to
+     * @return the extracted file
+     * @throws IOException if the resource can not be extracted
+     */
+    public File extract(File directory) throws IOException {
+        String baseName = name.substring(name.lastIndexOf('/') + 1);
+        int extension = baseName.lastIndexOf('.');
+        File file = new File(directory, baseName.substring(0, extension) + "-" + hash + baseName.substring(extension));
+        if (isExtracted(file)) {
+            return file;
+        }
+
+        directory.mkdirs();
+        // Extract to a temporary file first so concurrent builds never see a partial script.
+        File tempFile = File.createTempFile(baseName + "-", ".tmp", directory);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(contents);
+        } finally {
+            IOUtil.close(out);
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            if (!isExtracted(file)) {
+                throw new IOException("Unable to extract " + name + " to " + file);
+            }
+        }
+
+        return file;
+    }
+
+    private boolean isExtracted(File file) throws IOException {
+        return file.isFile() && file.length() == contents.length && hash.equals(ContentHash.of(file));
+    }
+
+    private static byte[] read(String name) throws IOException {
+        InputStream in = ClasspathResource.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing classpath resource " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IOUtil.copy(in, out);
+            return out.toByteArray();
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+}
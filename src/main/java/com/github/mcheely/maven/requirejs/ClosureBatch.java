@@ -0,0 +1,87 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closure compilations of one build, run on a fixed number of threads while
+ * the optimizer bootstrap prepares the next files on the Rhino thread.
+ * Results are looked up by the index a compilation was submitted with, so
+ * the output does not depend on the order the compilations finish in.
+ */
+public class ClosureBatch {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final ClosureHost closure;
+    private final ExecutorService pool;
+    private final List<Future<ClosureHost.Output>> results = new ArrayList<Future<ClosureHost.Output>>();
+
+    ClosureBatch(ClosureHost closure, int threads) {
+        this.closure = closure;
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "requirejs-closure-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start compiling a file, without a source map.
+     * @param fileName the name of the file
+     * @param contents the contents of the file
+     * @param keepLines whether to keep line breaks
+     * @param compilerOptions the CompilerOptions of the closure build config
+     * @param compilationLevel the name of the compilation level
+     * @param loggingLevel the name of the compiler logging level
+     * @return the index of the compilation
+     * @see ClosureHost#compile(String, String, String, boolean, Map, String, String, boolean)
+     */
+    public synchronized int submit(final String fileName, final String contents, final boolean keepLines,
+            Map<?, ?> compilerOptions, String compilationLevel, final String loggingLevel) {
+        final ClosureHost.PreparedOptions options = closure.prepare(compilerOptions, compilationLevel, keepLines);
+        results.add(pool.submit(new Callable<ClosureHost.Output>() {
+            public ClosureHost.Output call() throws Exception {
+                return closure.compile(fileName, contents, null, options, loggingLevel, false);
+            }
+        }));
+        return results.size() - 1;
+    }
+
+    /**
+     * Wait for a compilation.
+     * @param index the index of the compilation
+     * @return the minified code, or null if the file could not be compiled
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public String get(int index) throws InterruptedException {
+        Future<ClosureHost.Output> result;
+        synchronized (this) {
+            result = results.get(index);
+        }
+        try {
+            ClosureHost.Output output = result.get();
+            return output != null ? output.getSource() : null;
+        } catch (ExecutionException e) {
+            // Compiled again on the Rhino thread, which reports the error like r.js does.
+            return null;
+        }
+    }
+
+    /**
+     * Stop the threads of the batch.
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+}
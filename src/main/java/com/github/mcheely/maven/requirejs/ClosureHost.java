@@ -0,0 +1,241 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.jscomp.Result;
+import com.google.javascript.jscomp.SourceMap;
+
+/**
+ * The closure optimizer of r.js's rhino/optimize module, implemented in Java
+ * for {@link RhinoRunner}. The optimizer bootstrap replaces r.js's version,
+ * which builds the compiler options, externs and compiler through a series
+ * of LiveConnect calls for every file, with a single call to this class.
+ * <p>
+ * The options of a build are resolved once and applied to fresh compiler
+ * options for every file, as the compiler modifies the options it is given.
+ */
+public class ClosureHost {
+
+    private static final JSSourceFile EXTERN = JSSourceFile.fromCode("fakeextern.js", " ");
+
+    private final ConcurrentMap<String, PreparedOptions> prepared = new ConcurrentHashMap<String, PreparedOptions>();
+
+    /**
+     * Minify a file.
+     * @param fileName the name of the file, used in messages and source maps
+     * @param contents the contents of the file
+     * @param outFileName the file the output is written to, may be null
+     * @param keepLines whether to keep line breaks
+     * @param compilerOptions the CompilerOptions of the closure build config, options with a false value are ignored
+     * @param compilationLevel the name of the compilation level
+     * @param loggingLevel the name of the compiler logging level
+     * @param generateSourceMaps whether to generate a source map
+     * @return the output, or null if the file could not be compiled
+     * @throws IOException if the source map can not be generated
+     */
+    public Output compile(String fileName, String contents, String outFileName, boolean keepLines,
+            Map<?, ?> compilerOptions, String compilationLevel, String loggingLevel, boolean generateSourceMaps)
+            throws IOException {
+        return compile(fileName, contents, outFileName, prepare(compilerOptions, compilationLevel, keepLines),
+                loggingLevel, generateSourceMaps);
+    }
+
+    Output compile(String fileName, String contents, String outFileName, PreparedOptions prepared,
+            String loggingLevel, boolean generateSourceMaps) throws IOException {
+        CompilerOptions options = prepared.create();
+        if (generateSourceMaps) {
+            List<SourceMap.LocationMapping> mappings = new ArrayList<SourceMap.LocationMapping>();
+            mappings.add(new SourceMap.LocationMapping(fileName, new File(fileName).getName() + ".src"));
+            options.setSourceMapLocationMappings(mappings);
+            options.setSourceMapOutputPath(fileName + ".map");
+        }
+
+        Compiler.setLoggingLevel(Level.parse(loggingLevel));
+        Compiler compiler = new Compiler();
+        Result result = compiler.compile(EXTERN, JSSourceFile.fromCode(fileName, contents), options);
+        if (!result.success) {
+            return null;
+        }
+
+        // The source map is filled in while the code is printed.
+        String source = compiler.toSource();
+        String sourceMap = null;
+        if (generateSourceMaps && result.sourceMap != null && outFileName != null) {
+            StringBuilder map = new StringBuilder();
+            result.sourceMap.appendTo(map, outFileName);
+            sourceMap = map.toString();
+        }
+        return new Output(source, sourceMap);
+    }
+
+    PreparedOptions prepare(Map<?, ?> compilerOptions, String compilationLevel, boolean keepLines) {
+        Map<String, Object> values = new TreeMap<String, Object>();
+        for (Map.Entry<?, ?> option : compilerOptions.entrySet()) {
+            if (isTrue(option.getValue())) {
+                values.put(String.valueOf(option.getKey()), option.getValue());
+            }
+        }
+        String key = compilationLevel + ':' + keepLines + ':' + values;
+        PreparedOptions options = prepared.get(key);
+        if (options == null) {
+            options = new PreparedOptions(values, CompilationLevel.valueOf(compilationLevel), keepLines);
+            prepared.putIfAbsent(key, options);
+        }
+        return options;
+    }
+
+    /**
+     * The JavaScript truthiness r.js tests the options with.
+     */
+    private static boolean isTrue(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            return number != 0 && !Double.isNaN(number);
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() > 0;
+        }
+        return value != null;
+    }
+
+    /**
+     * Options of a build, resolved to the fields and setters of
+     * CompilerOptions they are assigned to.
+     */
+    static class PreparedOptions {
+
+        private final List<Member> members = new ArrayList<Member>();
+        private final List<Object> values = new ArrayList<Object>();
+        private final CompilationLevel level;
+        private final boolean keepLines;
+
+        PreparedOptions(Map<String, Object> options, CompilationLevel level, boolean keepLines) {
+            for (Map.Entry<String, Object> option : options.entrySet()) {
+                Member member = find(option.getKey());
+                Class<?> type = member instanceof Field
+                        ? ((Field) member).getType() : ((Method) member).getParameterTypes()[0];
+                members.add(member);
+                values.add(convert(option.getKey(), option.getValue(), type));
+            }
+            this.level = level;
+            this.keepLines = keepLines;
+        }
+
+        CompilerOptions create() {
+            CompilerOptions options = new CompilerOptions();
+            try {
+                for (int i = 0; i < members.size(); i++) {
+                    Member member = members.get(i);
+                    if (member instanceof Field) {
+                        ((Field) member).set(options, values.get(i));
+                    } else {
+                        ((Method) member).invoke(options, values.get(i));
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalArgumentException("Invalid closure CompilerOptions: " + e.getCause().getMessage(),
+                        e.getCause());
+            }
+            options.prettyPrint = keepLines || options.prettyPrint;
+            level.setOptionsForCompilationLevel(options);
+            return options;
+        }
+
+        /**
+         * A public field of that name, or else the setter of a bean property,
+         * like LiveConnect assigns properties of Java objects.
+         */
+        private static Member find(String name) {
+            try {
+                return CompilerOptions.class.getField(name);
+            } catch (NoSuchFieldException e) {
+                String setter = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+                for (Method method : CompilerOptions.class.getMethods()) {
+                    if (method.getName().equals(setter) && method.getParameterTypes().length == 1) {
+                        return method;
+                    }
+                }
+                throw new IllegalArgumentException("Unknown closure CompilerOptions option: " + name);
+            }
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static Object convert(String name, Object value, Class<?> type) {
+            if (type == boolean.class || type == Boolean.class) {
+                return isTrue(value);
+            }
+            if (value instanceof Number) {
+                Number number = (Number) value;
+                if (type == int.class || type == Integer.class) {
+                    return number.intValue();
+                }
+                if (type == long.class || type == Long.class) {
+                    return number.longValue();
+                }
+                if (type == double.class || type == Double.class) {
+                    return number.doubleValue();
+                }
+            }
+            if (type == String.class) {
+                return value.toString();
+            }
+            if (type.isEnum() && value instanceof CharSequence) {
+                return Enum.valueOf((Class<Enum>) type, value.toString());
+            }
+            if (type.isInstance(value)) {
+                return value;
+            }
+            throw new IllegalArgumentException("Unsupported value for closure CompilerOptions option " + name + ": "
+                    + value);
+        }
+    }
+
+    /**
+     * The minified code and source map of a file.
+     */
+    public static class Output {
+
+        private final String source;
+        private final String sourceMap;
+
+        Output(String source, String sourceMap) {
+            this.source = source;
+            this.sourceMap = sourceMap;
+        }
+
+        /**
+         * @return the minified code
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * @return the source map, or null if none was generated
+         */
+        public String getSourceMap() {
+            return sourceMap;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSModule;
+import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.jscomp.Result;
+import com.google.javascript.jscomp.SourceFile;
+import com.google.javascript.jscomp.deps.SortedDependencies;
+
+/**
+ * The layers of a build, compiled by Closure in a single compilation with
+ * one JSModule per layer. A layer that excludes another layer depends on
+ * it, so code the layers share is only compiled once and, in advanced
+ * mode, moved to where it is used or removed when no layer uses it.
+ * <p>
+ * Layers that no other layer is compiled before are given a common, empty
+ * root module, as the compiler expects a single root. Should the compiler
+ * put code into it, that code is prepended to each of those layers.
+ */
+public class ClosureModules {
+
+    /**
+     * The globals of require.js, which must keep their names.
+     */
+    static final String AMD_EXTERNS = "/** @param {...*} var_args */ function define(var_args) {}\n"
+            + "define.amd;\n"
+            + "/** @param {...*} var_args */ function require(var_args) {}\n"
+            + "require.config;\nrequire.toUrl;\nrequire.defined;\nrequire.specified;\nrequire.onError;\n"
+            + "/** @param {...*} var_args */ function requirejs(var_args) {}\n"
+            + "requirejs.config;\nrequirejs.toUrl;\nrequirejs.defined;\nrequirejs.specified;\nrequirejs.onError;\n";
+
+    private static final String ROOT = "$requirejs-root";
+
+    private final ClosureHost closure;
+    private final Map<String, JSModule> modules = new LinkedHashMap<String, JSModule>();
+    private final List<SourceFile> externs = new ArrayList<SourceFile>();
+    private final Map<String, String> sources = new LinkedHashMap<String, String>();
+
+    ClosureModules(ClosureHost closure) {
+        this.closure = closure;
+    }
+
+    /**
+     * @param name the name of the layer
+     * @param fileName the file of the layer
+     * @param contents the contents of the layer
+     */
+    public void add(String name, String fileName, String contents) {
+        if (modules.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate layer: " + name);
+        }
+        JSModule module = new JSModule(name);
+        module.add(JSSourceFile.fromCode(fileName, contents));
+        modules.put(name, module);
+    }
+
+    /**
+     * Make a layer depend on another layer, which is then compiled and must
+     * be loaded before it.
+     * @param name the name of the layer
+     * @param dependency the name of the layer it depends on
+     */
+    public void addDependency(String name, String dependency) {
+        JSModule module = modules.get(name);
+        JSModule required = modules.get(dependency);
+        if (module == null || required == null) {
+            throw new IllegalArgumentException("Unknown layer: " + (module == null ? name : dependency));
+        }
+        module.addDependency(required);
+    }
+
+    /**
+     * @param fileName the name of the externs file
+     * @param contents the externs
+     */
+    public void addExterns(String fileName, String contents) {
+        externs.add(JSSourceFile.fromCode(fileName, contents));
+    }
+
+    /**
+     * Compile the layers.
+     * @param keepLines whether to keep line breaks
+     * @param compilerOptions the CompilerOptions of the closure build config
+     * @param compilationLevel the name of the compilation level
+     * @param loggingLevel the name of the compiler logging level
+     * @return whether the layers compiled
+     * @throws IOException if the default externs can not be read
+     * @see ClosureHost#compile(String, String, String, boolean, Map, String, String, boolean)
+     */
+    public boolean compile(boolean keepLines, Map<?, ?> compilerOptions, String compilationLevel,
+            String loggingLevel) throws IOException {
+        CompilerOptions options = closure.prepare(compilerOptions, compilationLevel, keepLines).create();
+
+        JSModule root = new JSModule(ROOT);
+        root.add(JSSourceFile.fromCode(ROOT + ".js", ""));
+        List<JSModule> graph = new ArrayList<JSModule>();
+        graph.add(root);
+        try {
+            for (JSModule module : JSModule.sortJsModules(modules.values())) {
+                graph.add(module);
+            }
+        } catch (SortedDependencies.CircularDependencyException e) {
+            throw new IllegalArgumentException("Layers exclude each other: " + e.getMessage(), e);
+        }
+        List<JSModule> roots = new ArrayList<JSModule>();
+        for (JSModule module : modules.values()) {
+            if (module.getDependencies().isEmpty()) {
+                roots.add(module);
+                module.addDependency(root);
+            }
+        }
+
+        List<SourceFile> allExterns = new ArrayList<SourceFile>(CommandLineRunner.getDefaultExterns());
+        allExterns.add(JSSourceFile.fromCode("requirejs-externs.js", AMD_EXTERNS));
+        allExterns.addAll(externs);
+
+        Compiler.setLoggingLevel(Level.parse(loggingLevel));
+        Compiler compiler = new Compiler();
+        Result result = compiler.compileModules(allExterns, graph, options);
+        if (!result.success) {
+            return false;
+        }
+
+        String shared = compiler.toSource(root);
+        for (Map.Entry<String, JSModule> module : modules.entrySet()) {
+            String source = compiler.toSource(module.getValue());
+            sources.put(module.getKey(), roots.contains(module.getValue()) ? shared + source : source);
+        }
+        return true;
+    }
+
+    /**
+     * @param name the name of a layer
+     * @return the compiled layer
+     */
+    public String getSource(String name) {
+        return sources.get(name);
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * SHA-1 content hashing helpers used to key the plugin's caches.
+ */
+public final class ContentHash {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentHash() {
+    }
+
+    /**
+     * Hash a byte array.
+     * @param bytes the content to hash
+     * @return the lower case hex encoded SHA-1 of the content
+     */
+    public static String of(byte[] bytes) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hash a string using its UTF-8 encoding.
+     * @param text the content to hash
+     * @return the lower case hex encoded SHA-1 of the content
+     */
+    public static String of(String text) {
+        try {
+            return of(text.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+
+    /**
+     * Hash the contents of a file.
+     * @param file the file to hash
+     * @return the lower case hex encoded SHA-1 of the file contents
+     * @throws IOException if the file can not be read
+     */
+    public static String of(File file) throws IOException {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            return of(in);
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Hash the remaining contents of a stream. The stream is not closed.
+     * @param in the stream to hash
+     * @return the lower case hex encoded SHA-1 of the stream contents
+     * @throws IOException if the stream can not be read
+     */
+    public static String of(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,411 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The CSS optimizer of r.js's optimize module, implemented in Java for
+ * {@link RhinoRunner}. The optimizer bootstrap replaces optimize.css with a
+ * call to this class, which optimizes the files of a build on several
+ * threads with the same rules: @imports are inlined and their url()s
+ * rewritten, and comments and line breaks are removed.
+ * <p>
+ * r.js optimizes the files one after the other, in place, so a file that
+ * imports a file optimized before it inlines the optimized version. Such an
+ * import waits for the optimized file here, which keeps the output identical
+ * to r.js's. Every other file is read once per build, and files are only
+ * written once all of them were optimized.
+ */
+public class CssHost {
+
+    /**
+     * The white space that \s matches in JavaScript.
+     */
+    private static final String SPACE = "[\\s\\u00a0\\u1680\\u180e\\u2000-\\u200a\\u2028\\u2029\\u202f\\u205f\\u3000\\ufeff]";
+
+    private static final Pattern IMPORT = Pattern.compile(
+            "@import" + SPACE + "+(url\\()?" + SPACE + "*([^);]+)" + SPACE + "*(\\))?([\\w, ]*)(;)?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern COMMENTED_IMPORT = Pattern.compile("/\\*[^\\*]*@import[^\\*]*\\*/");
+    private static final Pattern URL = Pattern.compile("url\\(" + SPACE + "*([^\\)]+)" + SPACE + "*\\)?");
+    private static final Pattern TRAILING_SPACE = Pattern.compile(SPACE + "+$");
+    private static final Pattern LEADING_SPACE = Pattern.compile("^" + SPACE + "+");
+    private static final Pattern LINE_BREAK = Pattern.compile("[\\r\\n]");
+    private static final Pattern SPACES = Pattern.compile(SPACE + "+");
+    private static final Pattern SPACE_AFTER_BRACE = Pattern.compile("\\{" + SPACE);
+    private static final Pattern SPACE_BEFORE_BRACE = Pattern.compile(SPACE + "\\}");
+    private static final Pattern CRLFS = Pattern.compile("(\\r\\n)+");
+    private static final Pattern LFS = Pattern.compile("(\\n)+");
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final FileHost files;
+
+    CssHost(FileHost files) {
+        this.files = files;
+    }
+
+    /**
+     * Optimize CSS files in place.
+     * @param fileNames the files, separated by NUL characters
+     * @param optimizeCss the optimizeCss option of the build
+     * @param cssImportIgnore comma separated imports not to inline, may be null
+     * @param cssPrefix the prefix for rewritten url()s
+     * @param preserveLicenseComments whether to keep license comments
+     * @param threads the number of threads to use
+     * @return the result for each file, in the order of the files
+     * @throws IOException if a file can not be read or written
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public Result[] optimize(String fileNames, String optimizeCss, String cssImportIgnore, String cssPrefix,
+            boolean preserveLicenseComments, int threads) throws IOException, InterruptedException {
+        final String[] names = fileNames.length() > 0 ? fileNames.split("\u0000") : new String[0];
+        final Build build = new Build(names, optimizeCss, cssImportIgnore, cssPrefix, preserveLicenseComments);
+        Result[] results = new Result[names.length];
+
+        // Tasks only wait for tasks submitted before them, which a pool
+        // with a FIFO queue has always started.
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, names.length)),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task, "requirejs-css-" + THREAD_COUNT.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            for (int i = 0; i < names.length; i++) {
+                final int index = i;
+                build.optimized.set(i, pool.submit(new Callable<Result>() {
+                    public Result call() throws IOException, InterruptedException {
+                        return build.optimize(names[index], index);
+                    }
+                }));
+            }
+            for (int i = 0; i < names.length; i++) {
+                results[i] = build.optimized.get(i).get();
+            }
+
+            List<Future<Object>> written = new ArrayList<Future<Object>>();
+            for (final Result result : results) {
+                written.add(pool.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        files.saveFile(result.fileName, result.contents, "utf-8");
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> write : written) {
+                write.get();
+            }
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    private static IOException rethrow(ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+            return (IOException) e.getCause();
+        }
+        if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+        }
+        throw new IllegalStateException(e.getCause());
+    }
+
+    /**
+     * The options of a build and the files it read.
+     */
+    private class Build {
+
+        private final ConcurrentMap<String, String> contents = new ConcurrentHashMap<String, String>();
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        private final AtomicReferenceArray<Future<Result>> optimized;
+        private final boolean keepComments;
+        private final boolean keepLines;
+        private final String cssImportIgnore;
+        private final String cssPrefix;
+        private final boolean preserveLicenseComments;
+
+        Build(String[] names, String optimizeCss, String cssImportIgnore, String cssPrefix,
+                boolean preserveLicenseComments) throws IOException {
+            for (int i = 0; i < names.length; i++) {
+                indexes.put(new File(names[i]).getCanonicalPath(), i);
+            }
+            this.optimized = new AtomicReferenceArray<Future<Result>>(names.length);
+            this.keepComments = optimizeCss.indexOf(".keepComments") != -1;
+            this.keepLines = optimizeCss.indexOf(".keepLines") != -1;
+            this.cssImportIgnore = cssImportIgnore != null && cssImportIgnore.length() > 0
+                    && !cssImportIgnore.endsWith(",") ? cssImportIgnore + "," : cssImportIgnore;
+            this.cssPrefix = cssPrefix != null ? cssPrefix : "";
+            this.preserveLicenseComments = preserveLicenseComments;
+        }
+
+        /**
+         * Read a file the way the file with the given index would have found
+         * it in r.js: optimized if it is one of the files optimized before.
+         */
+        String read(String fileName, int index) throws IOException, InterruptedException {
+            String path = new File(fileName).getCanonicalPath();
+            Integer optimizedIndex = indexes.get(path);
+            if (optimizedIndex != null && optimizedIndex < index) {
+                try {
+                    return files.lines(optimized.get(optimizedIndex).get().contents);
+                } catch (ExecutionException e) {
+                    throw rethrow(e);
+                }
+            }
+            String text = contents.get(path);
+            if (text == null) {
+                text = files.readFile(fileName, "utf-8");
+                contents.putIfAbsent(path, text);
+            }
+            return text;
+        }
+
+        Result optimize(String fileName, int index) throws IOException, InterruptedException {
+            Result result = new Result(fileName);
+            String original = read(fileName, index);
+            Flattened flat = flatten(fileName, original, index, new HashSet<String>(), result);
+            String text = flat.skipped.isEmpty() ? flat.contents : original;
+
+            if (!flat.skipped.isEmpty()) {
+                StringBuilder skipped = new StringBuilder();
+                for (String name : flat.skipped) {
+                    skipped.append(skipped.length() > 0 ? "\n" : "").append(name);
+                }
+                result.log("warn", "Cannot inline @imports for " + fileName
+                        + ",\nthe following files had media queries in them:\n" + skipped);
+            }
+
+            try {
+                if (!keepComments) {
+                    text = removeComments(fileName, text);
+                }
+                if (!keepLines) {
+                    text = LINE_BREAK.matcher(text).replaceAll("");
+                    text = SPACES.matcher(text).replaceAll(" ");
+                    text = SPACE_AFTER_BRACE.matcher(text).replaceAll("{");
+                    text = SPACE_BEFORE_BRACE.matcher(text).replaceAll("}");
+                } else {
+                    text = CRLFS.matcher(text).replaceAll("\r\n");
+                    text = LFS.matcher(text).replaceAll("\n");
+                }
+            } catch (IllegalArgumentException e) {
+                text = original;
+                result.log("error", "Could not optimized CSS file: " + fileName + ", error: " + e.getMessage());
+            }
+
+            result.contents = text;
+            result.imports = flat.imports.toArray(new String[flat.imports.size()]);
+            return result;
+        }
+
+        /**
+         * Remove comments like r.js does. r.js starts over at the beginning
+         * of the file after every comment it removes, which finds the same
+         * comments as continuing with the search that found it.
+         */
+        private String removeComments(String fileName, String text) {
+            StringBuilder css = new StringBuilder(text);
+            int from = 0;
+            int start;
+            while ((start = css.indexOf("/*", from)) != -1) {
+                int end = css.indexOf("*/", start + 2);
+                if (end == -1) {
+                    throw new IllegalArgumentException("Improper comment in CSS file: " + fileName);
+                }
+                String comment = css.substring(start, end);
+                if (preserveLicenseComments && (comment.indexOf("license") != -1
+                        || comment.indexOf("opyright") != -1 || comment.indexOf("(c)") != -1)) {
+                    from = end;
+                } else {
+                    css.delete(start, end + 2);
+                }
+            }
+            return css.toString();
+        }
+
+        private Flattened flatten(String fileName, String text, int index, Set<String> included, Result result)
+                throws IOException, InterruptedException {
+            fileName = fileName.replace('\\', '/');
+            int endIndex = fileName.lastIndexOf('/');
+            String filePath = endIndex != -1 ? fileName.substring(0, endIndex + 1) : "";
+            Flattened flat = new Flattened();
+
+            text = COMMENTED_IMPORT.matcher(text).replaceAll("");
+
+            Matcher match = IMPORT.matcher(text);
+            StringBuffer css = new StringBuffer();
+            while (match.find()) {
+                String replacement = inline(match, fileName, filePath, index, included, flat, result);
+                match.appendReplacement(css, Matcher.quoteReplacement(replacement));
+            }
+            match.appendTail(css);
+            flat.contents = css.toString();
+            return flat;
+        }
+
+        private String inline(Matcher match, String fileName, String filePath, int index, Set<String> included,
+                Flattened flat, Result result) throws IOException, InterruptedException {
+            String fullMatch = match.group();
+            String mediaTypes = match.group(4);
+            if (mediaTypes != null && mediaTypes.length() > 0 && !trim(mediaTypes).equals("all")) {
+                flat.skipped.add(fileName);
+                return fullMatch;
+            }
+
+            String importFileName = cleanQuotes(match.group(2));
+            if (cssImportIgnore != null && cssImportIgnore.length() > 0
+                    && cssImportIgnore.indexOf(importFileName + ",") != -1) {
+                return fullMatch;
+            }
+            importFileName = importFileName.replace('\\', '/');
+
+            String fullImportFileName = importFileName.startsWith("/") ? importFileName : filePath + importFileName;
+            String importContents;
+            try {
+                importContents = read(fullImportFileName, index);
+            } catch (IOException e) {
+                result.log("warn", fileName + "\n  Cannot inline css import, skipping: " + importFileName);
+                return fullMatch;
+            }
+            if (!included.add(fullImportFileName)) {
+                return "";
+            }
+
+            Flattened nested = flatten(fullImportFileName, importContents, index, included, result);
+            flat.imports.addAll(nested.imports);
+            flat.skipped.addAll(nested.skipped);
+
+            int importEndIndex = importFileName.lastIndexOf('/');
+            String importPath = importEndIndex != -1 ? importFileName.substring(0, importEndIndex + 1) : "";
+            if (importPath.startsWith("./")) {
+                importPath = importPath.substring(2);
+            }
+
+            Matcher url = URL.matcher(nested.contents);
+            StringBuffer rewritten = new StringBuffer();
+            while (url.find()) {
+                url.appendReplacement(rewritten, Matcher.quoteReplacement(
+                        rewriteUrl(url.group(1), importFileName, importPath, result)));
+            }
+            url.appendTail(rewritten);
+
+            flat.imports.add(fullImportFileName);
+            return rewritten.toString();
+        }
+
+        private String rewriteUrl(String urlMatch, String importFileName, String importPath, Result result) {
+            String fixedUrlMatch = cleanQuotes(urlMatch).replace('\\', '/');
+            int colonIndex = fixedUrlMatch.indexOf(':');
+            if (!fixedUrlMatch.startsWith("/") && (colonIndex == -1 || colonIndex > fixedUrlMatch.indexOf('/'))) {
+                urlMatch = cssPrefix + importPath + fixedUrlMatch;
+            } else {
+                result.log("trace", importFileName + "\n  URL not a relative URL, skipping: " + urlMatch);
+            }
+
+            // Collapse .. and . the way r.js does.
+            List<String> parts = new ArrayList<String>();
+            for (String part : urlMatch.split("/", -1)) {
+                parts.add(part);
+            }
+            for (int i = parts.size() - 1; i > 0; i--) {
+                if (parts.get(i).equals(".")) {
+                    parts.remove(i);
+                } else if (parts.get(i).equals("..") && !parts.get(i - 1).equals("..")) {
+                    parts.remove(i);
+                    parts.remove(i - 1);
+                    i -= 1;
+                }
+            }
+            StringBuilder url = new StringBuilder("url(");
+            for (int i = 0; i < parts.size(); i++) {
+                url.append(i > 0 ? "/" : "").append(parts.get(i));
+            }
+            return url.append(')').toString();
+        }
+    }
+
+    private static String cleanQuotes(String url) {
+        url = TRAILING_SPACE.matcher(url).replaceAll("");
+        if (url.startsWith("'") || url.startsWith("\"")) {
+            url = url.substring(1, url.length() - 1);
+        }
+        return url;
+    }
+
+    private static String trim(String text) {
+        return TRAILING_SPACE.matcher(LEADING_SPACE.matcher(text).replaceAll("")).replaceAll("");
+    }
+
+    /**
+     * A file with its imports inlined.
+     */
+    private static class Flattened {
+        private String contents;
+        private final List<String> imports = new ArrayList<String>();
+        private final List<String> skipped = new ArrayList<String>();
+    }
+
+    /**
+     * An optimized CSS file.
+     */
+    public static class Result {
+
+        private final String fileName;
+        private final List<String> log = new ArrayList<String>();
+        private String contents;
+        private String[] imports;
+
+        Result(String fileName) {
+            this.fileName = fileName;
+        }
+
+        void log(String level, String message) {
+            log.add(level + ":" + message);
+        }
+
+        /**
+         * @return the file
+         */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * @return the files that were inlined, in the order r.js lists them
+         */
+        public String[] getImports() {
+            return imports;
+        }
+
+        /**
+         * @return messages to log, in order, each prefixed with its level and a colon
+         */
+        public String[] getLog() {
+            return log.toArray(new String[log.size()]);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * File I/O for r.js under {@link RhinoRunner}. The optimizer bootstrap
+ * replaces the functions of r.js's rhino/file module with calls to this
+ * class, which behave the same but do their work in a single call instead
+ * of many reflective LiveConnect calls per file.
+ * <p>
+ * Files are replaced rather than overwritten, so that writing to a file
+ * that was staged as a hard link never changes the file it links to.
+ */
+public class FileHost {
+
+    private static final char ENTRY_SEPARATOR = '\u0000';
+
+    private static final Method TO_PATH;
+    private static final Method CREATE_LINK;
+
+    static {
+        Method toPath = null;
+        Method createLink = null;
+        try {
+            Class<?> path = Class.forName("java.nio.file.Path");
+            toPath = File.class.getMethod("toPath");
+            createLink = Class.forName("java.nio.file.Files").getMethod("createLink", path, path);
+        } catch (Exception e) {
+            // Hard links need Java 7, files are copied instead.
+        }
+        TO_PATH = toPath;
+        CREATE_LINK = createLink;
+    }
+
+    private final String lineSeparator = System.getProperty("line.separator");
+
+    public boolean exists(String path) {
+        return new File(path).exists();
+    }
+
+    public boolean isFile(String path) {
+        return new File(path).isFile();
+    }
+
+    public boolean isDirectory(String path) {
+        return new File(path).isDirectory();
+    }
+
+    /**
+     * @param path a path
+     * @return the canonical path, with forward slashes
+     * @throws IOException if the canonical path can not be determined
+     */
+    public String absPath(String path) throws IOException {
+        return new File(path).getCanonicalPath().replace('\\', '/');
+    }
+
+    /**
+     * @param path a path
+     * @return the canonical path of the parent, with forward slashes, or null if there is no parent
+     * @throws IOException if the canonical path can not be determined
+     */
+    public String parent(String path) throws IOException {
+        File parent = new File(path).getParentFile();
+        return parent != null ? parent.getCanonicalPath().replace('\\', '/') : null;
+    }
+
+    /**
+     * List a directory in one call. Every entry is the path of a child as
+     * returned by {@link File#getPath()}, prefixed with 'd' for directories
+     * and 'f' for files, and entries are separated by NUL characters.
+     * @param dir the directory
+     * @return the entries, or an empty string if there are none
+     */
+    public String list(String dir) {
+        File[] children = new File(dir).listFiles();
+        if (children == null) {
+            return "";
+        }
+        StringBuilder entries = new StringBuilder();
+        for (File child : children) {
+            boolean isFile = child.isFile();
+            if (!isFile && !child.isDirectory()) {
+                continue;
+            }
+            if (entries.length() > 0) {
+                entries.append(ENTRY_SEPARATOR);
+            }
+            entries.append(isFile ? 'f' : 'd').append(child.getPath());
+        }
+        return entries.toString();
+    }
+
+    /**
+     * Read a file the way r.js does under Rhino: a leading byte order mark
+     * is dropped, and every line ends with the platform line separator.
+     * @param path the file
+     * @param encoding the encoding of the file
+     * @return the contents
+     * @throws IOException if the file can not be read
+     */
+    public String readFile(String path, String encoding) throws IOException {
+        return lines(read(path, encoding));
+    }
+
+    /**
+     * @param text the contents of a file
+     * @return the contents as {@link #readFile(String, String)} returns them
+     */
+    String lines(String text) {
+        if (text.length() == 0) {
+            return text;
+        }
+        int start = text.charAt(0) == '\uFEFF' ? 1 : 0;
+        int length = text.length();
+        StringBuilder lines = new StringBuilder(length + 64);
+        int i = start;
+        do {
+            int end = i;
+            while (end < length && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+                end++;
+            }
+            lines.append(text, i, end).append(lineSeparator);
+            if (end + 1 < length && text.charAt(end) == '\r' && text.charAt(end + 1) == '\n') {
+                end++;
+            }
+            i = end + 1;
+        } while (i < length);
+        return lines.toString();
+    }
+
+    /**
+     * Read a file exactly as it is stored.
+     * @param path the file
+     * @param encoding the encoding of the file
+     * @return the contents
+     * @throws IOException if the file can not be read
+     */
+    public String read(String path, String encoding) throws IOException {
+        FileInputStream in = new FileInputStream(path);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+            while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+                // Keep reading until the whole file is in the buffer.
+            }
+            bytes.flip();
+            return Charset.forName(encoding).decode(bytes).toString();
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * @param path the file
+     * @param contents the contents
+     * @param encoding the encoding, or null for the platform default
+     * @throws IOException if the file can not be written
+     */
+    public void saveFile(String path, String contents, String encoding) throws IOException {
+        File file = new File(path);
+        mkdirs(file.getAbsoluteFile().getParentFile());
+        file.delete();
+        FileOutputStream out = new FileOutputStream(file);
+        Writer writer = encoding != null ? new OutputStreamWriter(out, encoding) : new OutputStreamWriter(out);
+        try {
+            writer.write(contents);
+        } finally {
+            IOUtil.close(writer);
+        }
+    }
+
+    /**
+     * @param source the file to copy
+     * @param target the copy
+     * @param onlyCopyNew whether to skip the copy if the target is not older than the source
+     * @return whether the file was copied
+     * @throws IOException if the file can not be copied
+     */
+    public boolean copyFile(String source, String target, boolean onlyCopyNew) throws IOException {
+        File sourceFile = new File(source);
+        File targetFile = new File(target);
+        if (onlyCopyNew && targetFile.exists() && targetFile.lastModified() >= sourceFile.lastModified()) {
+            return false;
+        }
+        mkdirs(targetFile.getParentFile());
+        targetFile.delete();
+
+        FileInputStream in = new FileInputStream(sourceFile);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(targetFile);
+            FileChannel channel = in.getChannel();
+            out.getChannel().transferFrom(channel, 0, channel.size());
+        } finally {
+            IOUtil.close(in);
+            IOUtil.close(out);
+        }
+        return true;
+    }
+
+    /**
+     * Stage a file as a hard link to the source where the file system and
+     * JVM support it, and as a copy otherwise.
+     * @param source the file to link to
+     * @param target the link
+     * @param onlyCopyNew whether to skip the file if the target is not older than the source
+     * @return whether the file was staged
+     * @throws IOException if the file can not be copied
+     */
+    public boolean linkFile(String source, String target, boolean onlyCopyNew) throws IOException {
+        File sourceFile = new File(source);
+        File targetFile = new File(target);
+        if (onlyCopyNew && targetFile.exists() && targetFile.lastModified() >= sourceFile.lastModified()) {
+            return false;
+        }
+        if (CREATE_LINK != null) {
+            mkdirs(targetFile.getParentFile());
+            targetFile.delete();
+            try {
+                CREATE_LINK.invoke(null, TO_PATH.invoke(targetFile), TO_PATH.invoke(sourceFile));
+                return true;
+            } catch (InvocationTargetException e) {
+                // Not supported here, for example across file systems.
+            } catch (IllegalAccessException e) {
+                // Not accessible, copy instead.
+            }
+        }
+        return copyFile(source, target, false);
+    }
+
+    public boolean renameFile(String from, String to) {
+        return new File(from).renameTo(new File(to));
+    }
+
+    /**
+     * Delete a file, or a directory and everything in it.
+     * @param path the file or directory
+     */
+    public void deleteFile(String path) {
+        delete(new File(path));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory: " + dir.getAbsolutePath());
+        }
+    }
+}
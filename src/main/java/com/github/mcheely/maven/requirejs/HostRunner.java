@@ -0,0 +1,24 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+
+import org.mozilla.javascript.ErrorReporter;
+
+/**
+ * A runner that runs scripts in this JVM, with a {@link RhinoHost} exposed
+ * to them, and can run them again with an extra global, as the host does
+ * for minification workers.
+ */
+interface HostRunner extends Runner {
+
+    /**
+     * Execute a js file with an extra global defined.
+     * @param mainScript the script to run.
+     * @param args arguments that will be visible to the script.
+     * @param reporter error reporter.
+     * @param globalName name of the extra global, or null for none
+     * @param globalValue Java object to expose as the extra global
+     * @return the exit status of the script
+     */
+    ExitStatus exec(File mainScript, String[] args, ErrorReporter reporter, String globalName, Object globalValue);
+}
@@ -0,0 +1,52 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.util.Collection;
+
+/**
+ * Minimal JSON encoding helpers, for the few values the plugin hands to
+ * JavaScript code.
+ */
+public final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Quote a string as a JSON (and JavaScript) string literal.
+     * @param value the string to quote
+     * @return the quoted string, or "null" if the value is null
+     */
+    public static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Encode strings as a JSON array.
+     * @param values the strings to encode
+     * @return the JSON array
+     */
+    public static String array(Collection<String> values) {
+        StringBuilder json = new StringBuilder("[");
+        for (String value : values) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(quote(value));
+        }
+        return json.append(']').toString();
+    }
+}
@@ -0,0 +1,243 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * The layers of a directory build and the files traced into each of them,
+ * as reported by r.js in the build.txt it writes to the output directory.
+ * Paths are relative to the output directory.
+ */
+public class LayerIndex {
+
+    private static final String SEPARATOR = "----------------";
+
+    private final Map<String, Layer> layers;
+    private final List<Layer> otherSections;
+
+    private LayerIndex(Map<String, Layer> layers, List<Layer> otherSections) {
+        this.layers = layers;
+        this.otherSections = otherSections;
+    }
+
+    /**
+     * Parse the build.txt of a directory build. r.js lists the layers in
+     * the order of the modules in the build profile; sections for optimized
+     * CSS files come first and are kept as they are.
+     * @param buildText contents of build.txt
+     * @param moduleNames names of the modules that were built, in profile order
+     * @return the index, or null if the layers do not match the modules
+     */
+    public static LayerIndex parse(String buildText, List<String> moduleNames) {
+        List<Layer> sections = new ArrayList<Layer>();
+        String[] lines = buildText.split("\r?\n");
+        Layer section = null;
+        for (int i = 0; i < lines.length; i++) {
+            if (i + 1 < lines.length && lines[i + 1].equals(SEPARATOR) && lines[i].length() > 0) {
+                section = new Layer(null, lines[i], new ArrayList<String>());
+                sections.add(section);
+                i++;
+            } else if (lines[i].length() == 0) {
+                section = null;
+            } else if (section != null) {
+                section.files.add(lines[i]);
+            }
+        }
+
+        Map<String, Layer> layers = new LinkedHashMap<String, Layer>();
+        List<Layer> otherSections = new ArrayList<Layer>();
+        int module = 0;
+        for (Layer layer : sections) {
+            if (layer.output.endsWith(".css")) {
+                otherSections.add(layer);
+            } else if (module == moduleNames.size()) {
+                return null;
+            } else {
+                String name = moduleNames.get(module++);
+                layers.put(name, new Layer(name, layer.output, layer.files));
+            }
+        }
+        return module == moduleNames.size() ? new LayerIndex(layers, otherSections) : null;
+    }
+
+    /**
+     * Read the build.txt r.js wrote to an output directory.
+     * @param dir the output directory of the build
+     * @param moduleNames names of the modules that were built, in profile order
+     * @return the index, or null if there is no build.txt or its layers do not match the modules
+     * @throws IOException if build.txt can not be read
+     */
+    public static LayerIndex read(File dir, List<String> moduleNames) throws IOException {
+        File buildText = new File(dir, "build.txt");
+        if (!buildText.isFile()) {
+            return null;
+        }
+        return parse(FileUtils.fileRead(buildText, "UTF-8"), moduleNames);
+    }
+
+    /**
+     * Load an index saved by {@link #save(File)}.
+     * @param file the file the index was saved to
+     * @return the index, or null if there is none or it can not be read
+     */
+    public static LayerIndex load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtil.close(in);
+        }
+        String modules = properties.getProperty("modules");
+        String buildText = properties.getProperty("buildText");
+        if (modules == null || buildText == null) {
+            return null;
+        }
+        List<String> moduleNames = modules.length() > 0
+                ? Arrays.asList(modules.split("\n")) : Collections.<String>emptyList();
+        return parse(buildText, moduleNames);
+    }
+
+    /**
+     * Save the index.
+     * @param file the file to save to
+     * @throws IOException if the file can not be written
+     */
+    public void save(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("modules", StringUtils.join(layers.keySet().iterator(), "\n"));
+        properties.setProperty("buildText", toBuildText());
+        file.getParentFile().mkdirs();
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            properties.store(out, "Layers of the last successful requirejs optimization");
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+
+    /**
+     * @return the layers, keyed by module name, in profile order
+     */
+    public Map<String, Layer> getLayers() {
+        return Collections.unmodifiableMap(layers);
+    }
+
+    /**
+     * Find the layers that include any of the given files.
+     * @param files paths relative to the output directory
+     * @return names of the affected modules, in profile order
+     */
+    public Set<String> getLayersIncluding(Collection<String> files) {
+        Set<String> affected = new LinkedHashSet<String>();
+        for (Layer layer : layers.values()) {
+            for (String file : layer.files) {
+                if (files.contains(file)) {
+                    affected.add(layer.name);
+                    break;
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Combine this index with the index of a build that only rebuilt some
+     * of the layers. Rebuilt layers replace the previous ones, the others are
+     * kept, and the other sections are taken from the newer build.
+     * @param rebuilt index of the partial build
+     * @return the combined index
+     */
+    public LayerIndex merge(LayerIndex rebuilt) {
+        Map<String, Layer> merged = new LinkedHashMap<String, Layer>();
+        for (Layer layer : layers.values()) {
+            Layer replacement = rebuilt.layers.get(layer.name);
+            merged.put(layer.name, replacement != null ? replacement : layer);
+        }
+        return new LayerIndex(merged, rebuilt.otherSections);
+    }
+
+    /**
+     * @return the index in the format of the build.txt r.js writes
+     */
+    public String toBuildText() {
+        StringBuilder text = new StringBuilder();
+        for (Layer section : otherSections) {
+            section.appendTo(text);
+            text.append('\n');
+        }
+        for (Layer layer : layers.values()) {
+            layer.appendTo(text);
+        }
+        return text.toString();
+    }
+
+    /**
+     * One layer of the build.
+     */
+    public static class Layer {
+
+        private final String name;
+        private final String output;
+        private final List<String> files;
+
+        Layer(String name, String output, List<String> files) {
+            this.name = name;
+            this.output = output;
+            this.files = files;
+        }
+
+        /**
+         * @return the name of the module the layer is built for
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return path of the layer file
+         */
+        public String getOutput() {
+            return output;
+        }
+
+        /**
+         * @return paths of the files combined into the layer
+         */
+        public List<String> getFiles() {
+            return Collections.unmodifiableList(files);
+        }
+
+        private void appendTo(StringBuilder text) {
+            text.append('\n').append(output).append('\n').append(SEPARATOR).append('\n');
+            for (String file : files) {
+                text.append(file).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Rebuild of the layers of a directory build that include changed files,
+ * keeping the previous output of the other layers. The rebuild runs r.js
+ * with a derived build profile that only lists the affected modules and
+ * keeps the output directory, so unchanged files are not copied again.
+ */
+public class LayerRebuild {
+
+    private final BuildProfile profile;
+    private final File dir;
+    private final LayerIndex previous;
+    private final Set<String> modules;
+    private final Collection<String> changedFiles;
+    private final File derivedProfile;
+
+    private LayerRebuild(BuildProfile profile, File dir, LayerIndex previous, Set<String> modules,
+            Collection<String> changedFiles, File derivedProfile) {
+        this.profile = profile;
+        this.dir = dir;
+        this.previous = previous;
+        this.modules = modules;
+        this.changedFiles = changedFiles;
+        this.derivedProfile = derivedProfile;
+    }
+
+    /**
+     * Prepare a rebuild of the layers that include changed files. Only
+     * changes to JavaScript files under the input directory can be handled
+     * this way, as other files may be inlined by loader plugins or CSS
+     * optimization without showing up in the layer index.
+     * @param profile the build profile
+     * @param previous the layer index of the previous build
+     * @param changedFiles files changed since the previous build, relative to the input directory
+     * @param derivedProfile where to write the build profile of the rebuild
+     * @return the rebuild, or null if a full build is needed
+     * @throws IOException if the output directory can not be prepared
+     */
+    public static LayerRebuild plan(BuildProfile profile, LayerIndex previous, Collection<String> changedFiles,
+            File derivedProfile) throws IOException {
+        return plan(profile, profile.getDir(), previous, changedFiles, derivedProfile);
+    }
+
+    /**
+     * Prepare a rebuild of the layers that include changed files in a build
+     * directory other than the dir of the build profile, such as the staging
+     * directory of an {@link OutputSync}.
+     * @param profile the build profile
+     * @param dir the build directory holding the output of the previous build
+     * @param previous the layer index of the previous build
+     * @param changedFiles files changed since the previous build, relative to the input directory
+     * @param derivedProfile where to write the build profile of the rebuild
+     * @return the rebuild, or null if a full build is needed
+     * @throws IOException if the build directory can not be prepared
+     */
+    public static LayerRebuild plan(BuildProfile profile, File dir, LayerIndex previous, Collection<String> changedFiles,
+            File derivedProfile) throws IOException {
+        if (dir == null || !dir.isDirectory() || previous == null || changedFiles == null
+                || !previous.getLayers().keySet().equals(new LinkedHashSet<String>(profile.getModuleNames()))) {
+            return null;
+        }
+        for (String file : changedFiles) {
+            if (!file.endsWith(".js")) {
+                return null;
+            }
+        }
+        for (Map<String, Object> module : profile.getModules()) {
+            if (module.get("override") != null) {
+                return null;
+            }
+        }
+
+        Set<String> modules = previous.getLayersIncluding(changedFiles);
+        addDependentLayers(profile, previous, modules);
+
+        // Files in the output directory are optimized copies by now, put the
+        // sources back so the affected layers are traced from the originals.
+        File input = profile.getInputDirectory();
+        for (String file : changedFiles) {
+            new File(dir, file).delete();
+        }
+        Set<String> restored = new LinkedHashSet<String>();
+        for (String module : modules) {
+            for (String file : previous.getLayers().get(module).getFiles()) {
+                File source = new File(input, file);
+                if (source.isFile() && restored.add(file)) {
+                    // Replace rather than overwrite, the copy may be a hard link to the source.
+                    File target = new File(dir, file);
+                    target.delete();
+                    FileUtils.copyFile(source, target);
+                }
+            }
+        }
+
+        writeProfile(profile, dir, modules, restored, derivedProfile);
+        return new LayerRebuild(profile, dir, previous, modules, changedFiles, derivedProfile);
+    }
+
+    /**
+     * @return the build profile to run r.js with, which has to run with
+     *         {@link Optimizer#setPartialRebuild(boolean)} set
+     */
+    public File getProfile() {
+        return derivedProfile;
+    }
+
+    /**
+     * @return names of the modules that are rebuilt
+     */
+    public Set<String> getModules() {
+        return modules;
+    }
+
+    /**
+     * Whether the rebuilt layers traced files that none of them included in
+     * the previous build and that did not change. Only the previous files of
+     * the rebuilt layers are put back from the sources, so those were read
+     * from the optimized output of the previous build, and a full build is
+     * needed instead.
+     * @return true if the rebuild has to be replaced by a full build
+     * @throws IOException if the build.txt of the rebuild can not be read
+     */
+    public boolean tracedNewFiles() throws IOException {
+        LayerIndex rebuilt = LayerIndex.read(dir, new ArrayList<String>(modules));
+        if (rebuilt == null) {
+            return false;
+        }
+        Set<String> known = new LinkedHashSet<String>(changedFiles);
+        for (String module : modules) {
+            known.addAll(previous.getLayers().get(module).getFiles());
+        }
+        for (LayerIndex.Layer layer : rebuilt.getLayers().values()) {
+            if (!known.containsAll(layer.getFiles())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finish a successful rebuild: combine the layer index of the rebuilt
+     * layers with the previous one, write the combined build.txt, and remove
+     * the combined files of the kept layers again if removeCombined is set.
+     * @return the layer index of the whole build, or null if the rebuild did not write one
+     * @throws IOException if the output directory can not be updated
+     */
+    public LayerIndex complete() throws IOException {
+        LayerIndex rebuilt = LayerIndex.read(dir, new ArrayList<String>(modules));
+        if (rebuilt == null) {
+            return null;
+        }
+        LayerIndex merged = previous.merge(rebuilt);
+        FileUtils.fileWrite(new File(dir, "build.txt").getPath(), "UTF-8", merged.toBuildText());
+
+        if (profile.getBoolean("removeCombined", false)) {
+            Set<String> outputs = new LinkedHashSet<String>();
+            for (LayerIndex.Layer layer : merged.getLayers().values()) {
+                outputs.add(layer.getOutput());
+            }
+            for (LayerIndex.Layer layer : merged.getLayers().values()) {
+                if (modules.contains(layer.getName())) {
+                    continue;
+                }
+                for (String file : layer.getFiles()) {
+                    if (!outputs.contains(file)) {
+                        deleteWithEmptyParents(new File(dir, file), dir);
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Layers are traced from the files in the output directory, so a layer
+     * that includes the output file of another layer, or excludes another
+     * layer, needs that layer rebuilt from its sources as well.
+     */
+    @SuppressWarnings("unchecked")
+    private static void addDependentLayers(BuildProfile profile, LayerIndex previous, Set<String> modules) {
+        List<String> names = profile.getModuleNames();
+        Map<String, String> outputs = new HashMap<String, String>();
+        for (LayerIndex.Layer layer : previous.getLayers().values()) {
+            outputs.put(layer.getOutput(), layer.getName());
+        }
+
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (Map<String, Object> module : profile.getModules()) {
+                if (!modules.contains(module.get("name"))) {
+                    continue;
+                }
+                List<Object> dependencies = new ArrayList<Object>();
+                for (String file : previous.getLayers().get(module.get("name")).getFiles()) {
+                    if (outputs.containsKey(file)) {
+                        dependencies.add(outputs.get(file));
+                    }
+                }
+                if (module.get("exclude") instanceof List) {
+                    dependencies.addAll((List<Object>) module.get("exclude"));
+                }
+                for (Object name : dependencies) {
+                    if (names.contains(name) && modules.add(name.toString())) {
+                        added = true;
+                    }
+                }
+            }
+        }
+
+        // Keep the modules in profile order, as r.js lists them in build.txt.
+        List<String> ordered = new ArrayList<String>(names);
+        ordered.retainAll(modules);
+        modules.clear();
+        modules.addAll(ordered);
+    }
+
+    /**
+     * Write a build profile that evaluates the original one and then narrows
+     * it down to the rebuilt modules. Paths r.js resolves against the
+     * directory of the profile are made absolute, since the derived profile
+     * lives elsewhere. The restored source files are listed for the
+     * optimizer bootstrap, which leaves the other, already optimized files
+     * in the build directory alone.
+     */
+    private static void writeProfile(BuildProfile profile, File dir, Set<String> modules, Set<String> restored,
+            File target) throws IOException {
+        StringBuilder js = new StringBuilder();
+        js.append("// Generated from ").append(profile.getFile().getName()).append(" by the requirejs-maven-plugin.\n");
+        js.append("(function () {\n");
+        js.append("    var base = ").append(Json.quote(path(profile.getFile().getParentFile()) + "/")).append(",\n");
+        js.append("        modules = ").append(Json.array(modules)).append(",\n");
+        js.append("        config = (\n").append(profile.getContents()).append("\n        );\n\n");
+        js.append("    function abs(path) {\n");
+        js.append("        if (typeof path !== 'string' || /^(\\/|\\\\|[a-zA-Z]:)/.test(path)) {\n");
+        js.append("            return path;\n");
+        js.append("        }\n");
+        js.append("        return base + path;\n");
+        js.append("    }\n\n");
+        if (profile.getString("appDir") != null) {
+            js.append("    config.appDir = ").append(Json.quote(path(profile.getAppDir()))).append(";\n");
+        } else {
+            js.append("    config.baseUrl = ").append(Json.quote(path(profile.getBaseUrl()))).append(";\n");
+        }
+        js.append("    config.dir = ").append(Json.quote(path(dir))).append(";\n");
+        if (profile.getMainConfigFile() != null) {
+            js.append("    config.mainConfigFile = ").append(Json.quote(path(profile.getMainConfigFile()))).append(";\n");
+        }
+        js.append("    config.cssIn = abs(config.cssIn);\n");
+        js.append("    if (config.wrap) {\n");
+        js.append("        ['startFile', 'endFile'].forEach(function (name) {\n");
+        js.append("            var files = config.wrap[name];\n");
+        js.append("            config.wrap[name] = Array.isArray(files) ? files.map(abs) : abs(files);\n");
+        js.append("        });\n");
+        js.append("    }\n\n");
+        js.append("    config.keepBuildDir = true;\n");
+        js.append("    config.requirejsPluginRebuild = ").append(Json.array(restored)).append(";\n");
+        js.append("    config.modules = config.modules.filter(function (module) {\n");
+        js.append("        return modules.indexOf(module.name) !== -1;\n");
+        js.append("    });\n");
+        js.append("    return config;\n");
+        js.append("}())\n");
+
+        target.getParentFile().mkdirs();
+        FileUtils.fileWrite(target.getPath(), "UTF-8", js.toString());
+    }
+
+    private static String path(File file) {
+        return file.getAbsolutePath().replace('\\', '/');
+    }
+
+    /**
+     * Delete a file, and then its parent directories up to the root as long as they are empty.
+     * @return whether the file was deleted
+     */
+    static boolean deleteWithEmptyParents(File file, File root) {
+        if (!file.delete()) {
+            return false;
+        }
+        File parent = file.getParentFile();
+        while (parent != null && !parent.equals(root) && parent.delete()) {
+            parent = parent.getParentFile();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minification jobs of one build, shared by the threads of a
+ * {@link RhinoHost#minify(MinifyBatch, int)} call. Jobs and results are
+ * JSON encoded by the optimizer bootstrap; each thread takes the next
+ * unclaimed job until none are left.
+ */
+public class MinifyBatch {
+
+    private final List<String> jobs = new ArrayList<String>();
+    private final ConcurrentMap<Integer, String> results = new ConcurrentHashMap<Integer, String>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Add a job. Jobs must all be added before the batch is run.
+     * @param job the JSON encoded job
+     * @return the index of the job
+     */
+    public synchronized int add(String job) {
+        jobs.add(job);
+        return jobs.size() - 1;
+    }
+
+    /**
+     * @return the number of jobs
+     */
+    public synchronized int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Claim the next job.
+     * @return the index of the job, or -1 if all jobs were claimed
+     */
+    public int next() {
+        int index = next.getAndIncrement();
+        return index < size() ? index : -1;
+    }
+
+    /**
+     * @param index index of a job
+     * @return the JSON encoded job
+     */
+    public synchronized String getJob(int index) {
+        return jobs.get(index);
+    }
+
+    /**
+     * @param index index of a job
+     * @param result the JSON encoded result of the job
+     */
+    public void setResult(int index, String result) {
+        results.put(Integer.valueOf(index), result);
+    }
+
+    /**
+     * @param index index of a job
+     * @return the JSON encoded result of the job, or null if it did not run
+     */
+    public String getResult(int index) {
+        return results.get(Integer.valueOf(index));
+    }
+}
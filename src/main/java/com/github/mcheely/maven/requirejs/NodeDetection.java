@@ -0,0 +1,247 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.PumpStreamHandler;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * The node executable to run r.js with, and its version. Detection results
+ * are cached per JVM, and can be persisted to a file so later builds skip
+ * forking "node --version". A result is only reused while the PATH it was
+ * detected with, and the path and modification time of the node binary it
+ * found, are unchanged. Not finding node is never persisted.
+ */
+public class NodeDetection {
+
+    private static final String[] NODE_COMMANDS = new String[]{"node", "nodejs"};
+
+    private static final String[] EXECUTABLE_SUFFIXES = new String[]{"", ".exe", ".cmd"};
+
+    private static final ConcurrentMap<String, NodeDetection> DETECTED = new ConcurrentHashMap<String, NodeDetection>();
+
+    private static final NodeDetection NOT_FOUND = new NodeDetection(null, null, null, 0, null);
+
+    private final String command;
+    private final String binary;
+    private final String version;
+    private final long modified;
+    private final File stateFile;
+
+    private NodeDetection(String command, String binary, String version, long modified, File stateFile) {
+        this.command = command;
+        this.binary = binary;
+        this.version = version;
+        this.modified = modified;
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Detect node on the PATH.
+     * @param stateFile file to persist the result to between builds, may be null
+     * @return the detection result, with a null command if node was not found
+     */
+    public static NodeDetection detect(File stateFile) {
+        return detect(stateFile, System.getenv("PATH"));
+    }
+
+    /**
+     * Detect node on the given search path.
+     * @param stateFile file to persist the result to between builds, may be null
+     * @param path the search path, in the format of the PATH environment variable
+     * @return the detection result, with a null command if node was not found
+     */
+    static NodeDetection detect(File stateFile, String path) {
+        String key = "PATH=" + path;
+        NodeDetection detection = DETECTED.get(key);
+        if (detection != null && detection.command != null && !detection.isCurrent(path)) {
+            DETECTED.remove(key, detection);
+            detection = null;
+        }
+        if (detection == null) {
+            detection = load(stateFile, path);
+            if (detection == null) {
+                detection = probe(stateFile, path);
+                save(stateFile, path, detection);
+            }
+            DETECTED.put(key, detection);
+        } else if (stateFile != null && detection.command != null && !stateFile.isFile()) {
+            save(stateFile, path, detection);
+        }
+        return detection;
+    }
+
+    /**
+     * Get the version of an explicitly configured node executable.
+     * @param executable the node executable
+     * @return the detection result, with a null version if it could not be determined
+     */
+    public static NodeDetection forExecutable(String executable) {
+        String key = "executable=" + executable;
+        NodeDetection detection = DETECTED.get(key);
+        if (detection == null) {
+            detection = new NodeDetection(executable, null, readVersion(CommandLine.parse(executable)), 0, null);
+            DETECTED.putIfAbsent(key, detection);
+        }
+        return detection;
+    }
+
+    /**
+     * Forget a detected node command, such as one that could not be
+     * executed, so the next build detects node again.
+     * @param command the node command
+     */
+    public static void invalidate(String command) {
+        for (NodeDetection detection : DETECTED.values()) {
+            if (detection.command != null && detection.command.equals(command)) {
+                DETECTED.values().remove(detection);
+                if (detection.stateFile != null) {
+                    detection.stateFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the node command, or null if node was not found
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the output of "node --version", or null if it is not known
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Whether node still resolves to the same, unmodified binary on the path.
+     */
+    private boolean isCurrent(String path) {
+        File resolved = resolve(path, command);
+        return resolved != null && resolved.getAbsolutePath().equals(binary) && resolved.lastModified() == modified;
+    }
+
+    private static NodeDetection probe(File stateFile, String path) {
+        for (String nodeCmd : NODE_COMMANDS) {
+            File resolved = resolve(path, nodeCmd);
+            if (resolved == null) {
+                continue;
+            }
+            String version = readVersion(new CommandLine(resolved));
+            if (version != null) {
+                return new NodeDetection(nodeCmd, resolved.getAbsolutePath(), version, resolved.lastModified(), stateFile);
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Find the binary a command runs on a search path.
+     */
+    private static File resolve(String path, String nodeCmd) {
+        if (path == null) {
+            return null;
+        }
+        for (String dir : path.split(File.pathSeparator)) {
+            if (dir.length() == 0) {
+                continue;
+            }
+            for (String suffix : EXECUTABLE_SUFFIXES) {
+                File resolved = new File(dir, nodeCmd + suffix);
+                if (resolved.isFile()) {
+                    return resolved;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String readVersion(CommandLine cmdLine) {
+        cmdLine.addArguments("--version");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DefaultExecutor executor = new DefaultExecutor();
+        executor.setStreamHandler(new PumpStreamHandler(out));
+
+        try {
+            if (executor.execute(cmdLine) == 0) {
+                return out.toString().trim();
+            }
+        } catch (IOException e) {
+            //Not available.
+        }
+        return null;
+    }
+
+    private static NodeDetection load(File stateFile, String path) {
+        if (stateFile == null || !stateFile.isFile()) {
+            return null;
+        }
+
+        Properties state = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(stateFile);
+            state.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtil.close(in);
+        }
+
+        if (!String.valueOf(path).equals(state.getProperty("path")) || state.getProperty("command") == null) {
+            return null;
+        }
+        NodeDetection detection;
+        try {
+            detection = new NodeDetection(state.getProperty("command"), state.getProperty("binary"),
+                    state.getProperty("version"), Long.parseLong(state.getProperty("modified")), stateFile);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return detection.isCurrent(path) ? detection : null;
+    }
+
+    private static void save(File stateFile, String path, NodeDetection detection) {
+        if (stateFile == null) {
+            return;
+        }
+        if (detection.command == null) {
+            // Look for node again next build, it may have been installed by then.
+            stateFile.delete();
+            return;
+        }
+
+        Properties state = new Properties();
+        state.setProperty("path", String.valueOf(path));
+        state.setProperty("command", detection.command);
+        state.setProperty("binary", detection.binary);
+        state.setProperty("version", detection.version);
+        state.setProperty("modified", String.valueOf(detection.modified));
+
+        OutputStream out = null;
+        try {
+            stateFile.getParentFile().mkdirs();
+            out = new FileOutputStream(stateFile);
+            state.store(out, "Node detection for the requirejs-maven-plugin");
+        } catch (IOException e) {
+            //Detection will simply run again next build.
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+}
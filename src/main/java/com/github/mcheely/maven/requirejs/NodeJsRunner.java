@@ -9,41 +9,72 @@ import java.io.File;
 import java.io.IOException;
 
 public class NodeJsRunner implements Runner {
-  private static final String[] nodeCommands = new String[]{"node", "nodejs"};
-
   private String nodeJsFile;
+  private File workerDirectory;
+  private int workerSlot;
 
+  /**
+   * Create a runner that starts a new node process for every execution.
+   * @param nodeJsFile the node executable
+   */
   public NodeJsRunner(String nodeJsFile) {
     this.nodeJsFile = nodeJsFile;
   }
 
-  public static String detectNodeCommand() {
-    for (String nodeCmd : nodeCommands) {
-      CommandLine cmdLine = CommandLine.parse(nodeCmd);
-      cmdLine.addArguments("--version");
-
-      DefaultExecutor executor = new DefaultExecutor();
+  /**
+   * Create a runner that sends every execution to a persistent
+   * {@link NodeJsWorker}, so node startup and r.js loading are only paid once.
+   * @param nodeJsFile the node executable
+   * @param workerDirectory directory the worker script is extracted to
+   */
+  public NodeJsRunner(String nodeJsFile, File workerDirectory) {
+    this.nodeJsFile = nodeJsFile;
+    this.workerDirectory = workerDirectory;
+  }
 
-      try {
-        if (executor.execute(cmdLine) == 0) {
-          return nodeCmd;
-        }
-      } catch (IOException e) {
-        //Keep testing.
-      }
-    }
+  /**
+   * Create a runner that sends every execution to the persistent
+   * {@link NodeJsWorker} of the given slot. Runners that execute builds
+   * concurrently need different slots to run in separate node processes.
+   * @param nodeJsFile the node executable
+   * @param workerDirectory directory the worker script is extracted to
+   * @param workerSlot the slot of the worker
+   */
+  public NodeJsRunner(String nodeJsFile, File workerDirectory, int workerSlot) {
+    this(nodeJsFile, workerDirectory);
+    this.workerSlot = workerSlot;
+  }
 
-    return null;
+  /**
+   * Detect node on the PATH. The result is cached for the life of the JVM.
+   * @return the node command, or null if node was not found
+   */
+  public static String detectNodeCommand() {
+    return NodeDetection.detect(null).getCommand();
   }
 
   @Override
   public ExitStatus exec(File mainScript, String[] args, ErrorReporter reporter) {
     ExitStatus exitStatus = new ExitStatus();
 
+    if (workerDirectory != null) {
+      try {
+        exitStatus.setExitCode(NodeJsWorker.get(nodeJsFile, mainScript, workerDirectory, workerSlot).execute(args));
+      } catch (IOException e) {
+        reporter.error("Node worker failed: " + e.getMessage(), null, 0, null, 0);
+        NodeDetection.invalidate(nodeJsFile);
+        exitStatus.setExitCode(1);
+      }
+      return exitStatus;
+    }
+
     try {
       boolean result = executeScript(nodeJsFile, mainScript.getAbsolutePath(), args);
       exitStatus.setExitCode(result?0:1);
     } catch (IOException e) {
+      // Node could not be started, look for it again next time.
+      reporter.error("Unable to run " + nodeJsFile + ": " + e.getMessage(), null, 0, null, 0);
+      NodeDetection.invalidate(nodeJsFile);
       exitStatus.setExitCode(1);
     }
 
@@ -0,0 +1,21 @@
+package com.github.mcheely.maven.requirejs;
+
+/**
+ * Provides {@link NodeJsRunner}s, under the name "node", when Node was detected.
+ */
+public class NodeJsRunnerProvider implements RunnerProvider {
+
+    public String getName() {
+        return "node";
+    }
+
+    public Runner createRunner(RunnerSettings settings, int slot) {
+        String nodeCommand = settings.getNodeCommand();
+        if (nodeCommand == null) {
+            return null;
+        }
+        return settings.isNodeWorker()
+                ? new NodeJsRunner(nodeCommand, settings.getWorkDirectory(), slot)
+                : new NodeJsRunner(nodeCommand);
+    }
+}
@@ -0,0 +1,177 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A long-lived Node process that loads r.js once and runs many builds.
+ * Workers are shared by every {@link NodeJsRunner} in the JVM, one per
+ * node executable, optimizer script and slot, and are stopped when the JVM
+ * exits. Builds that run concurrently use different slots, as a worker runs
+ * one build at a time.
+ */
+public class NodeJsWorker {
+
+    private static final String CLASSPATH_WORKER_JS = "/node-worker.js";
+
+    private static final String RESPONSE_MARKER = "\u0000requirejs-worker ";
+
+    private static final Map<String, NodeJsWorker> WORKERS = new HashMap<String, NodeJsWorker>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("requirejs-node-worker-shutdown") {
+            @Override
+            public void run() {
+                shutdownAll();
+            }
+        });
+    }
+
+    private final String nodeJsFile;
+    private final File workerScript;
+    private final File optimizerFile;
+    private final long optimizerModified;
+
+    private Process process;
+    private Writer requests;
+    private BufferedReader responses;
+    private int nextId;
+
+    private NodeJsWorker(String nodeJsFile, File workerScript, File optimizerFile) {
+        this.nodeJsFile = nodeJsFile;
+        this.workerScript = workerScript;
+        this.optimizerFile = optimizerFile;
+        this.optimizerModified = optimizerFile.lastModified();
+    }
+
+    /**
+     * Get the worker for a node executable and optimizer script, starting a
+     * new one if there is none or if the optimizer script changed.
+     * @param nodeJsFile the node executable
+     * @param optimizerFile the r.js script the worker should load
+     * @param workDirectory directory the worker script is extracted to
+     * @return the worker
+     * @throws IOException if the worker script can not be extracted
+     */
+    public static NodeJsWorker get(String nodeJsFile, File optimizerFile, File workDirectory) throws IOException {
+        return get(nodeJsFile, optimizerFile, workDirectory, 0);
+    }
+
+    /**
+     * Get the worker for a node executable, optimizer script and slot,
+     * starting a new one if there is none or if the optimizer script changed.
+     * @param nodeJsFile the node executable
+     * @param optimizerFile the r.js script the worker should load
+     * @param workDirectory directory the worker script is extracted to
+     * @param slot number telling apart workers that run builds concurrently
+     * @return the worker
+     * @throws IOException if the worker script can not be extracted
+     */
+    public static synchronized NodeJsWorker get(String nodeJsFile, File optimizerFile, File workDirectory, int slot)
+            throws IOException {
+        String key = nodeJsFile + '\n' + optimizerFile.getAbsolutePath() + '\n' + slot;
+        NodeJsWorker worker = WORKERS.get(key);
+        if (worker != null && worker.optimizerModified != optimizerFile.lastModified()) {
+            worker.shutdown();
+            worker = null;
+        }
+        if (worker == null) {
+            File workerScript = ClasspathResource.get(CLASSPATH_WORKER_JS).extract(workDirectory);
+            worker = new NodeJsWorker(nodeJsFile, workerScript, optimizerFile.getAbsoluteFile());
+            WORKERS.put(key, worker);
+        }
+        return worker;
+    }
+
+    /**
+     * Stop all running workers.
+     */
+    public static synchronized void shutdownAll() {
+        for (NodeJsWorker worker : WORKERS.values()) {
+            worker.shutdown();
+        }
+        WORKERS.clear();
+    }
+
+    /**
+     * Run r.js with the given arguments in the worker, starting the worker
+     * process if it is not running. Build output is copied to System.out.
+     * @param args arguments for r.js, such as "-o" and a build profile
+     * @return the exit status of the build
+     * @throws IOException if the worker can not be started or dies during the build
+     */
+    public synchronized int execute(String[] args) throws IOException {
+        if (process == null) {
+            start();
+        }
+
+        String id = String.valueOf(++nextId);
+        try {
+            requests.write(id + " " + Json.array(Arrays.asList(args)) + "\n");
+            requests.flush();
+
+            String line;
+            while ((line = responses.readLine()) != null) {
+                if (line.startsWith(RESPONSE_MARKER)) {
+                    String[] response = line.substring(RESPONSE_MARKER.length()).split(" ");
+                    if (response[0].equals(id)) {
+                        return Integer.parseInt(response[1]);
+                    }
+                } else {
+                    System.out.println(line);
+                }
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        }
+
+        shutdown();
+        throw new IOException("Node worker exited unexpectedly.");
+    }
+
+    /**
+     * Stop the worker process. It is restarted by the next execution.
+     */
+    public synchronized void shutdown() {
+        if (process != null) {
+            IOUtil.close(requests);
+            IOUtil.close(responses);
+            process.destroy();
+            process = null;
+        }
+    }
+
+    private void start() throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(nodeJsFile, workerScript.getAbsolutePath(), optimizerFile.getAbsolutePath());
+        process = builder.start();
+        requests = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+        responses = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        pipe(process.getErrorStream());
+    }
+
+    private static void pipe(final InputStream in) {
+        Thread pipe = new Thread("requirejs-node-worker-stderr") {
+            @Override
+            public void run() {
+                try {
+                    IOUtil.copy(in, System.err);
+                } catch (IOException e) {
+                    // The worker went away, nothing left to copy.
+                }
+            }
+        };
+        pipe.setDaemon(true);
+        pipe.start();
+    }
+}
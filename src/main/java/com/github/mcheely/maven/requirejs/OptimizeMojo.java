@@ -3,7 +3,19 @@ package com.github.mcheely.maven.requirejs;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
@@ -11,7 +23,6 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.filtering.MavenFileFilter;
 import org.apache.maven.shared.filtering.MavenFilteringException;
-import org.mozilla.javascript.ErrorReporter;
 import org.mozilla.javascript.EvaluatorException;
 
 /**
@@ -51,6 +62,12 @@ public class OptimizeMojo extends AbstractMojo {
      */
     protected MavenSession session;
 
+    /**
+     * @parameter default-value="${plugin.version}"
+     * @readonly
+     */
+    private String pluginVersion;
+
     /**
      * Path to optimizer script.
      *
@@ -62,10 +79,25 @@ public class OptimizeMojo extends AbstractMojo {
      * Path to optimizer json config.
      *
      * @parameter
-     * @required
      */
     private File configFile;
 
+    /**
+     * Paths to more optimizer json configs, for webapps with
+     * several independent build profiles.
+     *
+     * @parameter
+     */
+    private List<File> configFiles;
+
+    /**
+     * Number of build profiles to optimize concurrently, each with
+     * its own runner. Use 0 for one per available processor.
+     *
+     * @parameter expression="${requirejs.profileThreads}" default-value=1
+     */
+    private int profileThreads;
+
     /**
      * Whether or not the config file should
      * be maven filtered for token replacement.
@@ -88,6 +120,161 @@ public class OptimizeMojo extends AbstractMojo {
      */
     private String nodeExecutable;
 
+    /**
+     * The JavaScript engine to run r.js with: "auto" runs it with Node when
+     * Node is detected and with rhino otherwise, and "node", "rhino",
+     * "nashorn" or "graaljs" pick an engine. GraalJS needs its script engine
+     * artifacts as plugin dependencies. Other engines can be added with
+     * RunnerProvider services on the plugin's classpath.
+     *
+     * @parameter expression="${requirejs.engine}" default-value="auto"
+     */
+    private String engine;
+
+    /**
+     * The parts of the built-in r.js that rhino and the other engines that
+     * run in this JVM replace with Java, separated by commas: "files" for
+     * file I/O, "closure" for the closure optimizer, "css" for the
+     * "standard" CSS optimizer and "parse" for dependency scanning. Use
+     * "none" to run r.js as it is.
+     *
+     * @parameter expression="${requirejs.hostServices}" default-value="files,closure,css,parse"
+     */
+    private String hostServices;
+
+    /**
+     * Whether or not to run r.js in a persistent Node worker process,
+     * shared by every execution in the build, instead of starting
+     * a new Node process each time.
+     *
+     * @parameter expression="${requirejs.nodeWorker}" default-value=false
+     */
+    private boolean nodeWorker;
+
+    /**
+     * Whether or not to persist the detected node command and version to
+     * the build directory, so later builds do not run "node --version".
+     * The result is detected again when PATH or the node binary changes.
+     *
+     * @parameter expression="${requirejs.persistNodeDetection}" default-value=false
+     */
+    private boolean persistNodeDetection;
+
+    /**
+     * Directory used to persist caches, such as the bytecode
+     * Rhino generates for the optimizer and minified scripts,
+     * between builds.
+     *
+     * @parameter expression="${requirejs.cacheDirectory}" default-value="${user.home}/.m2/requirejs-cache"
+     */
+    private File cacheDirectory;
+
+    /**
+     * Whether or not caches should be persisted to the cacheDirectory.
+     *
+     * @parameter expression="${requirejs.persistentCache}" default-value=false
+     */
+    private boolean persistentCache;
+
+    /**
+     * How rhino runs r.js when Node is not available: "interpreted" skips
+     * compiling scripts, which suits small builds, "optimized" compiles them
+     * at the highest optimization level without debug information, which
+     * suits large builds once r.js is compiled, "default" uses rhino's
+     * defaults, and "auto" picks optimized for builds of at least 4 MB of
+     * sources once r.js has been compiled in the background, and
+     * interpreted otherwise.
+     * Interpreted scripts are not stored in the persistent class cache.
+     *
+     * @parameter expression="${requirejs.rhinoProfile}" default-value="default"
+     */
+    private String rhinoProfile;
+
+    /**
+     * Number of threads to minify the files of a directory build on.
+     * Use 0 for one thread per available processor.
+     *
+     * @parameter expression="${requirejs.minifyThreads}" default-value=1
+     */
+    private int minifyThreads;
+
+    /**
+     * Stage the files of a directory build into its output directory as
+     * hard links to the sources instead of copies, where supported.
+     *
+     * @parameter expression="${requirejs.linkStaging}" default-value=false
+     */
+    private boolean linkStaging;
+
+    /**
+     * Compile the layers of a directory build that uses the closure
+     * optimizer in a single Closure compilation under Rhino, with one
+     * module per layer that depends on the layers it excludes.
+     *
+     * @parameter expression="${requirejs.closureModules}" default-value=false
+     */
+    private boolean closureModules;
+
+    /**
+     * Build directory builds into a staging directory and then only write
+     * the files that changed to the output directory, removing files of
+     * previous builds that are no longer part of the output.
+     *
+     * @parameter expression="${requirejs.syncOutput}" default-value=false
+     */
+    private boolean syncOutput;
+
+    /**
+     * Persist the module graph r.js traces, with the dependencies found in
+     * each file, to the build directory, and only parse the files that
+     * changed since the previous build when tracing again.
+     *
+     * @parameter expression="${requirejs.graphIndex}" default-value=false
+     */
+    private boolean graphIndex;
+
+    /**
+     * Log how long each phase of the build took, for each layer, and the
+     * slowest files to optimize. The timings are also kept in the build
+     * directory, under requirejs-config.
+     *
+     * @parameter expression="${requirejs.timings}" default-value=false
+     */
+    private boolean timings;
+
+    /**
+     * The number of slowest files to list when timings are logged.
+     *
+     * @parameter expression="${requirejs.timings.slowestFiles}" default-value=10
+     */
+    private int slowestFiles;
+
+    /**
+     * Where to write a JSON report of every execution: the engine r.js ran
+     * with and, for each build profile, its duration and outcome, the
+     * errors and warnings r.js reported, the files it copied, traced and
+     * minified, the input and output bytes of each layer, and the hits of
+     * the minification cache and module graph index. When r.js runs without
+     * the optimizer bootstrap, such as under Node without incremental
+     * options, only the layers and traced files are read from the build
+     * output, and the other counts are null.
+     *
+     * @parameter expression="${requirejs.reportFile}" default-value="${project.build.directory}/requirejs-report.json"
+     */
+    private File reportFile;
+
+    private BuildReport report;
+
+    /**
+     * Skip r.js when the build profile, the optimizer and every file
+     * the build reads are unchanged since the last successful build.
+     * When only JavaScript files changed in a directory build, only
+     * the layers that include them are rebuilt.
+     *
+     * @parameter expression="${requirejs.optimize.incremental}" default-value=false
+     */
+    private boolean incremental;
+
     /**
      * Optimize files.
      *
@@ -99,49 +286,497 @@ public class OptimizeMojo extends AbstractMojo {
             return;
         }
 
-        Runner runner;
-        String nodeCommand = getNodeJsPath();
-        if (nodeCommand != null) {
-          getLog().info("Running with Node @ " + nodeCommand);
-          runner = new NodeJsRunner(nodeCommand);
-        } else {
-          getLog().info("Node not detected. Falling back to rhino");
-          runner = new RhinoRunner();
+        List<File> profiles = getConfigFiles();
+        if (profiles.isEmpty()) {
+            throw new MojoExecutionException("Either configFile or configFiles must be set.");
+        }
+        try {
+            RhinoProfile.named(rhinoProfile);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage() + ", use default, interpreted, optimized or auto.");
+        }
+        try {
+            new Optimizer().setHostServices(getHostServices());
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage() + ", use none or any of " + Optimizer.HOST_SERVICES + ".");
+        }
+        List<String> names = getProfileNames(profiles);
+
+        RunnerSettings settings = getRunnerSettings();
+        RunnerProvider provider = getRunnerProvider(settings);
+
+        report = new BuildReport(provider.getName());
+        try {
+            optimize(profiles, names, provider, settings);
+        } finally {
+            try {
+                report.save(reportFile);
+            } catch (IOException e) {
+                getLog().warn("Unable to write the build report " + reportFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void optimize(List<File> profiles, List<String> names, RunnerProvider provider, RunnerSettings settings)
+            throws MojoExecutionException {
+        if (profiles.size() == 1) {
+            optimize(profiles.get(0), names.get(0), createRunner(provider, settings, 0));
+            return;
+        }
+
+        int threads = Math.min(profiles.size(),
+                profileThreads > 0 ? profileThreads : Runtime.getRuntime().availableProcessors());
+        List<String> failures = threads > 1
+                ? optimizeConcurrently(profiles, names, provider, settings, threads)
+                : optimizeSequentially(profiles, names, createRunner(provider, settings, 0));
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                getLog().error(failure);
+            }
+            throw new MojoExecutionException(failures.size() + " of " + profiles.size()
+                    + " build profiles failed to optimize: " + failures);
+        }
+    }
+
+    private List<String> optimizeSequentially(List<File> profiles, List<String> names, Runner runner) {
+        List<String> failures = new ArrayList<String>();
+        for (int i = 0; i < profiles.size(); i++) {
+            try {
+                optimize(profiles.get(i), names.get(i), runner);
+            } catch (MojoExecutionException e) {
+                failures.add(profiles.get(i) + ": " + e.getMessage());
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Optimize the build profiles on a pool of threads. Every thread takes
+     * its own runner, so profiles never share a Rhino scope or Node worker.
+     */
+    private List<String> optimizeConcurrently(List<File> profiles, List<String> names, RunnerProvider provider,
+            RunnerSettings settings, int threads) throws MojoExecutionException {
+        final BlockingQueue<Runner> runners = new ArrayBlockingQueue<Runner>(threads);
+        for (int i = 0; i < threads; i++) {
+            runners.add(createRunner(provider, settings, i));
         }
+        getLog().info("Optimizing " + profiles.size() + " build profiles on " + threads + " threads.");
 
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < profiles.size(); i++) {
+                final File profile = profiles.get(i);
+                final String name = names.get(i);
+                results.add(pool.submit(new Callable<String>() {
+                    public String call() throws InterruptedException {
+                        Runner runner = runners.take();
+                        try {
+                            optimize(profile, name, runner);
+                            return null;
+                        } catch (MojoExecutionException e) {
+                            return profile + ": " + e.getMessage();
+                        } finally {
+                            runners.add(runner);
+                        }
+                    }
+                }));
+            }
 
+            List<String> failures = new ArrayList<String>();
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    String failure = results.get(i).get();
+                    if (failure != null) {
+                        failures.add(failure);
+                    }
+                } catch (ExecutionException e) {
+                    failures.add(profiles.get(i) + ": " + e.getCause());
+                }
+            }
+            return failures;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while optimizing build profiles.", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Optimize a single build profile, and report on it.
+     * @param configFile the build profile
+     * @param name name of the build profile's files under requirejs-config
+     * @param runner the runner to execute r.js with
+     */
+    private void optimize(File configFile, String name, Runner runner) throws MojoExecutionException {
+        BuildReport.Profile reported = report.addProfile(configFile, runner);
         try {
-            Optimizer builder = new Optimizer();
-            ErrorReporter reporter = new MojoErrorReporter(getLog(), true);
+            reported.finish(optimize(configFile, name, runner, reported), null);
+        } catch (MojoExecutionException e) {
+            reported.finish("failed", e.getMessage());
+            throw e;
+        } catch (RuntimeException e) {
+            reported.finish("failed", String.valueOf(e));
+            throw e;
+        }
+    }
 
-            if (optimizerFile != null) {
-                builder.optimize(createBuildProfile(), optimizerFile, reporter, runner);
+    /**
+     * Optimize a single build profile.
+     * @return what became of the build profile, for the report
+     */
+    private String optimize(File configFile, String name, Runner runner, BuildReport.Profile reported)
+            throws MojoExecutionException {
+        File buildProfile = createBuildProfile(configFile, name);
+        File manifestFile = new File(buildDirectory, "requirejs-config/" + name + ".manifest");
+        File layersFile = new File(buildDirectory, "requirejs-config/" + name + ".layers");
+        File timingsFile = new File(buildDirectory, "requirejs-config/" + name + ".timings");
+        File statsFile = new File(buildDirectory, "requirejs-config/" + name + ".stats");
+        BuildProfile profile = incremental || syncOutput ? loadProfile(buildProfile) : null;
+        File staging = syncOutput && profile != null && profile.getDir() != null
+                ? new File(buildDirectory, "requirejs-config/" + name + ".staging") : null;
+        BuildFingerprint fingerprint = null;
+        LayerRebuild rebuild = null;
+        if (incremental) {
+            BuildFingerprint previous = BuildFingerprint.load(manifestFile);
+            fingerprint = fingerprint(profile, runner, previous);
+            if (fingerprint != null && profile.getOutput().exists()) {
+                if (fingerprint.isUpToDate(previous)) {
+                    getLog().info("Optimized files of " + configFile.getName() + " are up to date, skipping r.js.");
+                    return "up-to-date";
+                }
+                // Layers compiled together can only be rebuilt together.
+                rebuild = closureModules ? null : planRebuild(profile, staging, fingerprint.getChangedFiles(previous), name);
+            }
+            // Only a completed build may be skipped next time.
+            manifestFile.delete();
+            layersFile.delete();
+        }
+
+        MojoErrorReporter reporter = new MojoErrorReporter(getLog(), true);
+        statsFile.delete();
+        try {
+            Optimizer builder = new Optimizer(getWorkDirectory());
+            if (persistentCache) {
+                builder.setMinifyCacheDirectory(new File(cacheDirectory, "minify"));
+            }
+            builder.setHostServices(getHostServices());
+            builder.setLinkStaging(linkStaging);
+            builder.setClosureModules(closureModules);
+            if (graphIndex) {
+                builder.setGraphIndexFile(new File(buildDirectory, "requirejs-config/" + name + ".graph"));
+            }
+            if (timings) {
+                timingsFile.delete();
+                builder.setTimingsFile(timingsFile);
+            }
+            builder.setOutputDirectory(staging);
+            builder.setMinifyThreads(minifyThreads > 0 ? minifyThreads : Runtime.getRuntime().availableProcessors());
+            builder.setStatsFile(statsFile);
+
+            if (rebuild != null) {
+                builder.setPartialRebuild(true);
+                runOptimizer(builder, rebuild.getProfile(), reporter, runner);
+                if (rebuild.tracedNewFiles()) {
+                    getLog().info("The rebuilt layers of " + configFile.getName()
+                            + " include files they did not include before, rebuilding all layers.");
+                    rebuild = null;
+                    builder.setPartialRebuild(false);
+                    runOptimizer(builder, buildProfile, reporter, runner);
+                }
             } else {
-                builder.optimize(createBuildProfile(), reporter, runner);
+                runOptimizer(builder, buildProfile, reporter, runner);
             }
         } catch (IOException e) {
             throw new MojoExecutionException("Failed to read r.js", e);
         } catch (EvaluatorException e) {
             throw new MojoExecutionException("Failed to execute r.js", e);
         } catch (OptimizationException e) {
-            throw new MojoExecutionException("r.js exited with an error.");
+            throw new MojoExecutionException("r.js exited with an error"
+                    + (reporter.getErrorCnt() > 0 ? ", " + reporter.getErrorCnt() + " error(s) reported." : "."));
+        } finally {
+            reported.setReporter(reporter);
+        }
+        try {
+            reported.readStats(statsFile);
+        } catch (IOException e) {
+            getLog().warn("Unable to read the build stats: " + e.getMessage());
+        }
+        if (timings) {
+            logTimings(timingsFile, configFile);
+        }
+
+        // A partial rebuild has to be completed in the build directory before it is synchronized.
+        LayerIndex layers = null;
+        boolean completed = true;
+        if (rebuild != null) {
+            try {
+                layers = rebuild.complete();
+            } catch (IOException e) {
+                getLog().warn("Unable to complete the partial rebuild, the next build will rebuild all layers.", e);
+                completed = false;
+            }
+        }
+        if (staging != null) {
+            syncOutput(profile, staging, name);
+        }
+        if (!reported.hasStats()) {
+            readOutputStats(reported, profile != null ? profile : loadProfile(buildProfile));
+        }
+
+        if (fingerprint != null && completed) {
+            try {
+                saveLayers(profile, layers, layersFile);
+                fingerprint.save(manifestFile);
+            } catch (IOException e) {
+                getLog().warn("Unable to save the optimizer inputs manifest, the next build will not be skipped.", e);
+            }
+        }
+        return rebuild != null ? "rebuilt" : "optimized";
+    }
+
+    private void readOutputStats(BuildReport.Profile reported, BuildProfile profile) {
+        if (profile == null) {
+            return;
+        }
+        try {
+            reported.readOutputStats(profile);
+        } catch (IOException e) {
+            getLog().warn("Unable to read the build stats: " + e.getMessage());
+        }
+    }
+
+    private List<String> getHostServices() {
+        List<String> services = new ArrayList<String>();
+        if (hostServices != null && !hostServices.trim().equals("none")) {
+            for (String service : hostServices.split(",")) {
+                if (service.trim().length() > 0) {
+                    services.add(service.trim());
+                }
+            }
+        }
+        return services;
+    }
+
+    private void runOptimizer(Optimizer builder, File buildProfile, MojoErrorReporter reporter, Runner runner)
+            throws IOException, OptimizationException {
+        if (optimizerFile != null) {
+            builder.optimize(buildProfile, optimizerFile, reporter, runner);
+        } else {
+            builder.optimize(buildProfile, reporter, runner);
+        }
+    }
+
+    private void logTimings(File timingsFile, File configFile) {
+        try {
+            BuildTimings buildTimings = BuildTimings.read(timingsFile);
+            if (buildTimings == null) {
+                getLog().warn("The optimizer did not record timings for " + configFile.getName() + ".");
+                return;
+            }
+            getLog().info("Timings of " + configFile.getName() + ":");
+            for (String line : buildTimings.summarize(slowestFiles)) {
+                getLog().info(line);
+            }
+        } catch (IOException e) {
+            getLog().warn("Unable to read the build timings: " + e.getMessage());
         }
     }
 
+    /**
+     * Write what changed in the staging directory r.js built into to the
+     * output directory of the build profile.
+     */
+    private void syncOutput(BuildProfile profile, File staging, String name) throws MojoExecutionException {
+        File manifest = new File(buildDirectory, "requirejs-config/" + name + ".output");
+        try {
+            OutputSync sync = OutputSync.sync(staging, profile.getDir(), manifest,
+                    profile.getBoolean("keepBuildDir", false));
+            getLog().info("Synchronized " + profile.getDir() + ": " + sync.getWritten() + " written, "
+                    + sync.getUnchanged() + " unchanged, " + sync.getRemoved() + " removed.");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write the optimized files to " + profile.getDir(), e);
+        }
+    }
+
+    private RunnerSettings getRunnerSettings() {
+        RunnerSettings settings = new RunnerSettings();
+        settings.setNodeWorker(nodeWorker);
+        settings.setWorkDirectory(getWorkDirectory());
+        settings.setClassCacheDirectory(persistentCache ? new File(cacheDirectory, "rhino") : null);
+        settings.setRhinoProfile(RhinoProfile.named(rhinoProfile));
+        return settings;
+    }
+
+    /**
+     * Find the provider of the engine to run r.js with, detecting Node first
+     * if it may be the one.
+     */
+    private RunnerProvider getRunnerProvider(RunnerSettings settings) throws MojoExecutionException {
+        boolean auto = "auto".equals(engine);
+        if (auto || "node".equals(engine)) {
+            NodeDetection node = detectNode();
+            settings.setNodeCommand(node.getCommand());
+            if (node.getCommand() != null) {
+              String version = node.getVersion() != null ? " " + node.getVersion() : "";
+              getLog().info("Running with Node" + version + " @ " + node.getCommand());
+            } else if (auto) {
+              getLog().info("Node not detected. Falling back to rhino");
+            }
+        }
+        String name = auto ? (settings.getNodeCommand() != null ? "node" : "rhino") : engine;
+
+        List<String> names = new ArrayList<String>();
+        for (RunnerProvider provider : ServiceLoader.load(RunnerProvider.class, getClass().getClassLoader())) {
+            if (provider.getName().equals(name)) {
+                if (!auto && !"node".equals(name)) {
+                    getLog().info("Running with " + name);
+                }
+                return provider;
+            }
+            names.add(provider.getName());
+        }
+        throw new MojoExecutionException("Unknown engine " + name + ", use auto or one of " + names + ".");
+    }
+
+    private Runner createRunner(RunnerProvider provider, RunnerSettings settings, int slot)
+            throws MojoExecutionException {
+        Runner runner = provider.createRunner(settings, slot);
+        if (runner == null) {
+            throw new MojoExecutionException("The " + provider.getName() + " engine is not available.");
+        }
+        return runner;
+    }
+
+    private List<File> getConfigFiles() {
+        List<File> profiles = new ArrayList<File>();
+        if (configFile != null) {
+            profiles.add(configFile);
+        }
+        if (configFiles != null) {
+            profiles.addAll(configFiles);
+        }
+        return profiles;
+    }
+
+    /**
+     * Name the files kept under requirejs-config for each build profile
+     * after the profile, numbering them if profiles share a file name.
+     */
+    private static List<String> getProfileNames(List<File> profiles) {
+        Set<String> seen = new HashSet<String>();
+        boolean unique = true;
+        for (File profile : profiles) {
+            unique &= seen.add(profile.getName());
+        }
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < profiles.size(); i++) {
+            names.add(unique ? profiles.get(i).getName() : (i + 1) + "-" + profiles.get(i).getName());
+        }
+        return names;
+    }
+
+    /**
+     * Prepare a rebuild of only the layers that include changed files,
+     * or return null if everything has to be built.
+     */
+    private LayerRebuild planRebuild(BuildProfile profile, File staging, Set<String> changedFiles, String name) {
+        File layersFile = new File(buildDirectory, "requirejs-config/" + name + ".layers");
+        try {
+            File derivedProfile = new File(buildDirectory, "requirejs-config/" + name + ".rebuild.js");
+            File dir = staging != null ? staging : profile.getDir();
+            LayerRebuild rebuild = LayerRebuild.plan(profile, dir, LayerIndex.load(layersFile), changedFiles, derivedProfile);
+            if (rebuild != null) {
+                getLog().info("Rebuilding " + rebuild.getModules().size() + " of " + profile.getModuleNames().size()
+                        + " layers, " + changedFiles.size() + " changed file(s): " + rebuild.getModules());
+            }
+            return rebuild;
+        } catch (IOException e) {
+            getLog().warn("Unable to prepare a partial rebuild, rebuilding all layers: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Record the layers of a directory build, so that the next build can
+     * rebuild only the layers that include changed files.
+     */
+    private void saveLayers(BuildProfile profile, LayerIndex rebuilt, File layersFile) throws IOException {
+        if (profile.getDir() == null) {
+            return;
+        }
+        LayerIndex layers = rebuilt != null ? rebuilt : LayerIndex.read(profile.getDir(), profile.getModuleNames());
+        if (layers != null) {
+            layers.save(layersFile);
+        }
+    }
+
+    private BuildProfile loadProfile(File buildProfile) {
+        try {
+            return BuildProfile.load(buildProfile);
+        } catch (IOException e) {
+            getLog().warn("Unable to read the build profile: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Fingerprint the inputs of the build, or return null if they
+     * can not be determined from the build profile.
+     */
+    private BuildFingerprint fingerprint(BuildProfile profile, Runner runner, BuildFingerprint previous) {
+        if (profile == null || profile.getOutput() == null) {
+            return null;
+        }
+        try {
+            return BuildFingerprint.compute(profile, getOptimizerHash(), getOutputOptions(runner), previous);
+        } catch (IOException e) {
+            getLog().warn("Unable to check whether optimized files are up to date: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the options that can change the optimized files, by name
+     */
+    private Map<String, String> getOutputOptions(Runner runner) {
+        Map<String, String> options = new TreeMap<String, String>();
+        options.put("pluginVersion", pluginVersion);
+        options.put("runner", runner.getClass().getName());
+        options.put("engine", engine);
+        options.put("hostServices", String.valueOf(hostServices));
+        options.put("rhinoProfile", rhinoProfile);
+        options.put("persistentCache", String.valueOf(persistentCache));
+        options.put("minifyThreads", String.valueOf(minifyThreads));
+        options.put("linkStaging", String.valueOf(linkStaging));
+        options.put("closureModules", String.valueOf(closureModules));
+        options.put("syncOutput", String.valueOf(syncOutput));
+        options.put("graphIndex", String.valueOf(graphIndex));
+        return options;
+    }
+
+    private String getOptimizerHash() throws IOException {
+        if (optimizerFile != null) {
+            return ContentHash.of(optimizerFile);
+        }
+        return ClasspathResource.get(Optimizer.CLASSPATH_R_JS).getHash();
+    }
+
     @SuppressWarnings("rawtypes")
     public Map getPluginContext() {
         return super.getPluginContext();
     }
 
     @SuppressWarnings("rawtypes")
-    private File createBuildProfile() throws MojoExecutionException {
+    private File createBuildProfile(File configFile, String name) throws MojoExecutionException {
         if (filterConfig) {
             File filteredConfig;
 
             try {
                 File profileDir = new File(buildDirectory, "requirejs-config/");
                 profileDir.mkdirs();
-                filteredConfig = new File(profileDir, "filtered-build.js");
+                filteredConfig = new File(profileDir, getConfigFiles().size() == 1 ? "filtered-build.js" : "filtered-" + name);
                 if (!filteredConfig.exists()) {
                     filteredConfig.createNewFile();
                 }
@@ -158,11 +793,15 @@ public class OptimizeMojo extends AbstractMojo {
         }
     }
 
-    private String getNodeJsPath() {
+    private File getWorkDirectory() {
+        return persistentCache ? cacheDirectory : ClasspathResource.getDefaultDirectory();
+    }
+
+    private NodeDetection detectNode() {
       if (nodeExecutable != null) {
-        return nodeExecutable;
+        return NodeDetection.forExecutable(nodeExecutable);
       } else {
-        return NodeJsRunner.detectNodeCommand();
+        return NodeDetection.detect(persistNodeDetection ? new File(buildDirectory, "requirejs-config/node.properties") : null);
       }
     }
 }
@@ -1,11 +1,12 @@
 package com.github.mcheely.maven.requirejs;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
 import org.mozilla.javascript.ErrorReporter;
 
 /**
@@ -13,7 +14,160 @@ import org.mozilla.javascript.ErrorReporter;
  */
 public class Optimizer {
 
-    private static final String CLASSPATH_R_JS = "/r.js";
+    static final String CLASSPATH_R_JS = "/r.js";
+
+    static final String CLASSPATH_BOOTSTRAP_JS = "/optimizer-bootstrap.js";
+
+    /**
+     * The parts of r.js that runners in this JVM can replace with Java.
+     */
+    static final List<String> HOST_SERVICES = Arrays.asList("files", "closure", "css", "parse");
+
+    private final File workDirectory;
+
+    private File minifyCacheDirectory;
+
+    private int minifyThreads = 1;
+
+    private boolean linkStaging;
+
+    private boolean closureModules;
+
+    private File outputDirectory;
+
+    private File graphIndexFile;
+
+    private File timingsFile;
+
+    private File statsFile;
+
+    private boolean partialRebuild;
+
+    private List<String> hostServices = HOST_SERVICES;
+
+    /**
+     * Create an optimizer that extracts the built-in r.js
+     * to a directory under ${user.home}/.m2/requirejs-cache.
+     */
+    public Optimizer() {
+        this(ClasspathResource.getDefaultDirectory());
+    }
+
+    /**
+     * Create an optimizer that extracts the built-in r.js
+     * to the given directory.
+     * @param workDirectory directory the built-in r.js is extracted to
+     */
+    public Optimizer(File workDirectory) {
+        this.workDirectory = workDirectory;
+    }
+
+    /**
+     * Cache minified JavaScript in the given directory, keyed by content and
+     * minification options, so unchanged files are not minified again.
+     * @param minifyCacheDirectory the cache directory, or null to disable the cache
+     */
+    public void setMinifyCacheDirectory(File minifyCacheDirectory) {
+        this.minifyCacheDirectory = minifyCacheDirectory;
+    }
+
+    /**
+     * Minify the files of a directory build on several threads, once r.js
+     * has written them all.
+     * @param minifyThreads the number of threads, 1 to minify files one by one
+     */
+    public void setMinifyThreads(int minifyThreads) {
+        this.minifyThreads = minifyThreads;
+    }
+
+    /**
+     * Stage the input directory of a directory build into the output
+     * directory as hard links instead of copies where possible. Files r.js
+     * writes to are replaced, so the sources are never changed.
+     * @param linkStaging whether to stage files as hard links
+     */
+    public void setLinkStaging(boolean linkStaging) {
+        this.linkStaging = linkStaging;
+    }
+
+    /**
+     * Compile the layers of a directory build that uses the closure optimizer
+     * in one compilation under Rhino, as Closure modules that depend on the
+     * layers they exclude.
+     * @param closureModules whether to compile the layers together
+     */
+    public void setClosureModules(boolean closureModules) {
+        this.closureModules = closureModules;
+    }
+
+    /**
+     * Build into the given directory instead of the dir of the build profile.
+     * @param outputDirectory the directory, or null to use the dir of the build profile
+     */
+    public void setOutputDirectory(File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Persist what tracing finds in each file of the build to the given
+     * file, so files that are unchanged in the next build are not parsed again.
+     * @param graphIndexFile the index file, or null to trace every file from scratch
+     */
+    public void setGraphIndexFile(File graphIndexFile) {
+        this.graphIndexFile = graphIndexFile;
+    }
+
+    /**
+     * Record how long each phase of the build took, per layer and per file,
+     * to the given file, to be read with {@link BuildTimings}.
+     * @param timingsFile the timings file, or null to not record timings
+     */
+    public void setTimingsFile(File timingsFile) {
+        this.timingsFile = timingsFile;
+    }
+
+    /**
+     * Write what the build did to the given file, as a JSON object with the
+     * number of files copied, traced and minified, the hits and misses of
+     * the minification cache and module graph index, and the files and the
+     * input and output bytes of each layer. Stats are only collected for the
+     * built-in r.js, in builds that run through the optimizer bootstrap for
+     * other reasons, so asking for them never changes how r.js runs; the
+     * file is not written otherwise, and callers can fall back to
+     * {@link BuildReport.Profile#readOutputStats(BuildProfile)}.
+     * @param statsFile the stats file, or null to not write stats
+     */
+    public void setStatsFile(File statsFile) {
+        this.statsFile = statsFile;
+    }
+
+    /**
+     * Run the derived build profile of a {@link LayerRebuild}, which keeps the
+     * build dir: only the files it lists as put back from the sources, and
+     * those r.js copies or writes during the build, are optimized again, as
+     * the other files in the build dir are already optimized.
+     * @param partialRebuild whether the build profile is a partial rebuild
+     */
+    public void setPartialRebuild(boolean partialRebuild) {
+        this.partialRebuild = partialRebuild;
+    }
+
+    /**
+     * Choose the parts of the built-in r.js that runners in this JVM replace
+     * with Java: "files" for file I/O, "closure" for the closure optimizer,
+     * "css" for the "standard" CSS optimizer and "parse" for dependency
+     * scanning. All of them are used by default.
+     * @param hostServices the services to use, empty to run r.js as it is
+     * @throws IllegalArgumentException if a service is unknown
+     */
+    public void setHostServices(List<String> hostServices) {
+        for (String service : hostServices) {
+            if (!HOST_SERVICES.contains(service)) {
+                throw new IllegalArgumentException("Unknown host service: " + service);
+            }
+        }
+        this.hostServices = hostServices;
+    }
 
     /**
      * Optimize using the built-in version of r.js.
@@ -43,31 +197,77 @@ public class Optimizer {
      */
     public void optimize(File buildProfile, File optimizerFile, ErrorReporter reporter, Runner runner) throws IOException, OptimizationException {
         
-        String[] args = new String[2];
-        args[0] = "-o";
-        args[1] = buildProfile.getAbsolutePath();
+        List<String> args = new ArrayList<String>();
+        File mainScript = optimizerFile;
+        List<String> hookOptions = getHookOptions();
+        if (runner instanceof HostRunner && !hostServices.isEmpty() && isBuiltIn(optimizerFile)) {
+            // The native file I/O, closure, CSS and parse replacements are
+            // written against the internals of the built-in r.js.
+            hookOptions.add("--hostServices=" + StringUtils.join(hostServices.iterator(), ","));
+        }
+        if (!hookOptions.isEmpty() || runner instanceof ScriptEngineRunner) {
+            // Run r.js through the bootstrap that installs the hooks that were
+            // asked for. JSR-223 engines also need it to load r.js.
+            if (statsFile != null && isBuiltIn(optimizerFile)) {
+                hookOptions.add("--stats=" + statsFile.getAbsolutePath().replace('\\', '/'));
+            }
+            mainScript = ClasspathResource.get(CLASSPATH_BOOTSTRAP_JS).extract(workDirectory);
+            args.add(optimizerFile.getAbsolutePath());
+            args.add("--optimizerHash=" + getOptimizerHash(optimizerFile));
+            args.addAll(hookOptions);
+        }
+        args.add("-o");
+        args.add(buildProfile.getAbsolutePath());
+        if (outputDirectory != null) {
+            // Command line options take precedence over the build profile.
+            args.add("dir=" + outputDirectory.getAbsolutePath().replace('\\', '/'));
+        }
 
-        ExitStatus status = runner.exec(optimizerFile, args, reporter);
+        ExitStatus status = runner.exec(mainScript, args.toArray(new String[args.size()]), reporter);
         if (!status.success()) {
         	throw new OptimizationException("Optimizer returned non-zero exit status.");
         }
     }
 
-    private File getClasspathOptimizerFile() throws IOException {
-        File optimizerFile = File.createTempFile("build", "js");
-        optimizerFile.deleteOnExit();
-        FileOutputStream out = null;
-        InputStream in = null;
-        try {
-            in = getClass().getResourceAsStream(CLASSPATH_R_JS);
-            out = new FileOutputStream(optimizerFile);
-            IOUtil.copy(in, out);
-        } finally {
-            IOUtil.close(in);
-            IOUtil.close(out);
+    private List<String> getHookOptions() {
+        List<String> options = new ArrayList<String>();
+        if (minifyCacheDirectory != null) {
+            options.add("--minifyCache=" + minifyCacheDirectory.getAbsolutePath().replace('\\', '/'));
         }
-        
-        return optimizerFile;
+        if (linkStaging) {
+            options.add("--linkStaging=true");
+        }
+        if (minifyThreads > 1) {
+            options.add("--minifyThreads=" + minifyThreads);
+        }
+        if (closureModules) {
+            options.add("--closureModules=true");
+        }
+        if (graphIndexFile != null) {
+            options.add("--graphIndex=" + graphIndexFile.getAbsolutePath().replace('\\', '/'));
+        }
+        if (timingsFile != null) {
+            options.add("--timings=" + timingsFile.getAbsolutePath().replace('\\', '/'));
+        }
+        if (partialRebuild) {
+            options.add("--partialRebuild=true");
+        }
+        return options;
+    }
+
+    private String getOptimizerHash(File optimizerFile) throws IOException {
+        if (isBuiltIn(optimizerFile)) {
+            return ClasspathResource.get(CLASSPATH_R_JS).getHash();
+        }
+        return ContentHash.of(optimizerFile);
+    }
+
+    private boolean isBuiltIn(File optimizerFile) throws IOException {
+        return optimizerFile.equals(ClasspathResource.get(CLASSPATH_R_JS).extract(workDirectory));
+    }
+
+    private File getClasspathOptimizerFile() throws IOException {
+        return ClasspathResource.get(CLASSPATH_R_JS).extract(workDirectory);
     }
 
 }
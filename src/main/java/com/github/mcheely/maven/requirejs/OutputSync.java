@@ -0,0 +1,135 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Brings the output directory of a directory build up to date with the
+ * staging directory r.js built into, writing only what changed. A manifest
+ * records the hash, size and modification time of every file written, so
+ * files that are still as they were written are skipped without reading
+ * them, and files that are no longer part of the build are removed.
+ */
+public class OutputSync {
+
+    private int written;
+    private int unchanged;
+    private int removed;
+
+    private OutputSync() {
+    }
+
+    /**
+     * Synchronize the output directory with the staging directory. Without a
+     * manifest, the output directory is cleared first like r.js does, unless
+     * keepOutput is set.
+     * @param staging the directory r.js built into
+     * @param output the output directory
+     * @param manifestFile the manifest of the previous synchronization
+     * @param keepOutput whether to keep files the plugin did not write
+     * @return the result of the synchronization
+     * @throws IOException if a file can not be copied or the manifest can not be written
+     */
+    public static OutputSync sync(File staging, File output, File manifestFile, boolean keepOutput) throws IOException {
+        Properties previous = load(manifestFile);
+        if (previous == null && !keepOutput) {
+            FileUtils.deleteDirectory(output);
+        }
+        // An interrupted synchronization has to start over.
+        manifestFile.delete();
+
+        OutputSync sync = new OutputSync();
+        Properties next = new Properties();
+        Map<String, File> files = BuildFingerprint.listFiles(staging, null, null);
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            File source = entry.getValue();
+            File target = new File(output, entry.getKey());
+            String hash = ContentHash.of(source);
+            String recorded = previous != null ? previous.getProperty(entry.getKey()) : null;
+
+            if (target.isFile() && (state(hash, target).equals(recorded)
+                    || (target.length() == source.length() && hash.equals(ContentHash.of(target))))) {
+                sync.unchanged++;
+            } else {
+                // Replace rather than overwrite, the target may be a hard link.
+                target.delete();
+                FileUtils.copyFile(source, target);
+                sync.written++;
+            }
+            next.setProperty(entry.getKey(), state(hash, target));
+        }
+
+        if (previous != null) {
+            for (String name : previous.stringPropertyNames()) {
+                if (!files.containsKey(name) && LayerRebuild.deleteWithEmptyParents(new File(output, name), output)) {
+                    sync.removed++;
+                }
+            }
+        }
+
+        save(next, manifestFile);
+        return sync;
+    }
+
+    /**
+     * @return the number of files that were written
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * @return the number of files that were already up to date
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return the number of files that were removed
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    private static String state(String hash, File file) {
+        return hash + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    private static Properties load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+            return properties;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    private static void save(Properties properties, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            properties.store(out, "Files written by the last requirejs optimization");
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+}
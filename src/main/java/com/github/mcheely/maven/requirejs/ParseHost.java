@@ -0,0 +1,547 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.javascript.rhino.head.CompilerEnvirons;
+import com.google.javascript.rhino.head.ErrorReporter;
+import com.google.javascript.rhino.head.EvaluatorException;
+import com.google.javascript.rhino.head.Parser;
+import com.google.javascript.rhino.head.RhinoException;
+import com.google.javascript.rhino.head.Token;
+import com.google.javascript.rhino.head.ast.ArrayLiteral;
+import com.google.javascript.rhino.head.ast.Assignment;
+import com.google.javascript.rhino.head.ast.AstNode;
+import com.google.javascript.rhino.head.ast.AstRoot;
+import com.google.javascript.rhino.head.ast.ElementGet;
+import com.google.javascript.rhino.head.ast.EmptyExpression;
+import com.google.javascript.rhino.head.ast.FunctionCall;
+import com.google.javascript.rhino.head.ast.FunctionNode;
+import com.google.javascript.rhino.head.ast.IfStatement;
+import com.google.javascript.rhino.head.ast.KeywordLiteral;
+import com.google.javascript.rhino.head.ast.Name;
+import com.google.javascript.rhino.head.ast.NewExpression;
+import com.google.javascript.rhino.head.ast.NodeVisitor;
+import com.google.javascript.rhino.head.ast.NumberLiteral;
+import com.google.javascript.rhino.head.ast.ObjectLiteral;
+import com.google.javascript.rhino.head.ast.ParenthesizedExpression;
+import com.google.javascript.rhino.head.ast.PropertyGet;
+import com.google.javascript.rhino.head.ast.RegExpLiteral;
+import com.google.javascript.rhino.head.ast.StringLiteral;
+import com.google.javascript.rhino.head.ast.VariableInitializer;
+
+/**
+ * The dependency scanning of r.js's parse module, implemented in Java for
+ * {@link RhinoRunner}. r.js parses every module it traces with esprima,
+ * running in Rhino, to find its define() and require() calls. The optimizer
+ * bootstrap answers those questions with the JavaScript parser that comes
+ * with the Closure Compiler instead, and only falls back to esprima for
+ * files this parser rejects or calls r.js would handle in unusual ways.
+ * <p>
+ * Literal values are passed back to the bootstrap encoded as strings: a
+ * type character, 's' for strings, 'n' for numbers, 'b' for booleans, 'l'
+ * for null and 'r' for regular expressions, followed by the value.
+ */
+public class ParseHost {
+
+    private static final ErrorReporter ERRORS = new ErrorReporter() {
+        public void warning(String message, String sourceName, int line, String lineSource, int lineOffset) {
+            // Warnings do not stop esprima either.
+        }
+
+        public void error(String message, String sourceName, int line, String lineSource, int lineOffset) {
+            throw runtimeError(message, sourceName, line, lineSource, lineOffset);
+        }
+
+        public EvaluatorException runtimeError(String message, String sourceName, int line, String lineSource,
+                int lineOffset) {
+            return new EvaluatorException(message, sourceName, line, lineSource, lineOffset);
+        }
+    };
+
+    /**
+     * @param contents JavaScript source
+     * @return the parsed source, or null if it could not be parsed
+     */
+    public Ast parse(String contents) {
+        CompilerEnvirons environment = new CompilerEnvirons();
+        environment.setLanguageVersion(150);
+        environment.setRecordingComments(false);
+        environment.setRecordingLocalJsDocComments(false);
+        environment.setReservedKeywordAsIdentifier(true);
+        environment.setAllowMemberExprAsFunctionName(false);
+        environment.setXmlAvailable(false);
+        environment.setIdeMode(false);
+        environment.setRecoverFromErrors(false);
+        environment.setWarnTrailingComma(false);
+        try {
+            return new Ast(contents, new Parser(environment, ERRORS).parse(contents, null, 1));
+        } catch (RhinoException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A parsed file.
+     */
+    public static class Ast {
+
+        private final String contents;
+
+        private final AstRoot root;
+
+        Ast(String contents, AstRoot root) {
+            this.contents = contents;
+            this.root = root;
+        }
+
+        /**
+         * The define() and require() calls parse.recurse passes to its
+         * callback, in the order it finds them.
+         * @param has whether the build has a has config, which makes
+         * parse.recurse only look into the branch an if (true) or if (false)
+         * statement takes
+         * @return the calls, or null if parse.recurse has to scan the file
+         */
+        public Match[] scan(final boolean has) {
+            final List<Match> matches = new ArrayList<Match>();
+            final Map<AstNode, Integer> indexes = new IdentityHashMap<AstNode, Integer>();
+            final boolean[] unsupported = new boolean[1];
+            root.visit(new NodeVisitor() {
+                public boolean visit(AstNode node) {
+                    if (has && node instanceof IfStatement) {
+                        IfStatement statement = (IfStatement) node;
+                        AstNode test = unwrap(statement.getCondition());
+                        if (isLiteral(test)) {
+                            AstNode branch = isTrue(test) ? statement.getThenPart() : statement.getElsePart();
+                            if (branch != null) {
+                                branch.visit(this);
+                            }
+                            return false;
+                        }
+                    }
+                    Match match = parseNode(node);
+                    if (match == UNSUPPORTED) {
+                        unsupported[0] = true;
+                    } else if (match != null) {
+                        AstNode parent = node.getParent();
+                        while (parent != null && !indexes.containsKey(parent)) {
+                            parent = parent.getParent();
+                        }
+                        match.parent = parent != null ? indexes.get(parent) : -1;
+                        indexes.put(node, matches.size());
+                        matches.add(match);
+                    }
+                    return !unsupported[0];
+                }
+            });
+            return unsupported[0] ? null : matches.toArray(new Match[matches.size()]);
+        }
+
+        /**
+         * @return whether the file assigns define.amd, like parse.definesRequire
+         */
+        public boolean definesRequire() {
+            final boolean[] found = new boolean[1];
+            root.visit(new NodeVisitor() {
+                public boolean visit(AstNode node) {
+                    if (node instanceof Assignment) {
+                        AstNode left = unwrap(((Assignment) node).getLeft());
+                        if (isMember(left, "amd") && isName(memberObject(left), "define")) {
+                            found[0] = true;
+                        }
+                    }
+                    return !found[0];
+                }
+            });
+            return found[0];
+        }
+
+        /**
+         * @return the literal arguments of require() calls with one
+         * argument, like parse.findCjsDependencies
+         */
+        public String[] findCjsDependencies() {
+            List<String> deps = new ArrayList<String>();
+            findRequireDepNames(root, deps);
+            return deps.toArray(new String[deps.size()]);
+        }
+
+        /**
+         * @return the dependencies of the first define() with a factory
+         * function, like parse.getAnonDeps, or null if r.js would fail on
+         * the file
+         */
+        public String[] getAnonDeps() {
+            final AstNode[] factory = new AstNode[1];
+            final boolean[] unsupported = new boolean[1];
+            root.visit(new NodeVisitor() {
+                public boolean visit(AstNode node) {
+                    if (factory[0] != null || unsupported[0]) {
+                        return false;
+                    }
+                    if (isCall(node) && isName(((FunctionCall) node).getTarget(), "define")) {
+                        AstNode arg0 = argument(node, 0);
+                        AstNode arg1 = argument(node, 1);
+                        if (arg0 instanceof FunctionNode) {
+                            factory[0] = arg0;
+                        } else if (arg0 == null) {
+                            unsupported[0] = true;
+                        } else if (isLiteral(arg0) && arg1 instanceof FunctionNode) {
+                            factory[0] = arg1;
+                        }
+                    }
+                    return factory[0] == null && !unsupported[0];
+                }
+            });
+            if (unsupported[0]) {
+                return null;
+            }
+            List<String> deps = anonDeps((FunctionNode) factory[0]);
+            return deps.toArray(new String[deps.size()]);
+        }
+
+        /**
+         * @return the start and end index of the first config object passed
+         * to require.config(), require() or requirejs(), or assigned to a
+         * require or requirejs variable, like parse.findConfig, an empty
+         * array if there is none, or null if parse.findConfig has to find it
+         */
+        public int[] findConfig() {
+            final AstNode[] config = new AstNode[1];
+            root.visit(new NodeVisitor() {
+                public boolean visit(AstNode node) {
+                    if (config[0] != null) {
+                        return false;
+                    }
+                    AstNode value = null;
+                    if (hasRequire(node) != null) {
+                        List<AstNode> args = ((FunctionCall) node).getArguments();
+                        value = args.isEmpty() ? null : args.get(0);
+                    } else if (node instanceof VariableInitializer) {
+                        VariableInitializer variable = (VariableInitializer) node;
+                        if (isName(variable.getTarget(), "require") || isName(variable.getTarget(), "requirejs")) {
+                            value = variable.getInitializer();
+                        }
+                    }
+                    if (unwrap(value) instanceof ObjectLiteral) {
+                        config[0] = value;
+                    }
+                    return config[0] == null;
+                }
+            });
+            if (config[0] == null) {
+                return new int[0];
+            }
+            // Like esprima, the range of a parenthesized object covers the
+            // parentheses, whose positions the parser does not keep reliably.
+            AstNode object = unwrap(config[0]);
+            int start = object.getAbsolutePosition();
+            int end = start + object.getLength();
+            for (AstNode node = config[0]; node != object; node = ((ParenthesizedExpression) node).getExpression()) {
+                start = skipWhitespace(start - 1, -1);
+                end = skipWhitespace(end, 1);
+                if (start < 0 || end >= contents.length()
+                        || contents.charAt(start) != '(' || contents.charAt(end) != ')') {
+                    return null;
+                }
+                end++;
+            }
+            return new int[] {start, end};
+        }
+
+        private int skipWhitespace(int index, int step) {
+            while (index >= 0 && index < contents.length() && Character.isWhitespace(contents.charAt(index))) {
+                index += step;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * A define() or require() call, as parse.parseNode reports it.
+     */
+    public static class Match {
+
+        private final String callName;
+        private final String name;
+        private final String[] deps;
+        private int parent;
+
+        Match(String callName, String name, String[] deps) {
+            this.callName = callName;
+            this.name = name;
+            this.deps = deps;
+        }
+
+        /**
+         * @return "define" or "require", or null if r.js fails on the call
+         */
+        public String getCallName() {
+            return callName;
+        }
+
+        /**
+         * @return the encoded module name, or null
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the encoded dependencies, or null
+         */
+        public String[] getDeps() {
+            return deps;
+        }
+
+        /**
+         * @return the index of the innermost call this call is part of, or -1
+         */
+        public int getParent() {
+            return parent;
+        }
+    }
+
+    private static final Match UNSUPPORTED = new Match(null, null, null);
+
+    /**
+     * parse.parseNode
+     */
+    private static Match parseNode(AstNode node) {
+        String callName = hasRequire(node);
+        if ("require".equals(callName) || "requirejs".equals(callName)) {
+            AstNode arg = argument(node, 0);
+            if (arg == null) {
+                return new Match(null, null, null);
+            }
+            if (!(arg instanceof ArrayLiteral) && arg instanceof ObjectLiteral) {
+                arg = argument(node, 1);
+            }
+            if (!(arg instanceof ArrayLiteral)) {
+                return null;
+            }
+            List<String> deps = validDeps((ArrayLiteral) arg);
+            if (deps == null) {
+                return new Match(null, null, null);
+            }
+            return deps.isEmpty() ? null : new Match("require", null, deps.toArray(new String[deps.size()]));
+        }
+        if (callName != null || !isCall(node) || !isName(((FunctionCall) node).getTarget(), "define")
+                || ((FunctionCall) node).getArguments().isEmpty()) {
+            return null;
+        }
+
+        AstNode name = argument(node, 0);
+        AstNode deps = argument(node, 1);
+        AstNode factory = argument(node, 2);
+        if (name instanceof ArrayLiteral) {
+            factory = deps;
+            deps = name;
+            name = null;
+        } else if (name instanceof FunctionNode) {
+            factory = name;
+            name = null;
+            deps = null;
+        } else if (!isLiteral(name)) {
+            name = null;
+            deps = null;
+            factory = null;
+        }
+        if (name != null && deps != null) {
+            if (deps instanceof FunctionNode) {
+                factory = deps;
+                deps = null;
+            } else if (deps instanceof ObjectLiteral) {
+                deps = null;
+                factory = null;
+            }
+        }
+
+        List<String> depValues = null;
+        if (deps instanceof ArrayLiteral) {
+            depValues = validDeps((ArrayLiteral) deps);
+            if (depValues == null) {
+                return new Match(null, null, null);
+            }
+            if (depValues.isEmpty()) {
+                depValues = null;
+            }
+        } else if (factory instanceof FunctionNode) {
+            List<String> cjsDeps = anonDeps((FunctionNode) factory);
+            if (!cjsDeps.isEmpty()) {
+                depValues = cjsDeps;
+            } else if (deps != null) {
+                // r.js would pass the node itself on as the dependencies.
+                return UNSUPPORTED;
+            }
+        } else if (deps != null || factory != null) {
+            return null;
+        }
+        return new Match("define", name != null ? literal(name) : null,
+                depValues != null ? depValues.toArray(new String[depValues.size()]) : null);
+    }
+
+    /**
+     * getValidDeps: the literal elements of an array, or null if it has a
+     * hole, which r.js fails on.
+     */
+    private static List<String> validDeps(ArrayLiteral array) {
+        List<String> deps = new ArrayList<String>();
+        for (AstNode element : array.getElements()) {
+            if (element instanceof EmptyExpression) {
+                return null;
+            }
+            element = unwrap(element);
+            if (isLiteral(element)) {
+                deps.add(literal(element));
+            }
+        }
+        return deps;
+    }
+
+    /**
+     * parse.getAnonDepsFromNode
+     */
+    private static List<String> anonDeps(FunctionNode factory) {
+        List<String> deps = new ArrayList<String>();
+        if (factory != null) {
+            findRequireDepNames(factory, deps);
+            int params = factory.getParams().size();
+            if (params > 0) {
+                List<String> cjs = new ArrayList<String>();
+                cjs.add("srequire");
+                if (params > 1) {
+                    cjs.add("sexports");
+                    cjs.add("smodule");
+                }
+                cjs.addAll(deps);
+                deps = cjs;
+            }
+        }
+        return deps;
+    }
+
+    /**
+     * parse.findRequireDepNames
+     */
+    private static void findRequireDepNames(AstNode node, final List<String> deps) {
+        node.visit(new NodeVisitor() {
+            public boolean visit(AstNode node) {
+                if (isCall(node) && isName(((FunctionCall) node).getTarget(), "require")
+                        && ((FunctionCall) node).getArguments().size() == 1) {
+                    AstNode arg = argument(node, 0);
+                    if (isLiteral(arg)) {
+                        deps.add(literal(arg));
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * parse.hasRequire
+     */
+    private static String hasRequire(AstNode node) {
+        if (!isCall(node)) {
+            return null;
+        }
+        AstNode target = unwrap(((FunctionCall) node).getTarget());
+        if (isName(target, "require") || isName(target, "requirejs")) {
+            return ((Name) target).getIdentifier();
+        }
+        if (isMember(target, "config")) {
+            AstNode object = unwrap(memberObject(target));
+            if (isName(object, "require") || isName(object, "requirejs")) {
+                return ((Name) object).getIdentifier() + "Config";
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCall(AstNode node) {
+        return node instanceof FunctionCall && !(node instanceof NewExpression);
+    }
+
+    private static AstNode argument(AstNode call, int index) {
+        List<AstNode> args = ((FunctionCall) call).getArguments();
+        return index < args.size() ? unwrap(args.get(index)) : null;
+    }
+
+    /**
+     * Whether a node is a member expression whose property is an
+     * identifier with the given name, as esprima's node.property.name.
+     */
+    private static boolean isMember(AstNode node, String property) {
+        if (node instanceof PropertyGet) {
+            return isName(((PropertyGet) node).getProperty(), property);
+        }
+        return node instanceof ElementGet && isName(((ElementGet) node).getElement(), property);
+    }
+
+    private static AstNode memberObject(AstNode member) {
+        return unwrap(member instanceof PropertyGet ? ((PropertyGet) member).getTarget()
+                : ((ElementGet) member).getTarget());
+    }
+
+    private static boolean isName(AstNode node, String name) {
+        node = unwrap(node);
+        return node instanceof Name && ((Name) node).getIdentifier().equals(name);
+    }
+
+    /**
+     * esprima does not keep parentheses in its tree.
+     */
+    private static AstNode unwrap(AstNode node) {
+        while (node instanceof ParenthesizedExpression) {
+            node = ((ParenthesizedExpression) node).getExpression();
+        }
+        return node;
+    }
+
+    /**
+     * Whether esprima parses a node as a Literal.
+     */
+    private static boolean isLiteral(AstNode node) {
+        if (node instanceof KeywordLiteral) {
+            int type = node.getType();
+            return type == Token.TRUE || type == Token.FALSE || type == Token.NULL;
+        }
+        return node instanceof StringLiteral || node instanceof NumberLiteral || node instanceof RegExpLiteral;
+    }
+
+    private static boolean isTrue(AstNode literal) {
+        if (literal instanceof StringLiteral) {
+            return ((StringLiteral) literal).getValue().length() > 0;
+        }
+        if (literal instanceof NumberLiteral) {
+            double number = ((NumberLiteral) literal).getNumber();
+            return number != 0 && !Double.isNaN(number);
+        }
+        return literal instanceof RegExpLiteral || literal.getType() == Token.TRUE;
+    }
+
+    private static String literal(AstNode literal) {
+        if (literal instanceof StringLiteral) {
+            return "s" + ((StringLiteral) literal).getValue();
+        }
+        if (literal instanceof NumberLiteral) {
+            return "n" + ((NumberLiteral) literal).getNumber();
+        }
+        if (literal instanceof RegExpLiteral) {
+            RegExpLiteral regExp = (RegExpLiteral) literal;
+            return "r/" + regExp.getValue() + "/" + (regExp.getFlags() != null ? regExp.getFlags() : "");
+        }
+        switch (literal.getType()) {
+        case Token.TRUE:
+            return "btrue";
+        case Token.FALSE:
+            return "bfalse";
+        default:
+            return "l";
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.mcheely.maven.requirejs;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Context factory that sets up every context it creates for a {@link RhinoProfile}.
+ */
+public class RhinoContextFactory extends ContextFactory {
+
+    private final RhinoProfile profile;
+
+    /**
+     * @param profile the profile, other than {@link RhinoProfile#AUTO}
+     */
+    public RhinoContextFactory(RhinoProfile profile) {
+        if (profile == RhinoProfile.AUTO) {
+            throw new IllegalArgumentException("The auto profile has to be resolved for a build first.");
+        }
+        this.profile = profile;
+    }
+
+    /**
+     * @return the profile of the contexts this factory creates
+     */
+    public RhinoProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    protected void onContextCreated(Context cx) {
+        super.onContextCreated(cx);
+        cx.setOptimizationLevel(profile.getOptimizationLevel());
+        cx.setGeneratingDebug(profile.isGeneratingDebug());
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mozilla.javascript.ErrorReporter;
+
+/**
+ * Java services for scripts run by a {@link HostRunner}, visible to them
+ * as the global requirejsPluginHost. The optimizer bootstrap uses it to do
+ * work that is slow or impossible in a single Rhino thread.
+ */
+public class RhinoHost {
+
+    /**
+     * Name of the global the host is exposed as.
+     */
+    public static final String GLOBAL_NAME = "requirejsPluginHost";
+
+    /**
+     * Name of the global a minification worker finds its batch in.
+     */
+    public static final String BATCH_GLOBAL_NAME = "requirejsPluginBatch";
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final FileHost FILES = new FileHost();
+
+    private static final ClosureHost CLOSURE = new ClosureHost();
+
+    private static final CssHost CSS = new CssHost(FILES);
+
+    private static final ParseHost PARSE = new ParseHost();
+
+    private final HostRunner runner;
+    private final File mainScript;
+    private final String[] args;
+    private final ErrorReporter reporter;
+
+    RhinoHost(HostRunner runner, File mainScript, String[] args, ErrorReporter reporter) {
+        this.runner = runner;
+        this.mainScript = mainScript;
+        this.args = args;
+        this.reporter = reporter;
+    }
+
+    /**
+     * @return native implementations of r.js's file functions
+     */
+    public FileHost getFiles() {
+        return FILES;
+    }
+
+    /**
+     * @return a native implementation of r.js's closure optimizer
+     */
+    public ClosureHost getClosure() {
+        return CLOSURE;
+    }
+
+    /**
+     * @return a native implementation of r.js's CSS optimizer
+     */
+    public CssHost getCss() {
+        return CSS;
+    }
+
+    /**
+     * @return a native implementation of r.js's dependency scanning
+     */
+    public ParseHost getParse() {
+        return PARSE;
+    }
+
+    /**
+     * @param threads the number of threads to compile on
+     * @return a new, empty batch of closure compilations
+     */
+    public ClosureBatch newClosureBatch(int threads) {
+        return new ClosureBatch(CLOSURE, threads);
+    }
+
+    /**
+     * @return a new, empty set of layers to compile as closure modules
+     */
+    public ClosureModules newClosureModules() {
+        return new ClosureModules(CLOSURE);
+    }
+
+    /**
+     * @return a new, empty minification batch
+     */
+    public MinifyBatch newMinifyBatch() {
+        return new MinifyBatch();
+    }
+
+    /**
+     * Run the jobs of a batch on several threads. Every thread runs the main
+     * script again, with --minifyWorker=true added to its options and without
+     * the r.js arguments, against a fresh global scope that holds the batch.
+     * The main script is expected to process jobs until the batch is drained.
+     * @param batch the jobs to run
+     * @param threads the number of threads to use
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public void minify(final MinifyBatch batch, int threads) throws InterruptedException {
+        List<String> options = new ArrayList<String>();
+        options.add(args[0]);
+        options.add("--minifyWorker=true");
+        for (int i = 1; i < args.length && !"-o".equals(args[i]); i++) {
+            options.add(args[i]);
+        }
+        final String[] workerArgs = options.toArray(new String[options.size()]);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "requirejs-minify-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<ExitStatus>> workers = new ArrayList<Future<ExitStatus>>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(new Callable<ExitStatus>() {
+                    public ExitStatus call() {
+                        return runner.exec(mainScript, workerArgs, reporter, BATCH_GLOBAL_NAME, batch);
+                    }
+                }));
+            }
+            for (Future<ExitStatus> worker : workers) {
+                if (!worker.get().success()) {
+                    throw new RhinoRunnerException("Minification worker failed.");
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new RhinoRunnerException("Minification worker failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
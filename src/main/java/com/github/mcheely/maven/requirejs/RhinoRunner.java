@@ -37,7 +37,13 @@ package com.github.mcheely.maven.requirejs;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.codehaus.plexus.util.FileUtils;
+
+import org.mozilla.javascript.BaseFunction;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.ContextFactory;
@@ -45,7 +51,6 @@ import org.mozilla.javascript.ErrorReporter;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
-import org.mozilla.javascript.tools.SourceReader;
 import org.mozilla.javascript.tools.shell.Global;
 import org.mozilla.javascript.tools.shell.QuitAction;
 
@@ -56,75 +61,208 @@ import org.mozilla.javascript.tools.shell.QuitAction;
  * @author Norris Boyd
  * @author Matthew Cheely
  */
-public class RhinoRunner implements Runner  {
+public class RhinoRunner implements HostRunner  {
+
+    private static final AtomicBoolean PRECOMPILING = new AtomicBoolean();
+
+    private final RhinoProfile profile;
+    private volatile ContextFactory contextFactory;
+    private ScriptCache scriptCache = ScriptCache.getShared();
+    private ClassFileCache classFileCache;
+
+    /**
+     * Create a runner that only caches compiled scripts in memory.
+     */
+    public RhinoRunner() {
+        this(null, RhinoProfile.DEFAULT);
+    }
+
+    /**
+     * Create a runner that also persists the classes generated for
+     * compiled scripts, so later JVMs can skip compilation.
+     * @param classCacheDirectory directory to store generated classes in
+     */
+    public RhinoRunner(File classCacheDirectory) {
+        this(classCacheDirectory, RhinoProfile.DEFAULT);
+    }
 
-    private ContextFactory contextFactory = new ContextFactory();
-    private Global global = new Global();
-    private File file;
+    /**
+     * Create a runner that runs scripts with the given profile.
+     * @param classCacheDirectory directory to store generated classes in, or null to only cache them in memory
+     * @param profile how to compile and run scripts
+     */
+    public RhinoRunner(File classCacheDirectory, RhinoProfile profile) {
+        this.classFileCache = classCacheDirectory != null ? new ClassFileCache(classCacheDirectory) : null;
+        this.profile = profile;
+        this.contextFactory = new RhinoContextFactory(profile.forInputSize(0, false));
+    }
 
   /**
-     * Execute a js file.
+     * Execute a js file. The compiled form of the script is shared between
+     * executions, but each execution runs against a fresh global scope.
      * @param mainScript the script to run.
      * @param args arguments that will be visible to the script.
      * @param reporter error reporter.
      */
-    public ExitStatus exec(File mainScript, final String[] args, final ErrorReporter reporter) {
+    public ExitStatus exec(File mainScript, String[] args, ErrorReporter reporter) {
+        return exec(mainScript, args, reporter, null, null);
+    }
+
+    /**
+     * Execute a js file with an extra global defined.
+     * @param mainScript the script to run.
+     * @param args arguments that will be visible to the script.
+     * @param reporter error reporter.
+     * @param globalName name of the extra global, or null for none
+     * @param globalValue Java object to expose as the extra global
+     */
+    public ExitStatus exec(final File mainScript, final String[] args, final ErrorReporter reporter,
+            final String globalName, final Object globalValue) {
     	final ExitStatus status = new ExitStatus();
-        if(!global.isInitialized()) {
-            global.init(contextFactory);
-            global.initQuitAction(new QuitAction() {
+        final ContextFactory contextFactory = getContextFactory(mainScript, args);
+        final Global global = new Global();
+        global.init(contextFactory);
+        global.initQuitAction(new QuitAction() {
+            @Override
+            public void quit(Context context, int exitCode) {
+            	status.setExitCode(exitCode);
+            }
+        });
+        global.defineProperty("load", new CachedLoad(global), ScriptableObject.DONTENUM);
+
+        // r.js enters a context of its own without leaving it, which would
+        // otherwise be reused, with its profile, by later executions on this thread.
+        boolean nested = Context.getCurrentContext() != null;
+        try {
+            contextFactory.call(new ContextAction() {
                 @Override
-                public void quit(Context context, int exitCode) {
-                	status.setExitCode(exitCode);
+                public Object run(Context cx) {
+                    cx.setErrorReporter(reporter);
+                    RhinoHost host = new RhinoHost(RhinoRunner.this, mainScript, args, reporter);
+                    global.defineProperty(RhinoHost.GLOBAL_NAME, Context.javaToJS(host, global),
+                            ScriptableObject.DONTENUM);
+                    if (globalName != null) {
+                        global.defineProperty(globalName, Context.javaToJS(globalValue, global),
+                                ScriptableObject.DONTENUM);
+                    }
+                    processFile(cx, global, mainScript, args);
+                    return null;
                 }
             });
-        }
-        
-        file = mainScript;
-        contextFactory.call(new ContextAction() {
-            @Override
-            public Object run(Context cx) {
-                cx.setErrorReporter(reporter);
-                processFile(cx, args);
-                return null;
+        } finally {
+            while (!nested && Context.getCurrentContext() != null) {
+                Context.exit();
             }
-        });
-        
+        }
+
         return status;
     }
     
-    private void processFile(Context cx, String[] args) {
+    /**
+     * The context factory for an execution. The auto profile is picked by
+     * the size of the build an r.js "-o" execution runs and by whether the
+     * optimizer is already compiled, and executions without one, such as
+     * minification workers, use the same factory as the last build. A large
+     * build that runs interpreted because the optimizer is not compiled yet
+     * has it compiled in the background for the builds that follow.
+     */
+    private ContextFactory getContextFactory(File mainScript, String[] args) {
+        if (profile != RhinoProfile.AUTO) {
+            return contextFactory;
+        }
+        for (int i = 0; i < args.length - 1; i++) {
+            if ("-o".equals(args[i])) {
+                List<File> scripts = getOptimizerScripts(mainScript, args);
+                long inputSize = getInputSize(new File(args[i + 1]));
+                RhinoProfile resolved = profile.forInputSize(inputSize, isCompiled(scripts));
+                if (resolved != profile.forInputSize(inputSize, true)) {
+                    precompile(scripts);
+                }
+                if (resolved != ((RhinoContextFactory) contextFactory).getProfile()) {
+                    contextFactory = new RhinoContextFactory(resolved);
+                }
+                break;
+            }
+        }
+        return contextFactory;
+    }
+
+    private static List<File> getOptimizerScripts(File mainScript, String[] args) {
+        List<File> scripts = new ArrayList<File>();
+        scripts.add(mainScript);
+        // The optimizer bootstrap gets the r.js it loads as its first argument.
+        if (args.length > 0 && args[0].endsWith(".js") && new File(args[0]).isFile()) {
+            scripts.add(new File(args[0]));
+        }
+        return scripts;
+    }
+
+    private boolean isCompiled(List<File> scripts) {
+        for (File script : scripts) {
+            if (!scriptCache.contains(script, RhinoProfile.OPTIMIZED.getOptimizationLevel(),
+                    RhinoProfile.OPTIMIZED.isGeneratingDebug())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compile scripts for the optimized profile on a background thread, and
+     * store them in the script cache and class file cache.
+     */
+    private void precompile(final List<File> scripts) {
+        if (!PRECOMPILING.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    new RhinoContextFactory(RhinoProfile.OPTIMIZED).call(new ContextAction() {
+                        public Object run(Context cx) {
+                            for (File script : scripts) {
+                                scriptCache.getScript(cx, script, classFileCache);
+                            }
+                            return null;
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    // Builds keep running interpreted.
+                } finally {
+                    PRECOMPILING.set(false);
+                }
+            }
+        }, "requirejs-precompile");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private static long getInputSize(File buildProfile) {
+        long size = 0;
+        try {
+            File input = BuildProfile.load(buildProfile).getInputDirectory();
+            if (input.isDirectory()) {
+                for (Object file : FileUtils.getFiles(input, "**/*.js", null)) {
+                    size += ((File) file).length();
+                }
+            }
+        } catch (IOException e) {
+            // r.js reports the problem with the build profile.
+        }
+        return size;
+    }
+
+    private void processFile(Context cx, Global global, File file, String[] args) {
         // define "arguments" array in the top-level object:
         // need to allocate new array since newArray requires instances
         // of exactly Object[], not ObjectSubclass[]
         Object[] array = new Object[args.length];
         System.arraycopy(args, 0, array, 0, args.length);
         Scriptable argsObj = cx.newArray(global, array);
-        if (!global.has("arguments", global)) {
-            global.defineProperty("arguments", argsObj, ScriptableObject.DONTENUM);
-        } else {
-            global.put("arguments", global, argsObj);
-        }
+        global.defineProperty("arguments", argsObj, ScriptableObject.DONTENUM);
 
-        String path = file.getAbsolutePath();
-        Object source = readFileOrUrl(path, true);
-        Script script;
-        
-        String strSrc = (String) source;
-        // Support the executable script #! syntax: If
-        // the first line begins with a '#', treat the whole
-        // line as a comment.
-        if (strSrc.length() > 0 && strSrc.charAt(0) == '#') {
-            for (int i = 1; i != strSrc.length(); ++i) {
-              int c = strSrc.charAt(i);
-              if (c == '\n' || c == '\r') {
-                  strSrc = strSrc.substring(i);
-                  break;
-              }
-            }
-        }
-        
-        script = cx.compileString(strSrc, path, 1, null);
+        Script script = scriptCache.getScript(cx, file, classFileCache);
         
         if (script != null) {
             script.exec(cx, global);
@@ -132,15 +270,34 @@ public class RhinoRunner implements Runner  {
     }
 
     /**
-     * Read file or url specified by <tt>path</tt>.
-     * @return file or url content as <tt>byte[]</tt> or as <tt>String</tt> if
-     * <tt>convertToString</tt> is true.
+     * Replacement for the shell's load() function that compiles scripts
+     * through the script cache, so scripts loaded by the main script, such
+     * as r.js loaded by the optimizer bootstrap, are only compiled once.
      */
-    private static Object readFileOrUrl(String path, boolean convertToString) {
-        try {
-            return SourceReader.readFileOrUrl(path, convertToString, null);
-        } catch (IOException e) {
-            throw new RhinoRunnerException("Unable to read script.", e);
+    private class CachedLoad extends BaseFunction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Global global;
+
+        CachedLoad(Global global) {
+            this.global = global;
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            for (Object arg : args) {
+                Script script;
+                try {
+                    script = scriptCache.getScript(cx, new File(Context.toString(arg)), classFileCache);
+                } catch (RhinoRunnerException e) {
+                    throw Context.reportRuntimeError("Couldn't read source file \"" + Context.toString(arg) + "\".");
+                }
+                if (script != null) {
+                    script.exec(cx, global);
+                }
+            }
+            return Context.getUndefinedValue();
         }
     }
   
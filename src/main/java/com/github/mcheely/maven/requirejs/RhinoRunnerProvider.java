@@ -0,0 +1,15 @@
+package com.github.mcheely.maven.requirejs;
+
+/**
+ * Provides {@link RhinoRunner}s, under the name "rhino".
+ */
+public class RhinoRunnerProvider implements RunnerProvider {
+
+    public String getName() {
+        return "rhino";
+    }
+
+    public Runner createRunner(RunnerSettings settings, int slot) {
+        return new RhinoRunner(settings.getClassCacheDirectory(), settings.getRhinoProfile());
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.mcheely.maven.requirejs;
+
+/**
+ * Service provider interface for the JavaScript engines OptimizeMojo can run
+ * r.js with. Providers are found with {@link java.util.ServiceLoader}, from
+ * META-INF/services files on the plugin's classpath, and picked by name with
+ * the mojo's engine parameter.
+ */
+public interface RunnerProvider {
+
+    /**
+     * @return the name the engine parameter picks this provider by
+     */
+    String getName();
+
+    /**
+     * Create a runner. Every thread the mojo optimizes build profiles on
+     * gets a runner of its own.
+     * @param settings the mojo's settings for runners
+     * @param slot index of the thread the runner is for, starting at 0
+     * @return the runner, or null if the engine is not available
+     */
+    Runner createRunner(RunnerSettings settings, int slot);
+}
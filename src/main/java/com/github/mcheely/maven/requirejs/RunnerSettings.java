@@ -0,0 +1,86 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+
+/**
+ * The settings of OptimizeMojo that {@link RunnerProvider}s create runners
+ * with. Providers ignore the settings that do not apply to their engine.
+ */
+public class RunnerSettings {
+
+    private String nodeCommand;
+    private boolean nodeWorker;
+    private File workDirectory;
+    private File classCacheDirectory;
+    private RhinoProfile rhinoProfile = RhinoProfile.DEFAULT;
+
+    /**
+     * @return the command to run Node with, or null if Node was not detected
+     */
+    public String getNodeCommand() {
+        return nodeCommand;
+    }
+
+    /**
+     * @param nodeCommand the command to run Node with, or null if Node was not detected
+     */
+    public void setNodeCommand(String nodeCommand) {
+        this.nodeCommand = nodeCommand;
+    }
+
+    /**
+     * @return whether Node runners should keep a worker process running between builds
+     */
+    public boolean isNodeWorker() {
+        return nodeWorker;
+    }
+
+    /**
+     * @param nodeWorker whether Node runners should keep a worker process running between builds
+     */
+    public void setNodeWorker(boolean nodeWorker) {
+        this.nodeWorker = nodeWorker;
+    }
+
+    /**
+     * @return the directory scripts are extracted to
+     */
+    public File getWorkDirectory() {
+        return workDirectory;
+    }
+
+    /**
+     * @param workDirectory the directory scripts are extracted to
+     */
+    public void setWorkDirectory(File workDirectory) {
+        this.workDirectory = workDirectory;
+    }
+
+    /**
+     * @return the directory to persist classes Rhino generates in, or null to only cache them in memory
+     */
+    public File getClassCacheDirectory() {
+        return classCacheDirectory;
+    }
+
+    /**
+     * @param classCacheDirectory the directory to persist classes Rhino generates in, or null
+     */
+    public void setClassCacheDirectory(File classCacheDirectory) {
+        this.classCacheDirectory = classCacheDirectory;
+    }
+
+    /**
+     * @return how Rhino runners compile and run scripts
+     */
+    public RhinoProfile getRhinoProfile() {
+        return rhinoProfile;
+    }
+
+    /**
+     * @param rhinoProfile how Rhino runners compile and run scripts
+     */
+    public void setRhinoProfile(RhinoProfile rhinoProfile) {
+        this.rhinoProfile = rhinoProfile;
+    }
+}
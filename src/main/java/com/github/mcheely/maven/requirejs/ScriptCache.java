@@ -0,0 +1,123 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.tools.SourceReader;
+
+/**
+ * Cache of compiled scripts, shared by every {@link RhinoRunner} in the JVM.
+ * Entries are keyed by the absolute path of the script and the compiler
+ * settings of the context, and validated against a hash of its contents,
+ * so a multi-module build only pays the parse and compile cost of r.js once.
+ */
+public class ScriptCache {
+
+    private static final ScriptCache SHARED = new ScriptCache();
+
+    private final ConcurrentMap<String, CachedScript> scripts = new ConcurrentHashMap<String, CachedScript>();
+
+    /**
+     * @return the cache shared by all runners in this JVM
+     */
+    public static ScriptCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Get the compiled form of a script, compiling it if it is not cached
+     * or if its contents changed since it was cached.
+     * @param cx the current context, used for compilation
+     * @param file the script to compile
+     * @return the compiled script
+     */
+    public Script getScript(Context cx, File file) {
+        return getScript(cx, file, null);
+    }
+
+    /**
+     * Get the compiled form of a script, compiling it if it is not cached
+     * or if its contents changed since it was cached. On a miss the
+     * generated classes are looked up in, or stored to, the given
+     * class file cache.
+     * @param cx the current context, used for compilation
+     * @param file the script to compile
+     * @param classFileCache persistent cache of generated classes, may be null
+     * @return the compiled script
+     */
+    public Script getScript(Context cx, File file, ClassFileCache classFileCache) {
+        String path = file.getAbsolutePath();
+        String source = stripShebang(readFile(path));
+        String hash = ContentHash.of(source);
+        // Scripts compiled for one Rhino profile can not stand in for another.
+        String key = path + '|' + cx.getOptimizationLevel() + '|' + cx.isGeneratingDebug();
+
+        CachedScript cached = scripts.get(key);
+        if (cached == null || !cached.hash.equals(hash)) {
+            Script script;
+            if (classFileCache != null && ClassFileCache.supports(cx)) {
+                script = classFileCache.getScript(cx, source, hash, path);
+            } else {
+                script = cx.compileString(source, path, 1, null);
+            }
+            cached = new CachedScript(hash, script);
+            scripts.put(key, cached);
+        }
+        return cached.script;
+    }
+
+    /**
+     * Whether a script has been compiled with the given compiler settings.
+     * @param file the script
+     * @param optimizationLevel the Rhino optimization level
+     * @param generatingDebug whether the script was compiled with debug information
+     * @return true if a compiled form of the script is cached
+     */
+    public boolean contains(File file, int optimizationLevel, boolean generatingDebug) {
+        return scripts.containsKey(file.getAbsolutePath() + '|' + optimizationLevel + '|' + generatingDebug);
+    }
+
+    /**
+     * Drop all cached scripts.
+     */
+    public void clear() {
+        scripts.clear();
+    }
+
+    // Support the executable script #! syntax: If
+    // the first line begins with a '#', treat the whole
+    // line as a comment.
+    private static String stripShebang(String source) {
+        if (source.length() > 0 && source.charAt(0) == '#') {
+            for (int i = 1; i != source.length(); ++i) {
+                int c = source.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    return source.substring(i);
+                }
+            }
+        }
+        return source;
+    }
+
+    private static String readFile(String path) {
+        try {
+            return (String) SourceReader.readFileOrUrl(path, true, null);
+        } catch (IOException e) {
+            throw new RhinoRunnerException("Unable to read script.", e);
+        }
+    }
+
+    private static class CachedScript {
+        private final String hash;
+        private final Script script;
+
+        CachedScript(String hash, Script script) {
+            this.hash = hash;
+            this.script = script;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.mozilla.javascript.ErrorReporter;
+
+/**
+ * Runner for a JSR-223 JavaScript engine, such as GraalJS or the Nashorn
+ * engine of Java 8 to 14, that runs scripts in this JVM. Scripts get the
+ * globals of the Rhino shell that r.js relies on, and each execution runs
+ * against fresh engine bindings, so the engine can keep the code it
+ * compiled for earlier executions. Engines that do not declare themselves
+ * thread safe, such as Nashorn and GraalJS, only run one execution at a
+ * time; concurrent executions, such as minification workers, get engines of
+ * their own from the engine's factory, which are kept for later executions.
+ */
+public class ScriptEngineRunner implements HostRunner {
+
+    /**
+     * Name of the global the shell functions are exposed to the prelude as.
+     */
+    private static final String SHELL_GLOBAL_NAME = "requirejsPluginShell";
+
+    private static final String PRELUDE = "(function (global, shell) {\n"
+            + "  global.arguments = Java.from(shell.getArgs());\n"
+            + "  global.quit = function (code) { shell.quit(code === undefined ? 0 : code); };\n"
+            + "  global.readFile = function (path, encoding) { return String(shell.readFile(path, encoding || 'UTF-8')); };\n"
+            + "  if (typeof global.print !== 'function') {\n"
+            + "    global.print = function () { shell.print(Array.prototype.join.call(arguments, ' ')); };\n"
+            + "  }\n"
+            + "}(this, " + SHELL_GLOBAL_NAME + "));\n"
+            + "load(" + SHELL_GLOBAL_NAME + ".getMainScript());\n";
+
+    private final ScriptEngine engine;
+    private final boolean graal;
+    private final boolean threadSafe;
+    private final Queue<ScriptEngine> idleEngines = new ConcurrentLinkedQueue<ScriptEngine>();
+
+    /**
+     * Create a runner for an engine.
+     * @param engine the engine to run scripts with
+     */
+    public ScriptEngineRunner(ScriptEngine engine) {
+        this.engine = engine;
+        this.graal = engine.getFactory().getEngineName().contains("Graal");
+        this.threadSafe = engine.getFactory().getParameter("THREADING") != null;
+        idleEngines.add(engine);
+    }
+
+    /**
+     * Create a runner for the first of the named engines that is available.
+     * @param names JSR-223 engine names, in order of preference
+     * @return the runner, or null if none of the engines is available
+     */
+    public static ScriptEngineRunner forEngine(String... names) {
+        ScriptEngineManager manager = new ScriptEngineManager(ScriptEngineRunner.class.getClassLoader());
+        for (String name : names) {
+            ScriptEngine engine = manager.getEngineByName(name);
+            if (engine != null) {
+                return new ScriptEngineRunner(engine);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the name and version of the engine scripts run with
+     */
+    public String getEngineName() {
+        return engine.getFactory().getEngineName() + " " + engine.getFactory().getEngineVersion();
+    }
+
+    /**
+     * Execute a js file.
+     * @param mainScript the script to run.
+     * @param args arguments that will be visible to the script.
+     * @param reporter error reporter.
+     */
+    public ExitStatus exec(File mainScript, String[] args, ErrorReporter reporter) {
+        return exec(mainScript, args, reporter, null, null);
+    }
+
+    /**
+     * Execute a js file with an extra global defined.
+     * @param mainScript the script to run.
+     * @param args arguments that will be visible to the script.
+     * @param reporter error reporter.
+     * @param globalName name of the extra global, or null for none
+     * @param globalValue Java object to expose as the extra global
+     */
+    public ExitStatus exec(File mainScript, String[] args, ErrorReporter reporter, String globalName,
+            Object globalValue) {
+        ExitStatus status = new ExitStatus();
+        Bindings global = engine.createBindings();
+        if (graal) {
+            // GraalJS only gives scripts the Java access of Rhino and Nashorn when asked to.
+            global.put("polyglot.js.allowAllAccess", true);
+            global.put("polyglot.js.nashorn-compat", true);
+        }
+        global.put(SHELL_GLOBAL_NAME, new Shell(mainScript, args, status));
+        global.put(RhinoHost.GLOBAL_NAME, new RhinoHost(this, mainScript, args, reporter));
+        if (globalName != null) {
+            global.put(globalName, globalValue);
+        }
+        ScriptContext context = new SimpleScriptContext();
+        context.setBindings(global, ScriptContext.ENGINE_SCOPE);
+
+        ScriptEngine executionEngine = acquireEngine();
+        try {
+            executionEngine.eval(PRELUDE, context);
+        } catch (ScriptException e) {
+            // Engines report an unknown position as -1, which Rhino's exceptions reject.
+            throw reporter.runtimeError(e.getMessage(), e.getFileName(), Math.max(e.getLineNumber(), 0), null,
+                    Math.max(e.getColumnNumber(), 0));
+        } finally {
+            releaseEngine(executionEngine);
+        }
+        return status;
+    }
+
+    /**
+     * Take an engine no other execution is running on, creating one if
+     * all are busy. Thread safe engines are shared by all executions.
+     */
+    private ScriptEngine acquireEngine() {
+        if (threadSafe) {
+            return engine;
+        }
+        ScriptEngine idle = idleEngines.poll();
+        return idle != null ? idle : engine.getFactory().getScriptEngine();
+    }
+
+    private void releaseEngine(ScriptEngine executionEngine) {
+        if (!threadSafe) {
+            idleEngines.add(executionEngine);
+        }
+    }
+
+    /**
+     * The functions of the Rhino shell r.js uses, for the prelude to define
+     * them with.
+     */
+    public static class Shell {
+
+        private final File mainScript;
+        private final String[] args;
+        private final ExitStatus status;
+
+        Shell(File mainScript, String[] args, ExitStatus status) {
+            this.mainScript = mainScript;
+            this.args = args;
+            this.status = status;
+        }
+
+        /**
+         * @return the path of the script to run
+         */
+        public String getMainScript() {
+            return mainScript.getPath();
+        }
+
+        /**
+         * @return the arguments of the script
+         */
+        public String[] getArgs() {
+            return args.clone();
+        }
+
+        /**
+         * Like the Rhino shell's quit(), records the exit status without
+         * stopping the script.
+         * @param exitCode the exit status
+         */
+        public void quit(int exitCode) {
+            status.setExitCode(exitCode);
+        }
+
+        /**
+         * @param path the file to read
+         * @param encoding the encoding of the file
+         * @return the contents of the file
+         * @throws IOException if the file cannot be read
+         */
+        public String readFile(String path, String encoding) throws IOException {
+            return FileUtils.fileRead(new File(path), encoding);
+        }
+
+        /**
+         * @param line the line to print to standard output
+         */
+        public void print(String line) {
+            System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.mcheely.maven.requirejs;
+
+/**
+ * Provides {@link ScriptEngineRunner}s for a JSR-223 JavaScript engine, when
+ * the engine is on the plugin's classpath.
+ */
+public class ScriptEngineRunnerProvider implements RunnerProvider {
+
+    private final String name;
+    private final String[] engineNames;
+
+    /**
+     * @param name the name the engine parameter picks the provider by
+     * @param engineNames JSR-223 names of the engine, in order of preference
+     */
+    protected ScriptEngineRunnerProvider(String name, String... engineNames) {
+        this.name = name;
+        this.engineNames = engineNames;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Runner createRunner(RunnerSettings settings, int slot) {
+        return ScriptEngineRunner.forEngine(engineNames);
+    }
+
+    /**
+     * GraalJS, under the name "graaljs", which needs the org.graalvm.js:js
+     * and org.graalvm.js:js-scriptengine artifacts as plugin dependencies.
+     */
+    public static class GraalJs extends ScriptEngineRunnerProvider {
+
+        public GraalJs() {
+            super("graaljs", "graal.js");
+        }
+    }
+
+    /**
+     * Nashorn, under the name "nashorn", which comes with Java 8 to 14.
+     */
+    public static class Nashorn extends ScriptEngineRunnerProvider {
+
+        public Nashorn() {
+            super("nashorn", "nashorn");
+        }
+    }
+}
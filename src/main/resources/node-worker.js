@@ -0,0 +1,162 @@
+/*
+ * Long-lived Node process used by the requirejs-maven-plugin to run many
+ * r.js builds while only paying Node startup and r.js loading once.
+ *
+ * Usage: node node-worker.js path/to/r.js
+ *    or: node node-worker.js path/to/optimizer-bootstrap.js
+ *
+ * With the bootstrap script, requests carry the bootstrap's arguments: the
+ * path to r.js and the hook options before the r.js arguments.
+ *
+ * Requests are read from stdin, one per line, as "<id> <json array of r.js
+ * arguments>", for instance: 1 ["-o","/path/to/build.js"]
+ *
+ * Build output is written to stdout as usual. When a build is done, a line
+ * containing the response marker, the request id and the exit status is
+ * written to stdout.
+ */
+
+/*jslint node: true, nomen: true */
+'use strict';
+
+var readline = require('readline'),
+    main = require(require('path').resolve(process.argv[2])),
+    RESPONSE_MARKER = '\u0000requirejs-worker',
+    queue = [],
+    busy = false,
+    lib;
+
+function respond(id, status) {
+    process.stdout.write(RESPONSE_MARKER + ' ' + id + ' ' + status + '\n');
+}
+
+function resetBuild() {
+    if (main._buildReset) {
+        main._buildReset();
+        main._cacheReset();
+    }
+}
+
+function withLib(callback) {
+    if (lib) {
+        callback(lib);
+    } else {
+        main.tools.useLib('build', function (req) {
+            lib = {
+                build: req('build'),
+                logger: req('logger')
+            };
+            callback(lib);
+        });
+    }
+}
+
+function runBuild(args, done) {
+    var exit = process.exit,
+        status = 0,
+        finished = false;
+
+    function finish(code) {
+        if (!finished) {
+            finished = true;
+            process.exit = exit;
+            resetBuild();
+            done(code);
+        }
+    }
+
+    //r.js quits the process when a build fails, record the status instead.
+    function recordExit() {
+        process.exit = function (code) {
+            status = code;
+        };
+    }
+
+    if (typeof main.run === 'function') {
+        recordExit();
+        try {
+            main.run(args, function (lib, error) {
+                if (error) {
+                    console.log(error.toString());
+                    status = 1;
+                }
+                finish(status);
+            });
+        } catch (e) {
+            console.log(e.toString());
+            finish(1);
+        }
+        return;
+    }
+
+    if (args[0] !== '-o') {
+        console.log('Unsupported r.js command: ' + args.join(' '));
+        done(1);
+        return;
+    }
+
+    withLib(function (lib) {
+        resetBuild();
+        //Start every build with the same logging as a fresh "r.js -o" run.
+        lib.logger.logLevel(lib.logger.TRACE);
+
+        recordExit();
+
+        try {
+            lib.build(args.slice(1)).then(function () {
+                finish(status);
+            }, function (e) {
+                console.log(e.toString());
+                finish(1);
+            });
+        } catch (e) {
+            console.log(e.toString());
+            finish(1);
+        }
+    });
+}
+
+function next() {
+    var request;
+
+    if (busy || queue.length === 0) {
+        return;
+    }
+
+    request = queue.shift();
+    busy = true;
+    runBuild(request.args, function (status) {
+        respond(request.id, status);
+        busy = false;
+        next();
+    });
+}
+
+readline.createInterface({
+    input: process.stdin,
+    terminal: false
+}).on('line', function (line) {
+    var separator = line.indexOf(' '),
+        id = line.substring(0, separator),
+        args;
+
+    if (separator === -1) {
+        return;
+    }
+
+    try {
+        args = JSON.parse(line.substring(separator + 1));
+    } catch (e) {
+        console.log('Malformed request: ' + line);
+        respond(id, 1);
+        return;
+    }
+
+    queue.push({
+        id: id,
+        args: args
+    });
+    next();
+}).on('close', function () {
+    process.exit(0);
+});
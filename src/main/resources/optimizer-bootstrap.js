@@ -0,0 +1,1828 @@
+/*
+ * Runs an r.js build with the build hooks of the requirejs-maven-plugin
+ * installed. Works under Node, under the plugin's Rhino runner and under
+ * JSR-223 engines such as Nashorn and GraalJS.
+ *
+ * Usage: node optimizer-bootstrap.js path/to/r.js [--name=value ...] -o build.js
+ *
+ * The --name=value arguments configure the hooks:
+ *   --optimizerHash=<hash>  content hash of r.js, part of every cache key
+ *   --minifyCache=<dir>     directory to cache minified JavaScript in
+ *   --minifyThreads=<n>     minify the files of a dir build on n threads
+ *   --linkStaging=true      stage the input of a dir build as hard links
+ *   --closureModules=true   compile the layers of a closure dir build together
+ *   --graphIndex=<file>     file to persist what tracing finds in each file to
+ *   --hostServices=<list>   replace parts of r.js with the services of the
+ *                           plugin's requirejsPluginHost, for the built-in
+ *                           r.js only: any of files, closure, css and parse,
+ *                           separated by commas
+ *
+ * Parallel minification runs this script again in every thread, under Rhino
+ * through the requirejsPluginHost the plugin's RhinoRunner provides and under
+ * Node in worker_threads, with --minifyWorker=true and without r.js arguments.
+ * Under Rhino, closure builds compile on Java threads of the host instead, and
+ * the CSS files of a dir build are optimized on them too.
+ *
+ * Under Node the script can also be loaded with require(), as the Node worker
+ * does, in which case run(args, done) is exported instead of run directly.
+ * Under Rhino, a script that sets requirejsPluginAsLib before load()ing it
+ * gets the same functions from the requirejsPlugin global.
+ */
+
+/*jslint evil: true, nomen: true, regexp: true */
+/*global load: false, print: false, quit: false, java: false, process: false,
+require: false, module: false, console: false, __filename: false,
+requirejsPluginHost: false, requirejsPluginBatch: false */
+
+//Set when r.js is loaded with load() in the JVM.
+var requirejs, requirejsAsLib;
+//Set by scripts that load() this one under Rhino to use it as a library.
+var requirejsPluginAsLib;
+
+var requirejsPlugin = (function () {
+    'use strict';
+
+    var isNode = typeof process !== 'undefined' && process.versions && !!process.versions.node,
+        libs = {},
+        state = {
+            options: {},
+            stats: null,
+            jobs: null,
+            closure: null,
+            layers: null,
+            layer: null,
+            graph: null,
+            timings: null,
+            report: null
+        },
+        //Stands in for the output of a layer compiled with the other layers.
+        LAYER_PLACEHOLDER = '\u0000requirejs-layer\u0000',
+        //Options that change what optimize.js produces for the same input.
+        MINIFY_CONFIG = ['optimize', 'preserveLicenseComments', 'pragmas', 'pragmasOnSave',
+                         'has', 'hasOnSave', 'namespace', 'skipPragmas', 'useStrict'],
+        //Format of the --graphIndex file.
+        GRAPH_INDEX_VERSION = 1,
+        //Format of the --timings file.
+        TIMINGS_VERSION = 1;
+
+    /**
+     * Evaluate a config found by parse.findConfig, as r.js does.
+     */
+    function evalConfig(jsConfig) {
+        return eval('(' + jsConfig + ')');
+    }
+
+    function sha1(text) {
+        var digest, bytes, hex, i;
+        if (isNode) {
+            return require('crypto').createHash('sha1').update(text, 'utf8').digest('hex');
+        }
+        digest = java.security.MessageDigest.getInstance('SHA-1');
+        bytes = digest.digest(new java.lang.String(text).getBytes('UTF-8'));
+        hex = [];
+        for (i = 0; i < bytes.length; i += 1) {
+            hex.push(((bytes[i] & 0xff) + 0x100).toString(16).substring(1));
+        }
+        return hex.join('');
+    }
+
+    //r.js's readFile normalizes line endings under Rhino, cached output
+    //has to be read back exactly as it was written.
+    function readExact(path) {
+        var input, output, buffer, count;
+        if (isNode) {
+            return require('fs').readFileSync(path, 'utf8');
+        }
+        if (typeof requirejsPluginHost !== 'undefined') {
+            return String(requirejsPluginHost.getFiles().read(path, 'UTF-8'));
+        }
+        input = new java.io.FileInputStream(path);
+        try {
+            output = new java.io.ByteArrayOutputStream();
+            buffer = java.lang.reflect.Array.newInstance(java.lang.Byte.TYPE, 8192);
+            while ((count = input.read(buffer)) !== -1) {
+                output.write(buffer, 0, count);
+            }
+            return String(new java.lang.String(output.toByteArray(), 'UTF-8'));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * The part of a build config optimize.js depends on.
+     */
+    function minifyConfig(config) {
+        var optimizerName = String(config.optimize).split('.')[0],
+            values = {};
+
+        MINIFY_CONFIG.concat([optimizerName]).forEach(function (name) {
+            if (config.hasOwnProperty(name)) {
+                values[name] = config[name];
+            }
+        });
+        return values;
+    }
+
+    function cacheKey(config, contents) {
+        return sha1(JSON.stringify({
+            optimizer: state.options.optimizerHash || '',
+            config: minifyConfig(config)
+        }) + '\n' + contents);
+    }
+
+    /**
+     * Caches the output of optimize.js by the content and the minification
+     * options. Builds that collect plugin resources or generate source maps
+     * are always optimized, as those have side effects beyond the output.
+     */
+    function installMinifyCache(lib) {
+        var optimize = lib.optimize,
+            file = lib.file,
+            logger = lib.logger,
+            original = optimize.js;
+
+        optimize.js = function (fileName, fileContents, outFileName, config, pluginCollector) {
+            var dir = state.options.minifyCache,
+                key, cacheFile, result, logError,
+                failed = false;
+
+            if (!dir || !config || config.generateSourceMaps || state.layer ||
+                    (pluginCollector && config.optimizeAllPluginResources) ||
+                    !config.optimize || String(config.optimize) === 'none') {
+                return original.apply(optimize, arguments);
+            }
+
+            try {
+                key = cacheKey(config, fileContents);
+            } catch (e) {
+                //Options that can not be serialized can not be cached either.
+                return original.apply(optimize, arguments);
+            }
+
+            cacheFile = dir + '/' + key.substring(0, 2) + '/' + key + '.js';
+            if (file.exists(cacheFile)) {
+                state.stats.hits += 1;
+                return readExact(cacheFile);
+            }
+
+            //r.js logs minification errors and carries on with the original
+            //contents, which must not end up in the cache.
+            logError = logger.error;
+            logger.error = function () {
+                failed = true;
+                return logError.apply(logger, arguments);
+            };
+            try {
+                result = original.apply(optimize, arguments);
+            } finally {
+                logger.error = logError;
+            }
+
+            state.stats.misses += 1;
+            if (!failed && state.closure) {
+                //Not compiled yet, see runJobsOnClosureThreads.
+                state.closure.cacheWrites.push({
+                    fileName: fileName,
+                    cacheFile: cacheFile,
+                    contents: result
+                });
+            } else if (!failed) {
+                saveCached(lib, fileName, cacheFile, result);
+            }
+            return result;
+        };
+    }
+
+    function saveCached(lib, fileName, cacheFile, contents) {
+        var file = lib.file,
+            tempFile = cacheFile + '.' + new Date().getTime() + '-' + Math.floor(Math.random() * 1e9) + '.tmp';
+        try {
+            file.saveUtf8File(tempFile, contents);
+            if (!file.renameFile(tempFile, cacheFile) && file.exists(tempFile)) {
+                file.deleteFile(tempFile);
+            }
+        } catch (e) {
+            lib.logger.warn('Unable to cache minified ' + fileName + ': ' + e);
+        }
+    }
+
+    /**
+     * Run one deferred minification job, as created by installParallelMinify.
+     */
+    function runJob(lib, job) {
+        var hits = state.stats.hits,
+            misses = state.stats.misses,
+            result = {};
+
+        try {
+            result.contents = lib.optimize.js(job.fileName, job.contents, job.outFileName, JSON.parse(job.config));
+        } catch (e) {
+            result.error = String(e);
+        }
+        result.hits = state.stats.hits - hits;
+        result.misses = state.stats.misses - misses;
+        //Counted when the results are written.
+        state.stats.hits = hits;
+        state.stats.misses = misses;
+        return result;
+    }
+
+    function runJobsOnWorkerThreads(jobs, threads) {
+        var workerThreads = require('worker_threads'),
+            args = ['--minifyWorker=true'],
+            name;
+
+        for (name in state.options) {
+            if (state.options.hasOwnProperty(name) && name !== 'minifyThreads') {
+                args.push('--' + name + '=' + state.options[name]);
+            }
+        }
+
+        return new Promise(function (resolve, reject) {
+            var results = [],
+                workers = [],
+                next = 0,
+                finished = 0,
+                i;
+
+            function stop() {
+                workers.forEach(function (worker) {
+                    worker.terminate();
+                });
+            }
+
+            function dispatch(worker) {
+                if (next < jobs.length) {
+                    worker.postMessage({
+                        index: next,
+                        job: jobs[next]
+                    });
+                    next += 1;
+                }
+            }
+
+            function start() {
+                var worker = new workerThreads.Worker(__filename, {
+                    argv: [state.optimizerPath].concat(args)
+                });
+                worker.on('message', function (message) {
+                    results[message.index] = message.result;
+                    finished += 1;
+                    if (finished === jobs.length) {
+                        stop();
+                        resolve(results);
+                    } else {
+                        dispatch(worker);
+                    }
+                });
+                worker.on('error', function (e) {
+                    stop();
+                    reject(e);
+                });
+                workers.push(worker);
+                dispatch(worker);
+            }
+
+            for (i = 0; i < threads; i += 1) {
+                start();
+            }
+        });
+    }
+
+    function runJobsOnHost(jobs, threads) {
+        var batch = requirejsPluginHost.newMinifyBatch();
+
+        jobs.forEach(function (job) {
+            batch.add(JSON.stringify(job));
+        });
+        requirejsPluginHost.minify(batch, threads);
+        return jobs.map(function (job, i) {
+            var result = batch.getResult(i);
+            if (result === null) {
+                throw new Error('Minification of ' + job.fileName + ' did not finish');
+            }
+            return JSON.parse(String(result));
+        });
+    }
+
+    /**
+     * Run jobs that use the closure optimizer on the main thread, and hand
+     * the compilations to a ClosureBatch running on several Java threads.
+     * optimize.js gets a placeholder for the output of each compilation,
+     * which is filled in once the batch compiled it. Files that do not
+     * compile are optimized again the usual way, so that the error is
+     * handled like r.js does.
+     */
+    function runJobsOnClosureThreads(lib, jobs, threads) {
+        var batch = requirejsPluginHost.newClosureBatch(threads),
+            placeholder = /\u0000requirejs-closure:(\d+)\u0000/g,
+            deferred = {
+                batch: batch,
+                cacheWrites: []
+            },
+            results;
+
+        function resolve(text) {
+            var failed = false;
+            text = text.replace(placeholder, function (match, index) {
+                var output = batch.get(parseInt(index, 10));
+                if (output === null) {
+                    failed = true;
+                    return '';
+                }
+                return String(output);
+            });
+            return failed ? null : text;
+        }
+
+        state.closure = deferred;
+        try {
+            results = jobs.map(function (job) {
+                return runJob(lib, job);
+            });
+        } finally {
+            state.closure = null;
+        }
+
+        try {
+            results = results.map(function (result, i) {
+                var contents;
+                if (result.hasOwnProperty('error')) {
+                    return result;
+                }
+                contents = resolve(result.contents);
+                if (contents === null) {
+                    return runJob(lib, jobs[i]);
+                }
+                result.contents = contents;
+                return result;
+            });
+            deferred.cacheWrites.forEach(function (write) {
+                var contents = resolve(write.contents);
+                if (contents !== null) {
+                    saveCached(lib, write.fileName, write.cacheFile, contents);
+                }
+            });
+        } finally {
+            batch.close();
+        }
+        return results;
+    }
+
+    function usesHostClosure(lib, jobs) {
+        return lib.hostClosure && jobs.every(function (job) {
+            return String(JSON.parse(job.config).optimize).split('.')[0] === 'closure';
+        });
+    }
+
+    function writeResults(lib, jobs, results) {
+        jobs.forEach(function (job, i) {
+            var result = results[i];
+            state.stats.hits += result.hits;
+            state.stats.misses += result.misses;
+            if (result.hasOwnProperty('error')) {
+                throw new Error(result.error);
+            }
+            lib.file.saveUtf8File(job.outFileName, result.contents);
+        });
+    }
+
+    /**
+     * Defers the minification of the files of a dir build until r.js is
+     * done with the build, and then minifies them on several threads.
+     * Files are only deferred when their config can be handed to another
+     * thread, and not when r.js collects plugin resources from them.
+     */
+    function installParallelMinify(lib) {
+        var optimize = lib.optimize,
+            build = lib.build,
+            originalJsFile = optimize.jsFile,
+            originalRun = build._run;
+
+        optimize.jsFile = function (fileName, fileContents, outFileName, config, pluginCollector) {
+            var settings;
+
+            if (state.jobs && pluginCollector && config && fileContents &&
+                    !config.optimizeAllPluginResources && !config.generateSourceMaps) {
+                try {
+                    settings = minifyConfig(config);
+                    settings.throwWhen = config.throwWhen;
+                    state.jobs.push({
+                        fileName: fileName,
+                        contents: fileContents,
+                        outFileName: outFileName,
+                        config: JSON.stringify(settings)
+                    });
+                    return;
+                } catch (e) {
+                    //Not serializable, optimize it right away.
+                }
+            }
+            return originalJsFile.apply(optimize, arguments);
+        };
+
+        build._run = function () {
+            return originalRun.apply(build, arguments).then(function (result) {
+                var jobs = state.jobs || [],
+                    threads = Math.min(state.threads, jobs.length),
+                    parallel = threads > 1 && (isNode ? hasWorkerThreads() :
+                                               typeof requirejsPluginHost !== 'undefined'),
+                    start;
+
+                state.jobs = null;
+                if (jobs.length === 0) {
+                    return result;
+                }
+                lib.logger.trace('Minifying ' + jobs.length + ' file(s) on ' + (parallel ? threads : 1) + ' thread(s)');
+                start = Date.now();
+                if (!parallel) {
+                    writeResults(lib, jobs, jobs.map(function (job) {
+                        return runJob(lib, job);
+                    }));
+                    recordTiming('optimize.jsFile', '', '', start);
+                    return result;
+                }
+                if (isNode) {
+                    return runJobsOnWorkerThreads(jobs, threads).then(function (results) {
+                        writeResults(lib, jobs, results);
+                        recordTiming('optimize.jsFile', '', '', start);
+                        return result;
+                    });
+                }
+                if (usesHostClosure(lib, jobs)) {
+                    writeResults(lib, jobs, runJobsOnClosureThreads(lib, jobs, threads));
+                } else {
+                    writeResults(lib, jobs, runJobsOnHost(jobs, threads));
+                }
+                recordTiming('optimize.jsFile', '', '', start);
+                return result;
+            });
+        };
+    }
+
+    function hasWorkerThreads() {
+        try {
+            return !!require('worker_threads').Worker;
+        } catch (e) {
+            return false;
+        }
+    }
+
+    /**
+     * Serve minification jobs of the main thread until there are no more.
+     */
+    function runMinifyWorker(lib) {
+        var port, batch, index;
+
+        if (isNode) {
+            port = require('worker_threads').parentPort;
+            port.on('message', function (message) {
+                port.postMessage({
+                    index: message.index,
+                    result: runJob(lib, message.job)
+                });
+            });
+        } else {
+            batch = requirejsPluginBatch;
+            while ((index = batch.next()) !== -1) {
+                batch.setResult(index, JSON.stringify(runJob(lib, JSON.parse(String(batch.getJob(index))))));
+            }
+        }
+    }
+
+    /**
+     * Under the plugin's Rhino runner, replace the functions of r.js's
+     * rhino/file module that go through many LiveConnect calls per file with
+     * calls to the runner's FileHost, which does the same work natively.
+     */
+    function installHostFiles(file) {
+        var files, separator;
+
+        if (isNode || typeof requirejsPluginHost === 'undefined') {
+            return;
+        }
+        files = requirejsPluginHost.getFiles();
+        separator = String(java.io.File.separator);
+
+        function string(value) {
+            return value === null ? null : String(value);
+        }
+
+        file.exists = function (fileName) {
+            return files.exists(String(fileName));
+        };
+        file.isFile = function (path) {
+            return files.isFile(String(path));
+        };
+        file.isDirectory = function (path) {
+            return files.isDirectory(String(path));
+        };
+        file.absPath = function (fileObj) {
+            return String(files.absPath(String(fileObj)));
+        };
+        file.normalize = file.absPath;
+        file.parent = function (fileName) {
+            return string(files.parent(String(fileName)));
+        };
+        file.readFile = function (path, encoding) {
+            return String(files.readFile(String(path), String(encoding || 'utf-8')));
+        };
+        file.saveFile = function (fileName, fileContents, encoding) {
+            files.saveFile(String(fileName), String(fileContents), encoding ? String(encoding) : null);
+        };
+        file.copyFile = function (srcFileName, destFileName, onlyCopyNew) {
+            return files.copyFile(String(srcFileName), String(destFileName), !!onlyCopyNew);
+        };
+        file.renameFile = function (from, to) {
+            return files.renameFile(String(from), String(to));
+        };
+        file.deleteFile = function (fileName) {
+            files.deleteFile(String(fileName));
+        };
+        file.getFilteredFileList = function (startDir, regExpFilters, makeUnixPaths) {
+            var result = [],
+                regExpInclude = regExpFilters.include || regExpFilters,
+                regExpExclude = regExpFilters.exclude || null;
+
+            function excluded(path) {
+                var name = path.substring(path.lastIndexOf(separator) + 1);
+                return file.exclusionRegExp && file.exclusionRegExp.test(name);
+            }
+
+            function walk(dir) {
+                var listing = String(files.list(dir)),
+                    entries = listing ? listing.split('\u0000') : [],
+                    i, path, filePath, ok;
+
+                for (i = 0; i < entries.length; i += 1) {
+                    path = entries[i].substring(1);
+                    if (entries[i].charAt(0) === 'f') {
+                        filePath = path;
+                        if (makeUnixPaths && filePath.indexOf('/') === -1) {
+                            filePath = filePath.replace(/\\/g, '/');
+                        }
+                        ok = true;
+                        if (regExpInclude) {
+                            ok = filePath.match(regExpInclude);
+                        }
+                        if (ok && regExpExclude) {
+                            ok = !filePath.match(regExpExclude);
+                        }
+                        if (ok && !excluded(path)) {
+                            result.push(filePath);
+                        }
+                    } else if (!excluded(path)) {
+                        walk(path);
+                    }
+                }
+            }
+
+            walk(String(startDir));
+            return result;
+        };
+    }
+
+    /**
+     * Under the plugin's Rhino runner, replace r.js's closure optimizer, which
+     * drives the compiler through LiveConnect, with the runner's ClosureHost.
+     * The source map files are written here the same way r.js writes them.
+     */
+    function installHostClosure(lib) {
+        var envOptimize = lib.envOptimize,
+            file = lib.file,
+            logger = lib.logger,
+            closure;
+
+        if (isNode || typeof requirejsPluginHost === 'undefined' || !envOptimize.closure) {
+            return;
+        }
+        closure = requirejsPluginHost.getClosure();
+        lib.hostClosure = true;
+
+        envOptimize.closure = function (fileName, fileContents, outFileName, keepLines, config) {
+            config = config || {};
+            var output, sourceMap, baseName, outBaseName, outFileNameMap;
+
+            logger.trace("Minifying file: " + fileName);
+
+            if (state.layer && !config.generateSourceMaps) {
+                //Compiled with the other layers, see installClosureModules.
+                state.layer.input = {
+                    fileName: String(fileName),
+                    contents: String(fileContents),
+                    keepLines: !!keepLines,
+                    config: config
+                };
+                return LAYER_PLACEHOLDER;
+            }
+
+            if (state.closure && !config.generateSourceMaps) {
+                return '\u0000requirejs-closure:' +
+                    state.closure.batch.submit(String(fileName), String(fileContents), !!keepLines,
+                                               config.CompilerOptions || {},
+                                               config.CompilationLevel || 'SIMPLE_OPTIMIZATIONS',
+                                               config.loggingLevel || 'WARNING') + '\u0000';
+            }
+
+            output = closure.compile(String(fileName), String(fileContents),
+                                     outFileName ? String(outFileName) : null, !!keepLines,
+                                     config.CompilerOptions || {},
+                                     config.CompilationLevel || 'SIMPLE_OPTIMIZATIONS',
+                                     config.loggingLevel || 'WARNING', !!config.generateSourceMaps);
+            if (output === null) {
+                throw new Error('Cannot closure compile file: ' + fileName + '. Skipping it.');
+            }
+
+            sourceMap = output.getSourceMap();
+            if (sourceMap === null) {
+                return String(output.getSource());
+            }
+
+            baseName = String(fileName).replace(/^.*[\\\/]/, '');
+            outBaseName = String(outFileName).replace(/^.*[\\\/]/, '');
+            file.saveUtf8File(outFileName + ".src", fileContents);
+            outFileNameMap = outFileName + ".map";
+            file.saveUtf8File(outFileNameMap, String(sourceMap));
+            //Keep the full OS path out of the "file" property, as r.js does.
+            file.saveFile(outFileNameMap,
+                file.readFile(outFileNameMap).replace(/"file":"[^"]+"/, '"file":"' + baseName + '"'));
+            return String(output.getSource()) + "\n//@ sourceMappingURL=" + outBaseName + ".map";
+        };
+    }
+
+    /**
+     * Under the plugin's Rhino runner, answer the parse module's questions
+     * about define() and require() calls with the runner's ParseHost instead
+     * of esprima. r.js's parse() function is held by requirePatch, so it is
+     * reached through what it calls: esprima.parse() without options returns
+     * a Program whose body is only parsed by esprima when read, and
+     * parse.recurse scans such a Program with the host. Anything the host
+     * can not answer reads the body and runs r.js's own code.
+     */
+    function installHostParse(lib) {
+        var parse = lib.parse,
+            esprima = lib.esprima,
+            originalEsprimaParse = esprima.parse,
+            original = {},
+            cached = {
+                source: null,
+                ast: null
+            },
+            host;
+
+        if (isNode || typeof requirejsPluginHost === 'undefined' || !parse.recurse || !esprima.parse) {
+            return;
+        }
+        host = requirejsPluginHost.getParse();
+
+        function hostAst(source) {
+            if (cached.source !== source) {
+                cached.source = source;
+                cached.ast = host.parse(source);
+            }
+            return cached.ast;
+        }
+
+        function literal(value) {
+            var text = String(value),
+                type = text.charAt(0),
+                rest = text.substring(1);
+            switch (type) {
+            case 's':
+                return rest;
+            case 'n':
+                return Number(rest);
+            case 'b':
+                return rest === 'true';
+            case 'r':
+                return new RegExp(rest.substring(1, rest.lastIndexOf('/')),
+                                  rest.substring(rest.lastIndexOf('/') + 1));
+            default:
+                return null;
+            }
+        }
+
+        function literals(values) {
+            var result = [], i;
+            for (i = 0; i < values.length; i += 1) {
+                result.push(literal(values[i]));
+            }
+            return result;
+        }
+
+        ['recurse', 'definesRequire', 'findCjsDependencies', 'getAnonDeps', 'findConfig'].forEach(function (name) {
+            original[name] = parse[name];
+        });
+
+        esprima.parse = function (code, options) {
+            var ast, body;
+            if (options) {
+                return originalEsprimaParse.apply(esprima, arguments);
+            }
+            code = String(code);
+            ast = {
+                type: 'Program'
+            };
+            Object.defineProperty(ast, 'body', {
+                enumerable: true,
+                get: function () {
+                    if (!body) {
+                        body = originalEsprimaParse.call(esprima, code).body;
+                    }
+                    return body;
+                }
+            });
+            Object.defineProperty(ast, 'requirejsPluginSource', {
+                value: code
+            });
+            return ast;
+        };
+
+        parse.recurse = function (object, onMatch, options) {
+            var source = object && object.requirejsPluginSource,
+                ast = typeof source === 'string' ? hostAst(source) : null,
+                matches = ast && ast.scan(!!(options && options.has)),
+                skipped = [],
+                i, match, parent, deps;
+
+            if (!matches) {
+                return original.recurse.apply(this, arguments);
+            }
+            for (i = 0; i < matches.length; i += 1) {
+                match = matches[i];
+                parent = match.getParent();
+                skipped[i] = parent !== -1 && skipped[parent];
+                if (!skipped[i]) {
+                    if (match.getCallName() === null) {
+                        //Fail with the TypeError parse.parseNode fails with.
+                        return undefined.type;
+                    }
+                    deps = match.getDeps();
+                    skipped[i] = onMatch(String(match.getCallName()), null,
+                                         match.getName() === null ? null : literal(match.getName()),
+                                         deps === null ? null : literals(deps)) === false;
+                }
+            }
+        };
+
+        parse.definesRequire = function (fileName, fileContents) {
+            var ast = hostAst(String(fileContents));
+            return ast ? ast.definesRequire() : original.definesRequire.apply(this, arguments);
+        };
+
+        parse.findCjsDependencies = function (fileName, fileContents) {
+            var ast = hostAst(String(fileContents));
+            return ast ? literals(ast.findCjsDependencies()) : original.findCjsDependencies.apply(this, arguments);
+        };
+
+        parse.getAnonDeps = function (fileName, fileContents) {
+            var ast = hostAst(String(fileContents)),
+                deps = ast && ast.getAnonDeps();
+            return deps ? literals(deps) : original.getAnonDeps.apply(this, arguments);
+        };
+
+        parse.findConfig = function (fileContents) {
+            var ast = hostAst(String(fileContents)),
+                range = ast && ast.findConfig();
+            if (!range) {
+                return original.findConfig.apply(this, arguments);
+            }
+            if (!range.length) {
+                return {
+                    config: undefined,
+                    range: undefined
+                };
+            }
+            return {
+                config: evalConfig(String(fileContents).substring(range[0], range[1])),
+                range: [range[0], range[1]]
+            };
+        };
+    }
+
+    function isArray(value) {
+        return Object.prototype.toString.call(value) === '[object Array]';
+    }
+
+    /**
+     * Persists what tracing finds in each file, keyed by the content hash of
+     * the source r.js scans, to the --graphIndex file, and reuses it for
+     * unchanged files in the next build instead of parsing them again. Only
+     * the scans of parse(), which requirePatch runs on every module it
+     * loads, and parse.definesRequire() are reused. The index also records
+     * each traced module's path, hash, direct dependencies and plugin
+     * resources.
+     */
+    function installGraphIndex(lib) {
+        var rjs = lib.requirejs,
+            build = lib.build,
+            parse = lib.parse,
+            esprima = lib.esprima,
+            originalEsprimaParse = esprima.parse,
+            originalRecurse = parse.recurse,
+            originalDefinesRequire = parse.definesRequire,
+            originalTrace = build.traceDependencies,
+            originalReadAsync = rjs._cacheReadAsync,
+            hashed = {
+                source: null,
+                hash: null
+            };
+
+        if (!parse.recurse || !esprima.parse || !build.traceDependencies || !rjs._cacheReadAsync) {
+            return;
+        }
+
+        function hash(source) {
+            if (hashed.source !== source) {
+                hashed.source = source;
+                hashed.hash = sha1(source);
+            }
+            return hashed.hash;
+        }
+
+        function entry(key) {
+            var graph = state.graph;
+            if (!graph.files.hasOwnProperty(key)) {
+                graph.files[key] = graph.previous.hasOwnProperty(key) ? graph.previous[key] : {
+                    scans: {}
+                };
+            }
+            return graph.files[key];
+        }
+
+        //The arguments parse() uses of a match, in a form that survives JSON,
+        //or null if the match has no such form.
+        function storable(callName, name, deps) {
+            var i, values = [];
+            if (name !== null && name !== undefined && typeof name !== 'string' &&
+                    typeof name !== 'boolean' && !(typeof name === 'number' && isFinite(name))) {
+                return null;
+            }
+            if (deps !== null && deps !== undefined) {
+                if (!isArray(deps)) {
+                    return null;
+                }
+                //parse() only joins the dependencies into a string.
+                for (i = 0; i < deps.length; i += 1) {
+                    values.push(deps[i] === null || deps[i] === undefined ? '' : String(deps[i]));
+                }
+            }
+            return [callName, name === undefined ? null : name, deps === null || deps === undefined ? null : values];
+        }
+
+        esprima.parse = function (code, options) {
+            var ast, inner;
+            if (options || !state.graph) {
+                return originalEsprimaParse.apply(esprima, arguments);
+            }
+            code = String(code);
+            function parsed() {
+                if (!inner) {
+                    inner = originalEsprimaParse.call(esprima, code);
+                }
+                return inner;
+            }
+            ast = {
+                type: 'Program'
+            };
+            Object.defineProperty(ast, 'body', {
+                enumerable: true,
+                get: function () {
+                    return parsed().body;
+                }
+            });
+            Object.defineProperty(ast, 'requirejsPluginGraph', {
+                value: {
+                    source: code,
+                    parsed: parsed
+                }
+            });
+            return ast;
+        };
+
+        parse.recurse = function (object, onMatch, options) {
+            var graph = state.graph,
+                source = object && object.requirejsPluginGraph,
+                key, scans, flags, calls, i;
+
+            if (!source) {
+                return originalRecurse.apply(this, arguments);
+            }
+            //Only parse() asks for require.needsDefine, and what its callback
+            //does with a match only depends on these options.
+            if (!graph || !options || !options.insertNeedsDefine) {
+                return originalRecurse.call(this, source.parsed(), onMatch, options);
+            }
+            key = hash(source.source);
+            scans = entry(key).scans;
+            flags = (options.has ? 'h' : '') + (options.findNestedDependencies ? 'n' : '');
+
+            if (scans.hasOwnProperty(flags)) {
+                graph.hits += 1;
+                calls = scans[flags];
+                for (i = 0; i < calls.length; i += 1) {
+                    onMatch(calls[i][0], null, calls[i][1], calls[i][2] && calls[i][2].slice());
+                }
+            } else {
+                graph.misses += 1;
+                calls = [];
+                originalRecurse.call(this, source.parsed(), function (callName, config, name, deps) {
+                    var call = calls && storable(callName, name, deps);
+                    if (call) {
+                        calls.push(call);
+                    } else {
+                        calls = null;
+                    }
+                    return onMatch.apply(this, arguments);
+                }, options);
+                if (calls) {
+                    scans[flags] = calls;
+                }
+            }
+
+            if (graph.reading !== null) {
+                graph.traced[graph.reading] = {
+                    hash: key,
+                    calls: calls || []
+                };
+                graph.reading = null;
+            }
+        };
+
+        parse.definesRequire = function (fileName, fileContents) {
+            var file;
+            if (!state.graph) {
+                return originalDefinesRequire.apply(this, arguments);
+            }
+            file = entry(hash(String(fileContents)));
+            if (!file.hasOwnProperty('definesRequire')) {
+                file.definesRequire = !!originalDefinesRequire.apply(this, arguments);
+            }
+            return file.definesRequire;
+        };
+
+        //requirePatch reads each module it loads right before it parses it.
+        rjs._cacheReadAsync = function (path) {
+            return originalReadAsync.apply(rjs, arguments).then(function (text) {
+                if (state.graph) {
+                    state.graph.reading = String(path);
+                }
+                return text;
+            });
+        };
+
+        build.traceDependencies = function () {
+            return originalTrace.apply(build, arguments).then(function (layer) {
+                var graph = state.graph;
+                if (graph && layer && layer.buildFileToModule) {
+                    Object.keys(layer.buildFileToModule).forEach(function (path) {
+                        var traced = graph.traced[path],
+                            deps = [];
+                        if (!traced) {
+                            return;
+                        }
+                        traced.calls.forEach(function (call) {
+                            (call[2] || []).forEach(function (dep) {
+                                if (dep && deps.indexOf(dep) === -1) {
+                                    deps.push(dep);
+                                }
+                            });
+                        });
+                        graph.modules[layer.buildFileToModule[path]] = {
+                            path: path,
+                            hash: traced.hash,
+                            deps: deps,
+                            resources: deps.filter(function (dep) {
+                                return dep.indexOf('!') !== -1;
+                            })
+                        };
+                    });
+                }
+                return layer;
+            });
+        };
+    }
+
+    function loadGraphIndex(lib, path) {
+        var file = lib.file,
+            index = null;
+
+        try {
+            if (file.exists(path)) {
+                index = JSON.parse(String(file.readFile(path, 'utf8')));
+            }
+        } catch (e) {
+            lib.logger.warn('Unable to read the module graph index ' + path + ': ' + e);
+        }
+        return {
+            path: path,
+            previous: index && index.version === GRAPH_INDEX_VERSION &&
+                index.optimizer === (state.options.optimizerHash || '') ? index.files : {},
+            files: {},
+            modules: {},
+            traced: {},
+            reading: null,
+            hits: 0,
+            misses: 0
+        };
+    }
+
+    function saveGraphIndex(lib, graph) {
+        try {
+            lib.file.saveUtf8File(graph.path, JSON.stringify({
+                version: GRAPH_INDEX_VERSION,
+                optimizer: state.options.optimizerHash || '',
+                modules: graph.modules,
+                files: graph.files
+            }));
+        } catch (e) {
+            lib.logger.warn('Unable to save the module graph index ' + graph.path + ': ' + e);
+        }
+    }
+
+    /**
+     * Under the plugin's Rhino runner, replace r.js's CSS optimizer with the
+     * runner's CssHost, which optimizes the CSS files of a dir build on the
+     * minifyThreads threads. It logs, and builds the text for build.txt, the
+     * same way optimize.css does.
+     */
+    function installHostCss(lib) {
+        var optimize = lib.optimize,
+            file = lib.file,
+            logger = lib.logger;
+
+        if (isNode || typeof requirejsPluginHost === 'undefined') {
+            return;
+        }
+
+        optimize.css = function (startDir, config) {
+            var buildText = "",
+                importList = [],
+                shouldRemove = config.dir && config.removeCombined,
+                fileList, results, result, fileName, imports, messages, i, j, message;
+
+            if (config.optimizeCss.indexOf("standard") === -1) {
+                return buildText;
+            }
+            fileList = file.getFilteredFileList(startDir, /\.css$/, true);
+            results = requirejsPluginHost.getCss().optimize(fileList.join('\u0000'), String(config.optimizeCss),
+                                                            config.cssImportIgnore ? String(config.cssImportIgnore) : null,
+                                                            String(config.cssPrefix || ''),
+                                                            !!config.preserveLicenseComments, state.threads || 1);
+
+            for (i = 0; i < results.length; i += 1) {
+                result = results[i];
+                fileName = String(result.getFileName());
+                logger.trace("Optimizing (" + config.optimizeCss + ") CSS file: " + fileName);
+                messages = result.getLog();
+                for (j = 0; j < messages.length; j += 1) {
+                    message = String(messages[j]);
+                    logger[message.substring(0, message.indexOf(':'))](message.substring(message.indexOf(':') + 1));
+                }
+
+                imports = [];
+                for (j = 0; j < result.getImports().length; j += 1) {
+                    imports.push(String(result.getImports()[j]));
+                }
+                if (shouldRemove) {
+                    importList = importList.concat(imports);
+                }
+                imports.push(fileName);
+                buildText += "\n" + fileName.replace(config.dir, "") + "\n----------------\n" +
+                    imports.map(function (path) {
+                        return path.replace(config.dir, "");
+                    }).join("\n") + "\n";
+            }
+
+            if (shouldRemove) {
+                importList.forEach(function (path) {
+                    if (file.exists(path)) {
+                        file.deleteFile(path);
+                    }
+                });
+            }
+            return buildText;
+        };
+    }
+
+    /**
+     * Stage the files r.js copies into the build dir as hard links to their
+     * sources. Writes to the build dir then have to replace files instead of
+     * overwriting them, which the Rhino host always does and which is added
+     * here for Node. Builds that generate source maps are left alone, as the
+     * Rhino closure optimizer writes those without going through the file
+     * module.
+     */
+    function installLinkStaging(lib) {
+        var file = lib.file,
+            build = lib.build,
+            originalCreateConfig = build.createConfig,
+            originalCopyDir = file.copyDir,
+            originalCopyFile = file.copyFile,
+            originalSaveFile = file.saveFile,
+            fs = isNode ? require('fs') : null,
+            path = isNode ? require('path') : null;
+
+        function isUpToDate(srcFileName, destFileName) {
+            return fs.statSync(destFileName).mtime.getTime() >= fs.statSync(srcFileName).mtime.getTime();
+        }
+
+        function linkFile(srcFileName, destFileName, onlyCopyNew) {
+            if (!isNode) {
+                return requirejsPluginHost.getFiles().linkFile(String(srcFileName), String(destFileName), !!onlyCopyNew);
+            }
+            if (fs.existsSync(destFileName)) {
+                if (onlyCopyNew && isUpToDate(srcFileName, destFileName)) {
+                    return false;
+                }
+                fs.unlinkSync(destFileName);
+            }
+            try {
+                fs.mkdirSync(path.dirname(destFileName), {recursive: true});
+                fs.linkSync(srcFileName, destFileName);
+                return true;
+            } catch (e) {
+                return originalCopyFile.call(file, srcFileName, destFileName);
+            }
+        }
+
+        if (!isNode && typeof requirejsPluginHost === 'undefined') {
+            return;
+        }
+
+        build.createConfig = function () {
+            var config = originalCreateConfig.apply(build, arguments);
+            state.linking = !!state.options.linkStaging && !!config.dir && !config.generateSourceMaps;
+            return config;
+        };
+
+        file.copyDir = function (srcDir, destDir, regExpFilter, onlyCopyNew) {
+            var fileNames, copiedFiles = [], i, destFileName;
+
+            if (!state.linking) {
+                return originalCopyDir.apply(file, arguments);
+            }
+            fileNames = file.getFilteredFileList(srcDir, regExpFilter || /\w/, true);
+            for (i = 0; i < fileNames.length; i += 1) {
+                destFileName = fileNames[i].replace(srcDir, destDir);
+                if (linkFile(fileNames[i], destFileName, onlyCopyNew)) {
+                    copiedFiles.push(destFileName);
+                }
+            }
+            return copiedFiles.length ? copiedFiles : null;
+        };
+
+        if (isNode) {
+            file.copyFile = function (srcFileName, destFileName, onlyCopyNew) {
+                if (state.linking && fs.existsSync(destFileName)) {
+                    if (onlyCopyNew && isUpToDate(srcFileName, destFileName)) {
+                        return false;
+                    }
+                    fs.unlinkSync(destFileName);
+                }
+                return originalCopyFile.apply(file, arguments);
+            };
+            file.saveFile = function (fileName) {
+                if (state.linking && fs.existsSync(fileName)) {
+                    fs.unlinkSync(fileName);
+                }
+                return originalSaveFile.apply(file, arguments);
+            };
+        }
+    }
+
+    /**
+     * Compile the layers of a closure dir build in a single Closure
+     * compilation, with one JSModule per layer, where a layer that excludes
+     * another layer depends on it. optimize.js runs for every layer as
+     * usual, but hands the layer to ClosureModules instead of compiling it,
+     * and the layers are written once all of them compiled. Layers are
+     * minified one at a time if they do not compile together.
+     */
+    function installClosureModules(lib) {
+        var optimize = lib.optimize,
+            build = lib.build,
+            file = lib.file,
+            logger = lib.logger,
+            originalJsFile = optimize.jsFile,
+            originalRun = build._run;
+
+        if (!lib.hostClosure) {
+            return;
+        }
+
+        function layerOf(fileName, config) {
+            var index;
+            if (!state.layers || !config || config.generateSourceMaps || !config.dir ||
+                    String(config.optimize).split('.')[0] !== 'closure' || !config._buildPathToModuleIndex ||
+                    !Object.prototype.hasOwnProperty.call(config._buildPathToModuleIndex, fileName)) {
+                return null;
+            }
+            index = config._buildPathToModuleIndex[fileName];
+            return config.modules[index] && !config.modules[index].override ? config.modules[index] : null;
+        }
+
+        function externs(config) {
+            var profileDir = file.parent(file.absPath(state.profile));
+            return (config.externs || []).map(function (path) {
+                path = String(path);
+                return /^(\/|\\|[a-zA-Z]:)/.test(path) ? path : profileDir + '/' + path;
+            });
+        }
+
+        function compile(layers) {
+            var modules = requirejsPluginHost.newClosureModules(),
+                names = {},
+                input = layers[0].input;
+
+            layers.forEach(function (layer) {
+                names[layer.module.name] = true;
+                modules.add(layer.module.name, layer.input.fileName, layer.input.contents);
+            });
+            layers.forEach(function (layer) {
+                (layer.module.exclude || []).concat(layer.module.excludeShallow || []).forEach(function (name) {
+                    if (names.hasOwnProperty(name)) {
+                        modules.addDependency(layer.module.name, name);
+                    }
+                });
+            });
+            externs(input.config).forEach(function (path) {
+                modules.addExterns(path, file.readFile(path));
+            });
+
+            if (!modules.compile(input.keepLines, input.config.CompilerOptions || {},
+                                 input.config.CompilationLevel || 'SIMPLE_OPTIMIZATIONS',
+                                 input.config.loggingLevel || 'WARNING')) {
+                throw new Error('Cannot closure compile the layers together.');
+            }
+            return modules;
+        }
+
+        optimize.jsFile = function (fileName, fileContents, outFileName, config, pluginCollector) {
+            var module = layerOf(fileName, config),
+                layer;
+
+            if (!module) {
+                return originalJsFile.apply(optimize, arguments);
+            }
+
+            layer = {
+                module: module,
+                args: Array.prototype.slice.call(arguments)
+            };
+            state.layer = layer;
+            try {
+                layer.contents = optimize.js(fileName, fileContents || file.readFile(fileName),
+                                             outFileName, config, pluginCollector);
+            } finally {
+                state.layer = null;
+            }
+            layer.outFileName = outFileName;
+            state.layers.push(layer);
+        };
+
+        build._run = function () {
+            return originalRun.apply(build, arguments).then(function (result) {
+                var layers = state.layers || [],
+                    compiled = layers.filter(function (layer) {
+                        return layer.input;
+                    }),
+                    modules = null,
+                    start;
+
+                state.layers = null;
+                if (layers.length === 0) {
+                    return result;
+                }
+
+                if (compiled.length > 0) {
+                    logger.trace('Compiling ' + compiled.length + ' layer(s) as closure modules');
+                    start = Date.now();
+                    try {
+                        modules = compile(compiled);
+                    } catch (e) {
+                        logger.warn(String(e.message || e) + ' Minifying the layers one at a time.');
+                    }
+                    recordTiming('optimize.jsFile', '', '', start);
+                }
+
+                layers.forEach(function (layer) {
+                    if (layer.input && !modules) {
+                        originalJsFile.apply(optimize, layer.args);
+                        return;
+                    }
+                    file.saveUtf8File(layer.outFileName, layer.contents.replace(LAYER_PLACEHOLDER, function () {
+                        return String(modules.getSource(layer.module.name));
+                    }));
+                });
+                return result;
+            });
+        };
+    }
+
+    /**
+     * A partial rebuild, run with --partialRebuild, keeps the previous output
+     * in the build dir, which is already optimized. Its build profile lists
+     * the files the plugin put back from the sources as requirejsPluginRebuild;
+     * only those, and the files r.js copies or writes during the build, are
+     * optimized again.
+     */
+    function installPartialOptimize(lib) {
+        var file = lib.file,
+            build = lib.build,
+            optimize = lib.optimize,
+            originalCreateConfig = build.createConfig,
+            originalCopyFile = file.copyFile,
+            originalCopyDir = file.copyDir,
+            originalSaveFile = file.saveFile,
+            originalJsFile = optimize.jsFile;
+
+        function relative(fileName) {
+            var dir = state.rebuild.dir;
+            fileName = String(fileName).replace(/\\/g, '/');
+            return fileName.indexOf(dir) === 0 ? fileName.substring(dir.length) : null;
+        }
+
+        function written(fileName) {
+            var name = state.rebuild ? relative(fileName) : null;
+            if (name !== null) {
+                state.rebuild.fresh[name] = true;
+            }
+        }
+
+        build.createConfig = function () {
+            var config = originalCreateConfig.apply(build, arguments),
+                fresh = {};
+
+            state.rebuild = null;
+            if (state.options.partialRebuild && config.dir && config.keepBuildDir && config.requirejsPluginRebuild) {
+                config.requirejsPluginRebuild.forEach(function (name) {
+                    fresh[name] = true;
+                });
+                state.rebuild = {
+                    dir: String(config.dir).replace(/\\/g, '/').replace(/\/?$/, '/'),
+                    fresh: fresh
+                };
+            }
+            return config;
+        };
+
+        file.copyFile = function (srcFileName, destFileName) {
+            var copied = originalCopyFile.apply(file, arguments);
+            if (copied) {
+                written(destFileName);
+            }
+            return copied;
+        };
+
+        file.copyDir = function () {
+            var copied = originalCopyDir.apply(file, arguments);
+            if (copied) {
+                copied.forEach(written);
+            }
+            return copied;
+        };
+
+        file.saveFile = function (fileName) {
+            written(fileName);
+            return originalSaveFile.apply(file, arguments);
+        };
+
+        optimize.jsFile = function (fileName) {
+            var name = state.rebuild ? relative(fileName) : null;
+            if (name !== null && !state.rebuild.fresh[name]) {
+                return;
+            }
+            return originalJsFile.apply(optimize, arguments);
+        };
+    }
+
+    /**
+     * Record how long a phase of the build took, when --timings is set.
+     * @param {String} phase the r.js function the time was spent in
+     * @param {String} layer the module of the layer, or '' for none
+     * @param {String} fileName the file, or '' for none
+     * @param {Number} start the time the phase started, from Date.now()
+     */
+    function recordTiming(phase, layer, fileName, start) {
+        var timings = state.timings;
+        if (timings) {
+            fileName = String(fileName).replace(/\\/g, '/');
+            if (timings.dir && fileName.indexOf(timings.dir) === 0) {
+                fileName = fileName.substring(timings.dir.length);
+            }
+            timings.records.push([phase, layer, fileName, Date.now() - start].join('\t'));
+        }
+    }
+
+    /**
+     * Times the phases of a build: copying the sources to the build dir,
+     * optimizing CSS, tracing and flattening each layer, and optimizing each
+     * JavaScript file. Installed after the other hooks, so the times include
+     * the work the hooks do. Files minified in a batch, on several threads
+     * or as closure modules, are recorded as a single batch.
+     */
+    function installTimings(lib) {
+        var file = lib.file,
+            build = lib.build,
+            optimize = lib.optimize,
+            originalCreateConfig = build.createConfig,
+            originalCopyDir = file.copyDir,
+            originalCss = optimize.css,
+            originalTrace = build.traceDependencies,
+            originalFlatten = build.flattenModule,
+            originalJsFile = optimize.jsFile;
+
+        function layerOf(fileName, config) {
+            var index = config && config._buildPathToModuleIndex ?
+                    config._buildPathToModuleIndex[fileName] : undefined;
+            return index === undefined ? '' : config.modules[index].name || '';
+        }
+
+        build.createConfig = function () {
+            var config = originalCreateConfig.apply(build, arguments);
+            if (state.timings) {
+                state.timings.dir = config.dir ?
+                        String(config.dir).replace(/\\/g, '/').replace(/\/?$/, '/') : null;
+            }
+            return config;
+        };
+
+        file.copyDir = function (srcDir, destDir) {
+            var start = Date.now(),
+                copied = originalCopyDir.apply(file, arguments);
+            recordTiming('copyDir', '', '', start);
+            return copied;
+        };
+
+        optimize.css = function () {
+            var start = Date.now(),
+                text = originalCss.apply(optimize, arguments);
+            recordTiming('optimize.css', '', '', start);
+            return text;
+        };
+
+        build.traceDependencies = function (module) {
+            var start = Date.now();
+            return originalTrace.apply(build, arguments).then(function (layer) {
+                recordTiming('build.traceDependencies', module.name || '', '', start);
+                return layer;
+            });
+        };
+
+        build.flattenModule = function (module) {
+            var start = Date.now();
+            return originalFlatten.apply(build, arguments).then(function (built) {
+                recordTiming('build.flattenModule', module.name || '', '', start);
+                return built;
+            });
+        };
+
+        optimize.jsFile = function (fileName, fileContents, outFileName, config) {
+            var start = Date.now(),
+                result = originalJsFile.apply(optimize, arguments);
+            recordTiming('optimize.jsFile', layerOf(fileName, config), fileName, start);
+            return result;
+        };
+    }
+
+    function saveTimings(lib, timings) {
+        try {
+            lib.file.saveUtf8File(timings.path, '# requirejs-maven-plugin timings ' + TIMINGS_VERSION + '\n' +
+                                  timings.records.join('\n') + '\n');
+        } catch (e) {
+            lib.logger.warn('Unable to save the build timings ' + timings.path + ': ' + e);
+        }
+    }
+
+    function fileSize(lib, path) {
+        if (!lib.file.exists(path)) {
+            return null;
+        }
+        if (isNode) {
+            return require('fs').statSync(path).size;
+        }
+        return Number(new java.io.File(String(path)).length());
+    }
+
+    /**
+     * Counts what a build does for the --stats file: the files copied to the
+     * build dir, traced into layers and handed to optimize.jsFile, and the
+     * size of each layer's traced files and of its output.
+     */
+    function installStats(lib) {
+        var file = lib.file,
+            build = lib.build,
+            optimize = lib.optimize,
+            originalCopyDir = file.copyDir,
+            originalCopyFile = file.copyFile,
+            originalTrace = build.traceDependencies,
+            originalJsFile = optimize.jsFile;
+
+        file.copyDir = function () {
+            var report = state.report,
+                copied;
+            if (!report) {
+                return originalCopyDir.apply(file, arguments);
+            }
+            //copyDir copies with copyFile, count its files once.
+            report.copyingDir += 1;
+            try {
+                copied = originalCopyDir.apply(file, arguments);
+            } finally {
+                report.copyingDir -= 1;
+            }
+            report.copied += copied ? copied.length : 0;
+            return copied;
+        };
+
+        file.copyFile = function () {
+            var copied = originalCopyFile.apply(file, arguments);
+            if (state.report && !state.report.copyingDir && copied) {
+                state.report.copied += 1;
+            }
+            return copied;
+        };
+
+        build.traceDependencies = function (module) {
+            return originalTrace.apply(build, arguments).then(function (layer) {
+                var report = state.report,
+                    inputBytes = 0;
+                if (report && module._buildPath) {
+                    layer.buildFilePaths.forEach(function (path) {
+                        report.traced[path] = true;
+                        inputBytes += fileSize(lib, path) || 0;
+                    });
+                    report.layers.push({
+                        module: module,
+                        files: layer.buildFilePaths.length,
+                        inputBytes: inputBytes
+                    });
+                }
+                return layer;
+            });
+        };
+
+        optimize.jsFile = function () {
+            if (state.report) {
+                state.report.minified += 1;
+            }
+            return originalJsFile.apply(optimize, arguments);
+        };
+    }
+
+    function saveStats(lib, report, graph) {
+        var stats = state.stats;
+        try {
+            lib.file.saveUtf8File(report.path, JSON.stringify({
+                copied: report.copied,
+                traced: Object.keys(report.traced).length,
+                minified: report.minified,
+                minifyCache: {hits: stats.hits, misses: stats.misses},
+                graphIndex: graph ? {hits: graph.hits, misses: graph.misses} : null,
+                layers: report.layers.map(function (layer) {
+                    var output = layer.module._buildPath;
+                    return {
+                        name: layer.module.name,
+                        files: layer.files,
+                        inputBytes: layer.inputBytes,
+                        outputBytes: output === 'FUNCTION' ? null : fileSize(lib, output)
+                    };
+                })
+            }));
+        } catch (e) {
+            lib.logger.warn('Unable to save the build stats ' + report.path + ': ' + e);
+        }
+    }
+
+    /**
+     * load() r.js under a JVM engine other than Rhino, such as Nashorn or
+     * GraalJS. r.js takes the Packages global for Rhino and evaluates code
+     * through a Rhino context it enters itself, so while it loads, Packages
+     * only holds such a context, backed by this engine's eval.
+     */
+    function loadUnderJavaEngine(path) {
+        var global = new Function('return this;')(),
+            packages = global.Packages,
+            context = {
+                evaluateString: function (scope, source) {
+                    return (0, eval)(String(source));
+                }
+            };
+
+        global.Packages = {
+            org: {mozilla: {javascript: {ContextFactory: {
+                getGlobal: function () {
+                    return {
+                        enterContext: function () {
+                            return context;
+                        }
+                    };
+                }
+            }}}}
+        };
+        try {
+            load(path);
+        } finally {
+            global.Packages = packages;
+        }
+    }
+
+    /**
+     * Load r.js and install the build hooks, once per path.
+     * @param {String} path path to r.js
+     * @param {Function} callback called with the lib
+     * @param {String} hostServices the r.js internals to replace with the
+     * services of the requirejsPluginHost, which are written against the
+     * built-in r.js: files, closure, css and parse, separated by commas
+     */
+    function loadOptimizer(path, callback, hostServices) {
+        var services = hostServices ? String(hostServices).split(',') : [],
+            key = path + '|' + services.join(','),
+            rjs;
+
+        function uses(service) {
+            return services.indexOf(service) !== -1;
+        }
+
+        if (libs[key]) {
+            callback(libs[key]);
+            return;
+        }
+
+        if (isNode) {
+            rjs = require(require('path').resolve(path));
+        } else {
+            requirejsAsLib = true;
+            if (typeof Java !== 'undefined') {
+                loadUnderJavaEngine(path);
+            } else {
+                load(path);
+            }
+            rjs = requirejs;
+        }
+
+        rjs.tools.useLib('build', function (req) {
+            var lib = {
+                requirejs: rjs,
+                build: req('build'),
+                logger: req('logger'),
+                optimize: req('optimize'),
+                file: req('env!env/file'),
+                envOptimize: req('env!env/optimize'),
+                parse: req('parse'),
+                esprima: req('esprima')
+            };
+            if (uses('files')) {
+                installHostFiles(lib.file);
+            }
+            if (uses('closure')) {
+                installHostClosure(lib);
+            }
+            if (uses('css')) {
+                installHostCss(lib);
+            }
+            if (uses('parse')) {
+                installHostParse(lib);
+            }
+            installGraphIndex(lib);
+            installLinkStaging(lib);
+            installMinifyCache(lib);
+            installParallelMinify(lib);
+            installClosureModules(lib);
+            installPartialOptimize(lib);
+            installStats(lib);
+            installTimings(lib);
+            libs[key] = lib;
+            callback(lib);
+        });
+    }
+
+    function resetBuild(rjs) {
+        if (rjs._buildReset) {
+            rjs._buildReset();
+            rjs._cacheReset();
+        }
+    }
+
+    /**
+     * Run a build.
+     * @param {Array} args path to r.js, hook options, and the r.js arguments
+     * @param {Function} done called with the lib when the build finished,
+     * and with an error if it failed to start
+     */
+    function run(args, done) {
+        var optimizerPath = args[0],
+            options = {},
+            i = 1,
+            hostServices,
+            match;
+
+        for (; i < args.length && (match = /^--([^=]+)=(.*)$/.exec(args[i])); i += 1) {
+            options[match[1]] = match[2];
+        }
+        args = args.slice(i);
+        hostServices = options.hostServices || '';
+
+        if (options.minifyWorker) {
+            loadOptimizer(optimizerPath, function (lib) {
+                state.options = options;
+                state.stats = {
+                    hits: 0,
+                    misses: 0
+                };
+                runMinifyWorker(lib);
+                done(lib);
+            }, hostServices);
+            return;
+        }
+
+        if (args[0] !== '-o') {
+            done(null, new Error('Unsupported r.js command: ' + args.join(' ')));
+            return;
+        }
+
+        loadOptimizer(optimizerPath, function (lib) {
+            function finish(error) {
+                var stats = state.stats,
+                    graph = state.graph,
+                    timings = state.timings,
+                    report = state.report;
+                state.graph = null;
+                state.timings = null;
+                state.report = null;
+                resetBuild(lib.requirejs);
+                if (options.minifyCache && stats.hits + stats.misses > 0) {
+                    lib.logger.info('Minification cache: ' + stats.hits + ' hit(s), ' +
+                                    stats.misses + ' miss(es)');
+                }
+                if (graph && !error) {
+                    saveGraphIndex(lib, graph);
+                    if (graph.hits + graph.misses > 0) {
+                        lib.logger.info('Module graph index: ' + graph.hits + ' of ' +
+                                        (graph.hits + graph.misses) + ' module(s) reused');
+                    }
+                }
+                if (report && !error) {
+                    saveStats(lib, report, graph);
+                }
+                if (timings && !error) {
+                    timings.records.push(['build', '', '', Date.now() - timings.start].join('\t'));
+                    saveTimings(lib, timings);
+                }
+                done(lib, error);
+            }
+
+            state.options = options;
+            state.optimizerPath = optimizerPath;
+            state.stats = {
+                hits: 0,
+                misses: 0
+            };
+            state.linking = false;
+            state.rebuild = null;
+            state.threads = parseInt(options.minifyThreads, 10) || 1;
+            state.jobs = state.threads > 1 ? [] : null;
+            state.layers = options.closureModules === 'true' ? [] : null;
+            state.profile = args[1];
+            state.graph = options.graphIndex ? loadGraphIndex(lib, options.graphIndex) : null;
+            state.timings = options.timings ? {path: options.timings, dir: null, records: [], start: Date.now()} : null;
+            state.report = options.stats ? {path: options.stats, copyingDir: 0, copied: 0, traced: {}, minified: 0,
+                                            layers: []} : null;
+            resetBuild(lib.requirejs);
+            //Start every build with the same logging as a fresh "r.js -o" run.
+            lib.logger.logLevel(lib.logger.TRACE);
+
+            try {
+                lib.build(args.slice(1)).then(function () {
+                    finish();
+                }, finish);
+            } catch (e) {
+                finish(e);
+            }
+        }, hostServices);
+    }
+
+    return {
+        run: run,
+        loadOptimizer: loadOptimizer
+    };
+}());
+
+if (typeof module !== 'undefined' && typeof require !== 'undefined' && require.main !== module) {
+    module.exports = requirejsPlugin;
+} else if (!requirejsPluginAsLib) {
+    requirejsPlugin.run(typeof process !== 'undefined' && process.argv ? process.argv.slice(2) : arguments,
+        function (lib, error) {
+            if (error) {
+                if (typeof quit === 'function') {
+                    print(String(error));
+                    quit(1);
+                } else {
+                    console.log(String(error));
+                    process.exit(1);
+                }
+            }
+        });
+}
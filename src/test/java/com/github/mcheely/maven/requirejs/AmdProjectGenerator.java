@@ -0,0 +1,174 @@
+package com.github.mcheely.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Generates AMD projects of any size for scaling tests. The modules form
+ * one dependency tree per layer, where every module depends on up to
+ * fan-out modules of its own tree and on one random module further down,
+ * so layers share modules. The same settings and seed always generate the
+ * same files.
+ */
+public class AmdProjectGenerator {
+
+    private int modules = 100;
+    private int fanOut = 4;
+    private int fileSize = 2048;
+    private int layers = 1;
+    private String optimize = "uglify";
+    private long seed = 1;
+
+    /**
+     * @param modules the number of modules, at least the number of layers
+     * @return this generator
+     */
+    public AmdProjectGenerator setModules(int modules) {
+        this.modules = modules;
+        return this;
+    }
+
+    /**
+     * @param fanOut the number of modules of its tree every module depends on, at least 1
+     * @return this generator
+     */
+    public AmdProjectGenerator setFanOut(int fanOut) {
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    /**
+     * @param fileSize the approximate size of every module, in bytes
+     * @return this generator
+     */
+    public AmdProjectGenerator setFileSize(int fileSize) {
+        this.fileSize = fileSize;
+        return this;
+    }
+
+    /**
+     * @param layers the number of layers the build profile builds, at least 1
+     * @return this generator
+     */
+    public AmdProjectGenerator setLayers(int layers) {
+        this.layers = layers;
+        return this;
+    }
+
+    /**
+     * @param optimize the optimize option of the build profile
+     * @return this generator
+     */
+    public AmdProjectGenerator setOptimize(String optimize) {
+        this.optimize = optimize;
+        return this;
+    }
+
+    /**
+     * @param seed the seed of the random dependencies and code
+     * @return this generator
+     */
+    public AmdProjectGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Generate a project, with its sources in dir/src and a build profile
+     * that builds it to dir/output.
+     * @param dir the directory to generate the project in, which is emptied first
+     * @return the build profile
+     * @throws IOException if the project cannot be written
+     */
+    public File generate(File dir) throws IOException {
+        if (layers < 1 || fanOut < 1 || modules < layers) {
+            throw new IllegalArgumentException("Cannot generate " + modules + " modules in " + layers
+                    + " layers with a fan-out of " + fanOut);
+        }
+        FileUtils.deleteDirectory(dir);
+        File sourceDir = new File(dir, "src");
+        Random random = new Random(seed);
+        for (int i = 0; i < modules; i++) {
+            write(new File(sourceDir, "js/" + getModuleName(i) + ".js"), getModuleSource(i, random));
+        }
+
+        StringBuilder profile = new StringBuilder();
+        profile.append("({\n    appDir: './',\n    baseUrl: './js',\n    dir: '../output',\n");
+        profile.append("    optimize: '").append(optimize).append("',\n    modules: [\n");
+        for (int i = 0; i < layers; i++) {
+            profile.append("        {name: '").append(getModuleName(i)).append(i < layers - 1 ? "'},\n" : "'}\n");
+        }
+        profile.append("    ]\n})\n");
+        File profileFile = new File(sourceDir, "buildconfig.js");
+        write(profileFile, profile.toString());
+        return profileFile;
+    }
+
+    /**
+     * @param index the index of a module
+     * @return the module's name, whose layer modules are the first ones
+     */
+    public static String getModuleName(int index) {
+        return "m/" + String.format("%05d", index);
+    }
+
+    /**
+     * @param index the index of a module
+     * @return the indexes of the modules it depends on
+     */
+    public List<Integer> getDependencies(int index) {
+        return getDependencies(index, new Random(seed + index));
+    }
+
+    private List<Integer> getDependencies(int index, Random random) {
+        // Modules 0 to layers - 1 are the roots, and the parent of any other
+        // module i is (i - layers) / fanOut, so every module is in a tree.
+        List<Integer> dependencies = new ArrayList<Integer>();
+        for (int child = index * fanOut + layers; child < Math.min(modules, (index + 1) * fanOut + layers); child++) {
+            dependencies.add(child);
+        }
+        if (index + 1 < modules) {
+            Integer shared = index + 1 + random.nextInt(modules - index - 1);
+            if (!dependencies.contains(shared)) {
+                dependencies.add(shared);
+            }
+        }
+        return dependencies;
+    }
+
+    private String getModuleSource(int index, Random random) {
+        List<Integer> dependencies = getDependencies(index, new Random(seed + index));
+        StringBuilder names = new StringBuilder();
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < dependencies.size(); i++) {
+            String separator = i == 0 ? "" : ", ";
+            names.append(separator).append('\'').append(getModuleName(dependencies.get(i))).append('\'');
+            params.append(separator).append("dependency").append(i);
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("define([").append(names).append("], function (").append(params).append(") {\n");
+        source.append("    // Generated module ").append(index).append(".\n");
+        source.append("    function computeValue").append(index).append("(inputValue) {\n");
+        source.append("        var accumulatedValue = inputValue;\n");
+        while (source.length() < fileSize) {
+            source.append("        accumulatedValue = (accumulatedValue * ").append(random.nextInt(1000))
+                    .append(" + ").append(random.nextInt(1000)).append(") % ").append(1 + random.nextInt(100000))
+                    .append("; // step ").append(random.nextInt(100)).append('\n');
+        }
+        source.append("        return accumulatedValue;\n    }\n");
+        source.append("    return {id: ").append(index).append(", compute: computeValue").append(index)
+                .append(", dependencies: [").append(params).append("]};\n});\n");
+        return source.toString();
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getPath(), "UTF-8", contents);
+    }
+}
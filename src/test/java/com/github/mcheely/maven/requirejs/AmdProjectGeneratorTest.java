@@ -0,0 +1,82 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing AmdProjectGenerator
+ */
+public class AmdProjectGeneratorTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/amd-project-generator-test").getCanonicalFile();
+    }
+
+    @Test
+    public void testProjectsAreReproducible() throws Exception {
+        AmdProjectGenerator generator = new AmdProjectGenerator().setModules(50).setLayers(2).setFileSize(512);
+        File profile = generator.generate(new File(dir, "a"));
+        String module = FileUtils.fileRead(new File(profile.getParentFile(), "js/m/00017.js"), "UTF-8");
+        generator.generate(new File(dir, "b"));
+
+        assertEquals(module, FileUtils.fileRead(new File(dir, "b/src/js/m/00017.js"), "UTF-8"));
+        assertEquals(FileUtils.fileRead(profile, "UTF-8"), FileUtils.fileRead(new File(dir, "b/src/buildconfig.js"), "UTF-8"));
+        assertEquals(50, FileUtils.getFiles(new File(profile.getParentFile(), "js"), "**/*.js", null).size());
+        assertTrue(module.length() >= 512);
+
+        generator.setSeed(2).generate(new File(dir, "c"));
+        assertFalse(module.equals(FileUtils.fileRead(new File(dir, "c/src/js/m/00017.js"), "UTF-8")));
+    }
+
+    @Test
+    public void testEveryModuleIsInALayer() {
+        AmdProjectGenerator generator = new AmdProjectGenerator().setModules(200).setFanOut(3).setLayers(4);
+        Set<Integer> reached = new HashSet<Integer>();
+        for (int layer = 0; layer < 4; layer++) {
+            reach(generator, layer, reached);
+        }
+        assertEquals(200, reached.size());
+
+        List<Integer> dependencies = generator.getDependencies(0);
+        assertEquals(Arrays.asList(4, 5, 6), dependencies.subList(0, 3));
+        for (int i = 0; i < 200; i++) {
+            for (int dependency : generator.getDependencies(i)) {
+                assertTrue(dependency > i);
+            }
+        }
+    }
+
+    @Test
+    public void testProjectBuilds() throws Exception {
+        File profile = new AmdProjectGenerator().setModules(100).setLayers(2).setOptimize("none")
+                .generate(new File(dir, "build"));
+        new Optimizer().optimize(profile, new MojoErrorReporter(new SystemStreamLog(), true), new RhinoRunner());
+
+        String layer = FileUtils.fileRead(new File(dir, "build/output/js/m/00001.js"), "UTF-8");
+        assertTrue(layer.contains("define('m/00001',"));
+        assertTrue(layer.contains("define('m/00006',"));
+    }
+
+    private static void reach(AmdProjectGenerator generator, int index, Set<Integer> reached) {
+        if (reached.add(index)) {
+            for (int dependency : generator.getDependencies(index)) {
+                reach(generator, dependency, reached);
+            }
+        }
+    }
+}
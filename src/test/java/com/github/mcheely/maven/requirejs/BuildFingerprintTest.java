@@ -0,0 +1,78 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing BuildFingerprint
+ */
+public class BuildFingerprintTest {
+
+    private static final Map<String, String> OPTIONS = Collections.singletonMap("minifyThreads", "1");
+
+    private File projectDir;
+
+    private BuildProfile profile;
+
+    @Before
+    public void setUp() throws Exception {
+        projectDir = new File("target/fingerprint-test/testcase1").getCanonicalFile();
+        FileUtils.deleteDirectory(projectDir);
+        FileUtils.copyDirectoryStructure(new File(getClass().getClassLoader().getResource("testcase1").toURI()), projectDir);
+        profile = BuildProfile.load(new File(projectDir, "buildconfig1.js"));
+    }
+
+    @Test
+    public void testProfilePathsAreResolved() throws Exception {
+        assertEquals(projectDir, profile.getAppDir());
+        assertEquals(new File(projectDir, "js"), profile.getBaseUrl());
+        assertEquals(new File(projectDir.getParentFile(), "output/1"), profile.getDir());
+        assertEquals(Arrays.asList("main"), profile.getModuleNames());
+        assertEquals("closure", profile.getString("optimize"));
+    }
+
+    @Test
+    public void testUnchangedInputsAreUpToDate() throws Exception {
+        BuildFingerprint first = BuildFingerprint.compute(profile, "r.js", OPTIONS, null);
+        BuildFingerprint second = BuildFingerprint.compute(profile, "r.js", OPTIONS, first);
+        assertTrue(second.isUpToDate(first));
+
+        // Touching a file without changing it keeps the build up to date.
+        new File(projectDir, "js/main.js").setLastModified(System.currentTimeMillis() + 5000);
+        assertTrue(BuildFingerprint.compute(profile, "r.js", OPTIONS, first).isUpToDate(first));
+    }
+
+    @Test
+    public void testChangedInputsAreNotUpToDate() throws Exception {
+        BuildFingerprint first = BuildFingerprint.compute(profile, "r.js", OPTIONS, null);
+
+        assertFalse(BuildFingerprint.compute(profile, "other r.js", OPTIONS, first).isUpToDate(first));
+
+        BuildFingerprint options = BuildFingerprint.compute(profile, "r.js",
+                Collections.singletonMap("minifyThreads", "4"), first);
+        assertFalse(options.isUpToDate(first));
+        assertNull(options.getChangedFiles(first));
+
+        FileUtils.fileAppend(new File(projectDir, "js/jquery.alpha.js").getPath(), "\n");
+        assertFalse(BuildFingerprint.compute(profile, "r.js", OPTIONS, first).isUpToDate(first));
+    }
+
+    @Test
+    public void testSavedFingerprintRoundTrips() throws Exception {
+        File manifest = new File(projectDir.getParentFile(), "build.manifest");
+        BuildFingerprint first = BuildFingerprint.compute(profile, "r.js", OPTIONS, null);
+        first.save(manifest);
+        assertTrue(first.isUpToDate(BuildFingerprint.load(manifest)));
+    }
+}
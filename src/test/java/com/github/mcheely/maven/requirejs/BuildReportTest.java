@@ -0,0 +1,117 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Testing BuildReport and the stats the optimizer bootstrap writes
+ */
+public class BuildReportTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/build-report-test").getCanonicalFile();
+        FileUtils.deleteDirectory(dir);
+        FileUtils.copyDirectoryStructure(new File(getClass().getClassLoader().getResource("testcase2").toURI()),
+                new File(dir, "testcase2"));
+    }
+
+    @Test
+    public void testRhinoReport() throws Exception {
+        assertReport("rhino", new RhinoRunner());
+    }
+
+    @Test
+    public void testNodeReport() throws Exception {
+        String nodeCmd = NodeJsRunner.detectNodeCommand();
+        assumeTrue(nodeCmd != null); //skip if no node command detected.
+        assertReport("node", new NodeJsRunner(nodeCmd));
+    }
+
+    @Test
+    public void testOutputStats() throws Exception {
+        String nodeCmd = NodeJsRunner.detectNodeCommand();
+        assumeTrue(nodeCmd != null); //skip if no node command detected.
+        File buildProfile = new File(dir, "testcase2/buildconfig2.js");
+        new Optimizer().optimize(buildProfile, new MojoErrorReporter(new SystemStreamLog(), true),
+                new NodeJsRunner(nodeCmd));
+
+        BuildReport.Profile profile = new BuildReport("node").addProfile(buildProfile, new NodeJsRunner(nodeCmd));
+        profile.readStats(new File(dir, "stats"));
+        assertTrue(!profile.hasStats());
+        profile.readOutputStats(BuildProfile.load(buildProfile));
+
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            scope.put("profile", scope, cx.evaluateString(scope, "(" + profile.toJson() + ")", "profile", 1, null));
+
+            assertEquals("7", eval(cx, scope, "profile.stats.traced"));
+            assertEquals("null", eval(cx, scope, "profile.stats.minified"));
+            assertEquals("main", eval(cx, scope, "profile.stats.layers[0].name"));
+            assertEquals("7", eval(cx, scope, "profile.stats.layers[0].files"));
+            assertEquals("true", eval(cx, scope, "profile.stats.layers[0].inputBytes > "
+                    + "profile.stats.layers[0].outputBytes"));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private void assertReport(String engine, Runner runner) throws Exception {
+        File statsFile = new File(dir, "stats");
+        File reportFile = new File(dir, "report/requirejs-report.json");
+        MojoErrorReporter reporter = new MojoErrorReporter(new SystemStreamLog(), true);
+        Optimizer optimizer = new Optimizer();
+        optimizer.setStatsFile(statsFile);
+        optimizer.setMinifyCacheDirectory(new File(dir, "minify-cache"));
+
+        BuildReport report = new BuildReport(engine);
+        for (int i = 0; i < 2; i++) {
+            BuildReport.Profile profile = report.addProfile(new File(dir, "testcase2/buildconfig2.js"), runner);
+            optimizer.optimize(new File(dir, "testcase2/buildconfig2.js"), reporter, runner);
+            profile.setReporter(reporter);
+            profile.readStats(statsFile);
+            profile.finish("optimized", null);
+        }
+        report.addProfile(new File(dir, "missing.js"), runner).finish("failed", "r.js exited with an error.");
+        report.save(reportFile);
+
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            String json = FileUtils.fileRead(reportFile, "UTF-8");
+            scope.put("report", scope, cx.evaluateString(scope, "(" + json + ")", "report", 1, null));
+
+            assertEquals(engine, eval(cx, scope, "report.engine"));
+            assertEquals(runner.getClass().getSimpleName(), eval(cx, scope, "report.profiles[0].runner"));
+            assertEquals("optimized", eval(cx, scope, "report.profiles[0].status"));
+            assertEquals("7", eval(cx, scope, "report.profiles[0].stats.traced"));
+            assertEquals("6", eval(cx, scope, "report.profiles[0].stats.minified"));
+            assertEquals("main", eval(cx, scope, "report.profiles[0].stats.layers[0].name"));
+            assertEquals("true", eval(cx, scope, "report.profiles[0].stats.layers[0].inputBytes > "
+                    + "report.profiles[0].stats.layers[0].outputBytes"));
+            assertEquals("6", eval(cx, scope, "report.profiles[1].stats.minifyCache.hits"));
+            assertEquals("failed", eval(cx, scope, "report.profiles[2].status"));
+            assertEquals("null", eval(cx, scope, "report.profiles[2].stats"));
+            assertTrue(Integer.parseInt(eval(cx, scope, "report.profiles[0].stats.copied")) > 0);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static String eval(Context cx, Scriptable scope, String expression) {
+        return Context.toString(cx.evaluateString(scope, expression, "test", 1, null));
+    }
+}
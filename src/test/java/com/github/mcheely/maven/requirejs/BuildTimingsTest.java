@@ -0,0 +1,94 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing BuildTimings and the timings the optimizer bootstrap records
+ */
+public class BuildTimingsTest {
+
+    private static final String TIMINGS = "# requirejs-maven-plugin timings 1\n"
+            + "copyDir\t\t\t12\n"
+            + "build.traceDependencies\tmain\t\t300\n"
+            + "build.traceDependencies\tadmin\t\t100\n"
+            + "optimize.jsFile\tmain\tjs/main.js\t250\n"
+            + "optimize.jsFile\t\tjs/lib/jquery.js\t400\n"
+            + "optimize.jsFile\t\tjs/util.js\t5\n"
+            + "build\t\t\t1200\n";
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/build-timings-test").getCanonicalFile();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSummary() {
+        BuildTimings timings = BuildTimings.parse(TIMINGS);
+        assertNotNull(timings);
+        assertEquals(1200, timings.getTotal());
+        assertEquals(Long.valueOf(655), timings.getPhases().get("optimize.jsFile"));
+        assertEquals(Long.valueOf(250), timings.getLayers().get("main").get("optimize.jsFile"));
+
+        assertEquals(Arrays.asList("Build time: 1200 ms",
+                "  copyDir: 12 ms",
+                "  build.traceDependencies: 400 ms",
+                "  optimize.jsFile: 655 ms",
+                "  other: 133 ms",
+                "Layer main: build.traceDependencies 300 ms, optimize.jsFile 250 ms",
+                "Layer admin: build.traceDependencies 100 ms",
+                "Slowest files:",
+                "  js/lib/jquery.js: 400 ms (optimize.jsFile)",
+                "  js/main.js: 250 ms (optimize.jsFile)"), timings.summarize(2));
+
+        assertNull(BuildTimings.parse("copyDir\t\t\t12\n"));
+        assertNull(BuildTimings.parse("# requirejs-maven-plugin timings 1\ncopyDir\t12\n"));
+    }
+
+    @Test
+    public void testRhinoBuildRecordsTimings() throws Exception {
+        assertBuildRecordsTimings(new RhinoRunner());
+    }
+
+    @Test
+    public void testNodeBuildRecordsTimings() throws Exception {
+        String nodeCmd = NodeJsRunner.detectNodeCommand();
+        assumeTrue(nodeCmd != null); //skip if no node command detected.
+        assertBuildRecordsTimings(new NodeJsRunner(nodeCmd));
+    }
+
+    private void assertBuildRecordsTimings(Runner runner) throws Exception {
+        File projectDir = new File(dir, "testcase2");
+        FileUtils.copyDirectoryStructure(new File(getClass().getClassLoader().getResource("testcase2").toURI()), projectDir);
+        File timingsFile = new File(dir, "timings");
+        Optimizer optimizer = new Optimizer();
+        optimizer.setTimingsFile(timingsFile);
+        optimizer.optimize(new File(projectDir, "buildconfig2.js"), new MojoErrorReporter(new SystemStreamLog(), true), runner);
+
+        BuildTimings timings = BuildTimings.read(timingsFile);
+        assertNotNull(timings);
+        assertTrue(timings.getTotal() > 0);
+        assertTrue(timings.getPhases().keySet().containsAll(Arrays.asList("copyDir", "build.traceDependencies",
+                "build.flattenModule", "optimize.jsFile")));
+        assertTrue(timings.getLayers().get("main").containsKey("build.flattenModule"));
+
+        List<BuildTimings.Timing> files = timings.getSlowestFiles(100);
+        assertEquals("js/main.js", files.get(0).getFile());
+        assertEquals("main", files.get(0).getLayer());
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSSourceFile;
+
+/**
+ * Testing ClosureHost
+ */
+public class ClosureHostTest {
+
+    private static final String SCRIPT = "define('a', [], function () {\n"
+            + "    var message = 'hello' + ' ' + 'world';\n"
+            + "    return { message: message };\n"
+            + "});\n";
+
+    private final ClosureHost closure = new ClosureHost();
+
+    @Test
+    public void testCompileMatchesCompilerOptions() throws Exception {
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put("languageIn", "ECMASCRIPT5");
+        options.put("prettyPrint", Boolean.FALSE);
+
+        for (int i = 0; i < 2; i++) {
+            ClosureHost.Output output = closure.compile("a.js", SCRIPT, "out/a.js", false, options,
+                    "SIMPLE_OPTIMIZATIONS", "WARNING", false);
+            assertEquals(compile(false), output.getSource());
+            assertNull(output.getSourceMap());
+        }
+        assertEquals(compile(true), closure.compile("a.js", SCRIPT, null, true, options,
+                "SIMPLE_OPTIMIZATIONS", "WARNING", false).getSource());
+    }
+
+    @Test
+    public void testSourceMap() throws Exception {
+        ClosureHost.Output output = closure.compile("src/a.js", SCRIPT, "out/a.js", false,
+                Collections.emptyMap(), "WHITESPACE_ONLY", "WARNING", true);
+        assertTrue(output.getSourceMap().contains("\"file\":\"out/a.js\""));
+        assertTrue(output.getSourceMap().contains("\"sources\":[\"a.js.src\"]"));
+    }
+
+    @Test
+    public void testCompileError() throws Exception {
+        assertNull(closure.compile("broken.js", "var = ;", null, false, Collections.emptyMap(),
+                "SIMPLE_OPTIMIZATIONS", "OFF", false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownOption() throws Exception {
+        closure.compile("a.js", SCRIPT, null, false, Collections.singletonMap("noSuchOption", Boolean.TRUE),
+                "SIMPLE_OPTIMIZATIONS", "WARNING", false);
+    }
+
+    private static String compile(boolean keepLines) {
+        CompilerOptions options = new CompilerOptions();
+        options.setLanguageIn(CompilerOptions.LanguageMode.ECMASCRIPT5);
+        options.prettyPrint = keepLines;
+        CompilationLevel.SIMPLE_OPTIMIZATIONS.setOptionsForCompilationLevel(options);
+        Compiler compiler = new Compiler();
+        compiler.compile(JSSourceFile.fromCode("fakeextern.js", " "), JSSourceFile.fromCode("a.js", SCRIPT), options);
+        return compiler.toSource();
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Testing ClosureModules
+ */
+public class ClosureModulesTest {
+
+    private static final String COMMON = "define('common', [], function () {\n"
+            + "    function greet(name) { return 'hello ' + name; }\n"
+            + "    function unused() { return 'unused'; }\n"
+            + "    return { greet: greet, unused: unused };\n"
+            + "});\n";
+
+    private static final String ADMIN = "define('admin', ['common'], function (common) {\n"
+            + "    return { message: common.greet('admin') };\n"
+            + "});\n";
+
+    private static final String PUBLIC = "define('public', ['common'], function (common) {\n"
+            + "    return { message: common.greet('public') };\n"
+            + "});\n";
+
+    private static final String LOADER = "var modules = {};\n"
+            + "function define(name, deps, factory) {\n"
+            + "    modules[name] = factory.apply(null, deps.map(function (dep) { return modules[dep]; }));\n"
+            + "}\n";
+
+    @Test
+    public void testLayersCompileAsModules() throws Exception {
+        ClosureModules modules = new ClosureModules(new ClosureHost());
+        modules.add("common", "js/common.js", COMMON);
+        modules.add("admin", "js/admin.js", ADMIN);
+        modules.add("public", "js/public.js", PUBLIC);
+        modules.addDependency("admin", "common");
+        modules.addDependency("public", "common");
+
+        assertTrue(modules.compile(false, Collections.emptyMap(), "ADVANCED_OPTIMIZATIONS", "WARNING"));
+
+        assertEquals("hello admin", run(modules.getSource("common"), modules.getSource("admin"), "modules.admin.message"));
+        assertEquals("hello public", run(modules.getSource("common"), modules.getSource("public"), "modules.public.message"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLayersExcludingEachOther() throws Exception {
+        ClosureModules modules = new ClosureModules(new ClosureHost());
+        modules.add("a", "a.js", "var a = 1;");
+        modules.add("b", "b.js", "var b = 1;");
+        modules.addDependency("a", "b");
+        modules.addDependency("b", "a");
+        modules.compile(false, Collections.emptyMap(), "SIMPLE_OPTIMIZATIONS", "OFF");
+    }
+
+    private static String run(String... scripts) {
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            cx.evaluateString(scope, LOADER, "loader.js", 1, null);
+            for (int i = 0; i < scripts.length - 1; i++) {
+                cx.evaluateString(scope, scripts[i], "layer" + i + ".js", 1, null);
+            }
+            return Context.toString(cx.evaluateString(scope, scripts[scripts.length - 1], "check.js", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+}
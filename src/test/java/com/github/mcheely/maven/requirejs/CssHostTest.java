@@ -0,0 +1,120 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing CssHost
+ */
+public class CssHostTest {
+
+    private File dir;
+
+    private final CssHost css = new CssHost(new FileHost());
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/css-host-test").getCanonicalFile();
+        FileUtils.deleteDirectory(dir);
+        new File(dir, "css/lib").mkdirs();
+    }
+
+    @Test
+    public void testInlinesImports() throws Exception {
+        write("css/main.css", "/* main */\n@import url(\"lib/base.css\");\n@import 'lib/base.css';\n"
+                + "/* @import \"gone.css\"; */\n.main {\n  color: red;\n}\n");
+        write("css/lib/base.css", "@import \"reset.css\";\n.base { background: url('img/a.png'); }\n"
+                + ".up { background: url(../up.png) }\n.abs { background: url(http://x/b.png) }\n");
+        write("css/lib/reset.css", "/* Copyright someone */\n* {\n  margin: 0;\n}\n");
+
+        CssHost.Result[] results = optimize("standard", null, false, "css/main.css", "css/lib/base.css");
+
+        assertEquals("* {margin: 0;}.base {background: url('img/a.png');}"
+                + ".up {background: url(../up.png)}.abs {background: url(http://x/b.png)}",
+                read("css/lib/base.css"));
+        assertEquals("* {margin: 0;}.base {background: url(lib/img/a.png);}"
+                + ".up {background: url(up.png)}.abs {background: url(http://x/b.png)}.main {color: red;}",
+                read("css/main.css"));
+        assertArrayEquals(new String[] {path("css/lib/reset.css"), path("css/lib/base.css")},
+                results[0].getImports());
+        assertArrayEquals(new String[] {
+            "trace:" + path("css/lib/base.css").substring(path("css/").length())
+                    + "\n  URL not a relative URL, skipping: http://x/b.png"}, results[0].getLog());
+    }
+
+    @Test
+    public void testInlinesFilesOptimizedBefore() throws Exception {
+        write("css/a.css", "@import url(b.css);\n@import url(c.css);\n");
+        write("css/b.css", "@import url(c.css);\n.b {}\n");
+        write("css/c.css", ".c {}\n");
+
+        CssHost.Result[] results = optimize("standard", null, false, "css/b.css", "css/a.css", "css/c.css");
+
+        // Like r.js, a.css finds b.css optimized, with c.css already inlined.
+        assertEquals(".c {}.b {}.c {}", read("css/a.css"));
+        assertArrayEquals(new String[] {path("css/b.css"), path("css/c.css")}, results[1].getImports());
+    }
+
+    @Test
+    public void testKeepsLicenseCommentsAndLines() throws Exception {
+        write("css/a.css", "/* (c) someone */\n\n\n.a {\n  color: red; /* red */\n}\r\n\r\n");
+
+        optimize("standard.keepLines", null, true, "css/a.css");
+
+        assertEquals("/* (c) someone */\n.a {\n  color: red; \n}\n", read("css/a.css"));
+    }
+
+    @Test
+    public void testSkipsMediaQueriesAndIgnoredImports() throws Exception {
+        write("css/a.css", "@import url(b.css) screen;\n.a {}\n");
+        write("css/b.css", ".b {}\n");
+        write("css/c.css", "@import url(b.css);\n@import url(missing.css);\n");
+
+        CssHost.Result[] results = optimize("standard", "b.css", false, "css/a.css", "css/c.css");
+
+        assertEquals("@import url(b.css) screen;.a {}", read("css/a.css"));
+        assertEquals("warn:Cannot inline @imports for " + path("css/a.css")
+                + ",\nthe following files had media queries in them:\n" + path("css/a.css"), results[0].getLog()[0]);
+        assertEquals("@import url(b.css);@import url(missing.css);", read("css/c.css"));
+        assertEquals("warn:" + path("css/c.css") + "\n  Cannot inline css import, skipping: missing.css",
+                results[1].getLog()[0]);
+    }
+
+    @Test
+    public void testImproperComment() throws Exception {
+        write("css/a.css", ".a {}\n/* open");
+
+        CssHost.Result[] results = optimize("standard", null, false, "css/a.css");
+
+        assertEquals(".a {}\n/* open\n", read("css/a.css"));
+        assertEquals("error:Could not optimized CSS file: " + path("css/a.css")
+                + ", error: Improper comment in CSS file: " + path("css/a.css"), results[0].getLog()[0]);
+    }
+
+    private CssHost.Result[] optimize(String optimizeCss, String cssImportIgnore, boolean preserveLicenseComments,
+            String... names) throws Exception {
+        StringBuilder fileNames = new StringBuilder();
+        for (String name : names) {
+            fileNames.append(fileNames.length() > 0 ? "\u0000" : "").append(path(name));
+        }
+        return css.optimize(fileNames.toString(), optimizeCss, cssImportIgnore, "", preserveLicenseComments, 2);
+    }
+
+    private String path(String name) {
+        return dir.getPath().replace('\\', '/') + "/" + name;
+    }
+
+    private void write(String name, String contents) throws Exception {
+        FileUtils.fileWrite(new File(dir, name).getPath(), "UTF-8", contents);
+    }
+
+    private String read(String name) throws Exception {
+        return FileUtils.fileRead(new File(dir, name), "UTF-8");
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing FileHost
+ */
+public class FileHostTest {
+
+    private File dir;
+
+    private FileHost files;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/file-host-test").getCanonicalFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        files = new FileHost();
+    }
+
+    @Test
+    public void testReadFileMatchesRhinoFileModule() throws Exception {
+        String[] samples = {"", "a", "a\n", "a\r\nb\r\n", "a\rb", "a\n\n", "\n", "\uFEFF", "\uFEFFa\nb", "\u00e9t\u00e9\r\n\r\nx"};
+        File file = new File(dir, "sample.js");
+        for (String sample : samples) {
+            FileUtils.fileWrite(file.getPath(), "UTF-8", sample);
+            assertEquals(readLikeRhinoFileModule(file), files.readFile(file.getPath(), "utf-8"));
+            assertEquals(sample, files.read(file.getPath(), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testListAndCopy() throws Exception {
+        File source = new File(dir, "src/a.js");
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite(source.getPath(), "UTF-8", "a");
+        new File(dir, "src/lib").mkdirs();
+
+        String[] entries = files.list(new File(dir, "src").getPath()).split("\u0000");
+        assertEquals(new HashSet<String>(Arrays.asList("f" + source.getPath(), "d" + new File(dir, "src/lib").getPath())),
+                new HashSet<String>(Arrays.asList(entries)));
+        assertEquals("", files.list(new File(dir, "missing").getPath()));
+
+        File target = new File(dir, "out/nested/a.js");
+        assertTrue(files.copyFile(source.getPath(), target.getPath(), true));
+        assertFalse(files.copyFile(source.getPath(), target.getPath(), true));
+        assertEquals("a", FileUtils.fileRead(target, "UTF-8"));
+
+        files.deleteFile(new File(dir, "out").getPath());
+        assertFalse(files.exists(new File(dir, "out").getPath()));
+    }
+
+    /**
+     * The readFile of r.js's rhino/file module.
+     */
+    private static String readLikeRhinoFileModule(File file) throws Exception {
+        BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
+        try {
+            StringBuilder text = new StringBuilder();
+            String line = input.readLine();
+            if (line != null && line.length() > 0 && line.charAt(0) == '\uFEFF') {
+                line = line.substring(1);
+            }
+            while (line != null) {
+                text.append(line).append(System.getProperty("line.separator"));
+                line = input.readLine();
+            }
+            return text.toString();
+        } finally {
+            IOUtil.close(input);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.ErrorReporter;
+
+/**
+ * Testing LayerIndex and LayerRebuild
+ */
+public class LayerRebuildTest {
+
+    private static final String BUILD_TEXT = "\ncss/main.css\n----------------\ncss/base.css\n\n"
+            + "\njs/main.js\n----------------\njs/jquery.js\njs/main.js\n"
+            + "\njs/admin.js\n----------------\njs/admin.js\n";
+
+    private File projectDir;
+
+    private File outputDir;
+
+    private ErrorReporter reporter;
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = new File("target/layer-rebuild-test").getCanonicalFile();
+        FileUtils.deleteDirectory(testDir);
+        projectDir = new File(testDir, "testcase1");
+        outputDir = new File(testDir, "output");
+        FileUtils.copyDirectoryStructure(new File(getClass().getClassLoader().getResource("testcase1").toURI()), projectDir);
+        reporter = new MojoErrorReporter(new SystemStreamLog(), true);
+    }
+
+    @Test
+    public void testBuildTextRoundTrips() throws Exception {
+        LayerIndex index = LayerIndex.parse(BUILD_TEXT, Arrays.asList("main", "admin"));
+        assertNotNull(index);
+        assertEquals(Arrays.asList("js/jquery.js", "js/main.js"), index.getLayers().get("main").getFiles());
+        assertEquals("js/admin.js", index.getLayers().get("admin").getOutput());
+        assertEquals(BUILD_TEXT, index.toBuildText());
+
+        assertEquals(Collections.singleton("main"), index.getLayersIncluding(Arrays.asList("js/jquery.js")));
+        assertNull(LayerIndex.parse(BUILD_TEXT, Arrays.asList("main")));
+    }
+
+    @Test
+    public void testOnlyAffectedLayersAreRebuilt() throws Exception {
+        File profileFile = new File(projectDir, "layers.js");
+        FileUtils.fileWrite(profileFile.getPath(), "UTF-8", "({appDir: './', baseUrl: './js', dir: '../output',"
+                + " optimize: 'none', modules: [{name: 'main'}, {name: 'other'}]})");
+        FileUtils.fileWrite(new File(projectDir, "js/other.js").getPath(), "UTF-8",
+                "define(['jquery'], function ($) { return $; });\n");
+        BuildProfile profile = BuildProfile.load(profileFile);
+        Runner runner = new RhinoRunner();
+
+        new Optimizer().optimize(profileFile, reporter, runner);
+        LayerIndex previous = LayerIndex.read(outputDir, profile.getModuleNames());
+        assertNotNull(previous);
+        assertEquals(Arrays.asList("js/jquery.js", "js/other.js"), previous.getLayers().get("other").getFiles());
+
+        File otherLayer = new File(outputDir, "js/other.js");
+        String otherContents = FileUtils.fileRead(otherLayer, "UTF-8");
+        FileUtils.fileAppend(new File(projectDir, "js/jquery.alpha.js").getPath(), "\nvar alphaChanged = true;\n");
+
+        File derivedProfile = new File(projectDir.getParentFile(), "layers.rebuild.js");
+        LayerRebuild rebuild = LayerRebuild.plan(profile, previous, Arrays.asList("js/jquery.alpha.js"), derivedProfile);
+        assertNotNull(rebuild);
+        assertEquals(Collections.singleton("main"), rebuild.getModules());
+
+        Optimizer partial = new Optimizer();
+        partial.setPartialRebuild(true);
+        partial.optimize(rebuild.getProfile(), reporter, runner);
+        assertFalse(rebuild.tracedNewFiles());
+        LayerIndex merged = rebuild.complete();
+
+        assertEquals(previous.toBuildText(), merged.toBuildText());
+        assertEquals(merged.toBuildText(), FileUtils.fileRead(new File(outputDir, "build.txt"), "UTF-8"));
+        assertTrue(FileUtils.fileRead(new File(outputDir, "js/main.js"), "UTF-8").contains("alphaChanged"));
+        assertEquals(otherContents, FileUtils.fileRead(otherLayer, "UTF-8"));
+    }
+
+    @Test
+    public void testNewlyTracedFilesNeedFullBuild() throws Exception {
+        File profileFile = new File(projectDir, "layers.js");
+        FileUtils.fileWrite(profileFile.getPath(), "UTF-8", "({appDir: './', baseUrl: './js', dir: '../output',"
+                + " optimize: 'none', modules: [{name: 'main'}, {name: 'other'}]})");
+        File otherScript = new File(projectDir, "js/other.js");
+        FileUtils.fileWrite(otherScript.getPath(), "UTF-8", "define(['jquery'], function ($) { return $; });\n");
+        BuildProfile profile = BuildProfile.load(profileFile);
+        Runner runner = new RhinoRunner();
+
+        new Optimizer().optimize(profileFile, reporter, runner);
+        LayerIndex previous = LayerIndex.read(outputDir, profile.getModuleNames());
+
+        // jquery.alpha.js was only traced into the main layer, its copy in the output is not put back.
+        FileUtils.fileWrite(otherScript.getPath(), "UTF-8",
+                "define(['jquery', 'jquery.alpha'], function ($) { return $; });\n");
+        File derivedProfile = new File(projectDir.getParentFile(), "layers.rebuild.js");
+        LayerRebuild rebuild = LayerRebuild.plan(profile, previous, Arrays.asList("js/other.js"), derivedProfile);
+        assertNotNull(rebuild);
+        assertEquals(Collections.singleton("other"), rebuild.getModules());
+
+        Optimizer partial = new Optimizer();
+        partial.setPartialRebuild(true);
+        partial.optimize(rebuild.getProfile(), reporter, runner);
+        assertTrue(rebuild.tracedNewFiles());
+    }
+
+    @Test
+    public void testNonScriptChangesNeedFullBuild() throws Exception {
+        BuildProfile profile = BuildProfile.load(new File(projectDir, "buildconfig1.js"));
+        LayerIndex previous = LayerIndex.parse("\njs/main.js\n----------------\njs/main.js\n", Arrays.asList("main"));
+        new File(outputDir, "1").mkdirs();
+        File output = new File(projectDir.getParentFile(), "unused.js");
+        assertNull(LayerRebuild.plan(profile, previous, Arrays.asList("js/template.html"), output));
+        assertNull(LayerRebuild.plan(profile, previous, null, output));
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing NodeDetection
+ */
+public class NodeDetectionTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/node-detection").getCanonicalFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+    }
+
+    @Test
+    public void testDetectionIsCachedAndPersisted() throws Exception {
+        File stateFile = new File(dir, "node.properties");
+
+        NodeDetection first = NodeDetection.detect(stateFile);
+        NodeDetection second = NodeDetection.detect(stateFile);
+        assertSame(first, second);
+        assumeTrue(first.getCommand() != null); //skip if no node command detected.
+        assertTrue(stateFile.isFile());
+
+        Properties state = load(stateFile);
+        assertEquals(String.valueOf(System.getenv("PATH")), state.getProperty("path"));
+        assertEquals(first.getCommand(), state.getProperty("command"));
+        assertEquals(first.getVersion(), state.getProperty("version"));
+    }
+
+    @Test
+    public void testNotFoundIsNotPersisted() throws Exception {
+        File stateFile = new File(dir, "node.properties");
+        File empty = new File(dir, "empty");
+        empty.mkdirs();
+
+        assertNull(NodeDetection.detect(stateFile, empty.getPath()).getCommand());
+        assertFalse(stateFile.isFile());
+    }
+
+    @Test
+    public void testChangedBinaryIsDetectedAgain() throws Exception {
+        assumeTrue(File.separatorChar == '/'); //needs a shell script as node.
+        File stateFile = new File(dir, "node.properties");
+        File bin = new File(dir, "bin");
+        File node = new File(bin, "node");
+        writeNode(node, "v0.0.1");
+        String path = bin.getPath();
+
+        NodeDetection first = NodeDetection.detect(stateFile, path);
+        assertEquals("v0.0.1", first.getVersion());
+        assertEquals(node.getAbsolutePath(), load(stateFile).getProperty("binary"));
+        assertSame(first, NodeDetection.detect(stateFile, path));
+
+        writeNode(node, "v0.0.2");
+        assertTrue(node.setLastModified(1000000000000L));
+        assertEquals("v0.0.2", NodeDetection.detect(stateFile, path).getVersion());
+
+        node.delete();
+        assertNull(NodeDetection.detect(stateFile, path).getCommand());
+        assertFalse(stateFile.isFile());
+    }
+
+    private static void writeNode(File node, String version) throws Exception {
+        node.getParentFile().mkdirs();
+        FileUtils.fileWrite(node.getPath(), "UTF-8", "#!/bin/sh\necho " + version + "\n");
+        assertTrue(node.setExecutable(true));
+    }
+
+    private static Properties load(File stateFile) throws Exception {
+        Properties state = new Properties();
+        FileInputStream in = new FileInputStream(stateFile);
+        try {
+            state.load(in);
+        } finally {
+            IOUtil.close(in);
+        }
+        return state;
+    }
+}
@@ -2,17 +2,32 @@ package com.github.mcheely.maven.requirejs;
 
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.Scriptable;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 
 /**
@@ -81,6 +96,235 @@ public class OptimizerTest {
     log.debug("total time ::"+(end-start)+"msec");
   }
 
+  @Test
+  public void testBuildConfigsNodeJsWorker() throws Exception {
+    String nodeCmd = NodeJsRunner.detectNodeCommand();
+    assumeTrue(nodeCmd != null); //skip if no node command detected.
+    Runner workerRunner = new NodeJsRunner(nodeCmd, new File("target/optimizer-work"));
+    optimier.optimize(loadProfile("testcase2/buildconfigWithMainConfig2.js"), reporter, workerRunner);
+    optimier.optimize(loadProfile("testcase2/buildconfig2.js"), reporter, workerRunner);
+    optimier.optimize(loadProfile("testcase2/buildconfigWithMainConfig2.js"), reporter, workerRunner);
+  }
+
+  @Test
+  public void testBuiltInOptimizerIsExtractedOnce() throws Exception {
+    File workDir = new File("target/optimizer-work");
+    Runner stub = mock(Runner.class);
+    when(stub.exec(any(File.class), any(String[].class), any(ErrorReporter.class))).thenReturn(new ExitStatus());
+
+    new Optimizer(workDir).optimize(loadProfile("testcase1/buildconfig1.js"), reporter, stub);
+    new Optimizer(workDir).optimize(loadProfile("testcase1/buildconfig1.js"), reporter, stub);
+
+    ArgumentCaptor<File> scripts = ArgumentCaptor.forClass(File.class);
+    verify(stub, times(2)).exec(scripts.capture(), any(String[].class), any(ErrorReporter.class));
+    assertEquals(scripts.getAllValues().get(0), scripts.getAllValues().get(1));
+    assertEquals(1, workDir.list(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.startsWith("r-");
+      }
+    }).length);
+  }
+
+  @Test
+  public void testMinifyCache() throws Exception {
+    assertMinifyCacheIsReused(runner, new File("target/minify-cache/rhino"));
+  }
+
+  @Test
+  public void testMinifyCacheNodeJsWorker() throws Exception {
+    String nodeCmd = NodeJsRunner.detectNodeCommand();
+    assumeTrue(nodeCmd != null); //skip if no node command detected.
+    assertMinifyCacheIsReused(new NodeJsRunner(nodeCmd, new File("target/optimizer-work")),
+        new File("target/minify-cache/node"));
+  }
+
+  private void assertMinifyCacheIsReused(Runner runner, File cacheDir) throws Exception {
+    FileUtils.deleteDirectory(cacheDir);
+    File profile = loadProfile("testcase2/buildconfig2.js");
+    File output = new File(profile.getParentFile(), "../output/2.1/js/main.js");
+    Optimizer cachingOptimizer = new Optimizer(new File("target/optimizer-work"));
+    cachingOptimizer.setMinifyCacheDirectory(cacheDir);
+
+    cachingOptimizer.optimize(profile, reporter, runner);
+    String minified = FileUtils.fileRead(output, "UTF-8");
+    List<File> cached = FileUtils.getFiles(cacheDir, "**/*.js", null);
+    assertTrue(cached.size() > 0);
+
+    cachingOptimizer.optimize(profile, reporter, runner);
+    assertEquals(minified, FileUtils.fileRead(output, "UTF-8"));
+    assertEquals(cached.size(), FileUtils.getFiles(cacheDir, "**/*.js", null).size());
+  }
+
+  @Test
+  public void testParallelMinify() throws Exception {
+    assertParallelMinifyMatchesSequential(runner);
+  }
+
+  @Test
+  public void testParallelMinifyNodeJsWorker() throws Exception {
+    String nodeCmd = NodeJsRunner.detectNodeCommand();
+    assumeTrue(nodeCmd != null); //skip if no node command detected.
+    assertParallelMinifyMatchesSequential(new NodeJsRunner(nodeCmd, new File("target/optimizer-work")));
+  }
+
+  @Test
+  public void testParallelClosure() throws Exception {
+    File uglifyProfile = loadProfile("testcase2/buildconfig2.js");
+    File profile = new File(uglifyProfile.getParentFile(), "buildconfig2-closure.js");
+    FileUtils.fileWrite(profile.getPath(), "UTF-8", FileUtils.fileRead(uglifyProfile, "UTF-8")
+        .replace("optimize: \"uglify\"", "optimize: \"closure\"")
+        .replace("../output/2.1", "../output/2.closure"));
+    assertParallelMinifyMatchesSequential(runner, profile, new File(profile.getParentFile(), "../output/2.closure"));
+  }
+
+  @Test
+  public void testClosureModules() throws Exception {
+    File profile = loadProfile("testcase3/buildconfig3.js");
+    File outputDir = new File(profile.getParentFile(), "../output/3");
+
+    Optimizer modulesOptimizer = new Optimizer();
+    modulesOptimizer.setClosureModules(true);
+    modulesOptimizer.optimize(profile, reporter, runner);
+
+    String common = FileUtils.fileRead(new File(outputDir, "js/common.js"), "UTF-8");
+    assertEquals("hello admin", load(common, FileUtils.fileRead(new File(outputDir, "js/admin.js"), "UTF-8"), "admin"));
+    assertEquals("hello public", load(common, FileUtils.fileRead(new File(outputDir, "js/public.js"), "UTF-8"), "public"));
+  }
+
+  /**
+   * Run layers with a minimal AMD loader and return the message of a module.
+   */
+  private static String load(String dependency, String layer, String module) {
+    Context cx = Context.enter();
+    try {
+      Scriptable scope = cx.initStandardObjects();
+      cx.evaluateString(scope, "var modules = {}; function define(name, deps, factory) {"
+          + " modules[name] = factory.apply(null, deps.map(function (dep) { return modules[dep]; })); }",
+          "loader.js", 1, null);
+      cx.evaluateString(scope, dependency, "dependency.js", 1, null);
+      cx.evaluateString(scope, layer, "layer.js", 1, null);
+      return Context.toString(cx.evaluateString(scope, "modules['" + module + "'].message", "check.js", 1, null));
+    } finally {
+      Context.exit();
+    }
+  }
+
+  private void assertParallelMinifyMatchesSequential(Runner runner) throws Exception {
+    File profile = loadProfile("testcase2/buildconfig2.js");
+    assertParallelMinifyMatchesSequential(runner, profile, new File(profile.getParentFile(), "../output/2.1"));
+  }
+
+  private void assertParallelMinifyMatchesSequential(Runner runner, File profile, File outputDir) throws Exception {
+    optimier.optimize(profile, reporter, runner);
+    Map<String, String> sequential = readScripts(outputDir);
+    assertTrue(sequential.size() > 1);
+
+    Optimizer parallelOptimizer = new Optimizer();
+    parallelOptimizer.setMinifyThreads(3);
+    parallelOptimizer.optimize(profile, reporter, runner);
+    assertEquals(sequential, readScripts(outputDir));
+  }
+
+  @Test
+  public void testRhinoProfiles() throws Exception {
+    File profile = loadProfile("testcase2/buildconfig2.js");
+    File outputDir = new File(profile.getParentFile(), "../output/2.1");
+    optimier.optimize(profile, reporter, runner);
+    Map<String, String> built = readScripts(outputDir);
+
+    for (RhinoProfile rhinoProfile : new RhinoProfile[] {RhinoProfile.INTERPRETED, RhinoProfile.OPTIMIZED, RhinoProfile.AUTO}) {
+      optimier.optimize(profile, reporter, new RhinoRunner(new File("target/rhino-cache"), rhinoProfile));
+      assertEquals(rhinoProfile.name(), built, readScripts(outputDir));
+    }
+  }
+
+  @Test
+  public void testScriptEngine() throws Exception {
+    ScriptEngineRunner engineRunner = ScriptEngineRunner.forEngine("graal.js", "nashorn");
+    assumeTrue(engineRunner != null); //skip if the JVM has no JavaScript engine.
+    File profile = loadProfile("testcase2/buildconfig2.js");
+    File outputDir = new File(profile.getParentFile(), "../output/2.1");
+    optimier.optimize(profile, reporter, runner);
+    Map<String, String> built = readScripts(outputDir);
+
+    Optimizer threadedOptimizer = new Optimizer();
+    threadedOptimizer.setMinifyThreads(2);
+    threadedOptimizer.optimize(profile, reporter, engineRunner);
+    assertEquals(built, readScripts(outputDir));
+  }
+
+  @Test
+  public void testLinkStaging() throws Exception {
+    assertLinkStagingMatchesCopies(runner);
+  }
+
+  @Test
+  public void testLinkStagingNodeJs() throws Exception {
+    String nodeCmd = NodeJsRunner.detectNodeCommand();
+    assumeTrue(nodeCmd != null); //skip if no node command detected.
+    assertLinkStagingMatchesCopies(new NodeJsRunner(nodeCmd));
+  }
+
+  private void assertLinkStagingMatchesCopies(Runner runner) throws Exception {
+    File profile = loadProfile("testcase2/buildconfig2.js");
+    File outputDir = new File(profile.getParentFile(), "../output/2.1");
+    Map<String, String> sources = readScripts(profile.getParentFile());
+
+    optimier.optimize(profile, reporter, runner);
+    Map<String, String> copied = readScripts(outputDir);
+
+    Optimizer linkingOptimizer = new Optimizer();
+    linkingOptimizer.setLinkStaging(true);
+    linkingOptimizer.optimize(profile, reporter, runner);
+    assertEquals(copied, readScripts(outputDir));
+    assertEquals(sources, readScripts(profile.getParentFile()));
+  }
+
+  @Test
+  public void testGraphIndex() throws Exception {
+    assertGraphIndexIsReused(runner, new File("target/graph-index/rhino.graph"));
+  }
+
+  @Test
+  public void testGraphIndexNodeJs() throws Exception {
+    String nodeCmd = NodeJsRunner.detectNodeCommand();
+    assumeTrue(nodeCmd != null); //skip if no node command detected.
+    assertGraphIndexIsReused(new NodeJsRunner(nodeCmd), new File("target/graph-index/node.graph"));
+  }
+
+  private void assertGraphIndexIsReused(Runner runner, File index) throws Exception {
+    index.delete();
+    File profile = loadProfile("testcase2/buildconfig2.js");
+    File outputDir = new File(profile.getParentFile(), "../output/2.1");
+    Optimizer indexingOptimizer = new Optimizer();
+    indexingOptimizer.setGraphIndexFile(index);
+
+    indexingOptimizer.optimize(profile, reporter, runner);
+    Map<String, String> built = readScripts(outputDir);
+    String graph = FileUtils.fileRead(index, "UTF-8");
+    assertTrue(graph.contains("\"main\":{\"path\":"));
+
+    indexingOptimizer.optimize(profile, reporter, runner);
+    assertEquals(built, readScripts(outputDir));
+    assertEquals(graph, FileUtils.fileRead(index, "UTF-8"));
+
+    // The scan of main.js comes from the index, so it no longer pulls in base.
+    String mainScan = "[[\"require\",null,[\"base\"]]]";
+    assertTrue(graph.contains(mainScan));
+    FileUtils.fileWrite(index.getPath(), "UTF-8", graph.replace(mainScan, "[[\"require\",null,[]]]"));
+    indexingOptimizer.optimize(profile, reporter, runner);
+    assertTrue(built.get("js/main.js").contains("define(\"base\""));
+    assertFalse(readScripts(outputDir).get("js/main.js").contains("define(\"base\""));
+  }
+
+  private Map<String, String> readScripts(File dir) throws Exception {
+    Map<String, String> scripts = new TreeMap<String, String>();
+    for (Object name : FileUtils.getFileNames(dir, "**/*.js", null, false)) {
+      scripts.put(name.toString(), FileUtils.fileRead(new File(dir, name.toString()), "UTF-8"));
+    }
+    return scripts;
+  }
+
   private File loadProfile(String filename) throws URISyntaxException {
     URI uri = getClass().getClassLoader().getResource(filename).toURI();
     File buildconfigFile = new File(uri);
@@ -0,0 +1,76 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing OutputSync
+ */
+public class OutputSyncTest {
+
+    private File staging;
+
+    private File output;
+
+    private File manifest;
+
+    @Before
+    public void setUp() throws Exception {
+        File testDir = new File("target/output-sync-test").getCanonicalFile();
+        FileUtils.deleteDirectory(testDir);
+        staging = new File(testDir, "staging");
+        output = new File(testDir, "output");
+        manifest = new File(testDir, "build.output");
+    }
+
+    @Test
+    public void testOnlyChangedFilesAreWritten() throws Exception {
+        write(staging, "js/main.js", "main");
+        write(staging, "js/lib/old.js", "old");
+        write(output, "stale.txt", "from a build without a manifest");
+
+        OutputSync first = OutputSync.sync(staging, output, manifest, false);
+        assertEquals(2, first.getWritten());
+        assertFalse(new File(output, "stale.txt").exists());
+
+        File main = new File(output, "js/main.js");
+        long written = main.lastModified();
+
+        FileUtils.forceDelete(staging);
+        write(staging, "js/main.js", "main");
+        write(staging, "js/admin.js", "admin");
+        OutputSync second = OutputSync.sync(staging, output, manifest, false);
+        assertEquals(1, second.getWritten());
+        assertEquals(1, second.getUnchanged());
+        assertEquals(1, second.getRemoved());
+        assertEquals(written, main.lastModified());
+        assertFalse(new File(output, "js/lib").exists());
+        assertEquals("admin", FileUtils.fileRead(new File(output, "js/admin.js"), "UTF-8"));
+    }
+
+    @Test
+    public void testFilesChangedOutsideTheBuildAreRewritten() throws Exception {
+        write(staging, "js/main.js", "main");
+        OutputSync.sync(staging, output, manifest, false);
+
+        write(output, "js/main.js", "edited");
+        write(output, "notes.txt", "kept");
+        OutputSync sync = OutputSync.sync(staging, output, manifest, false);
+        assertEquals(1, sync.getWritten());
+        assertEquals("main", FileUtils.fileRead(new File(output, "js/main.js"), "UTF-8"));
+        assertTrue(new File(output, "notes.txt").exists());
+    }
+
+    private static void write(File dir, String name, String contents) throws Exception {
+        File file = new File(dir, name);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getPath(), "UTF-8", contents);
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Test;
+
+/**
+ * Testing ParseHost
+ */
+public class ParseHostTest {
+
+    /**
+     * Sources that take r.js's parse module through its special cases.
+     */
+    private static final String[] SNIPPETS = {
+        "define(['a', './b', 1, true, null, /x/g, 'c' + 'd', -1], function (a) {});",
+        "define('named', ['dep'], function () {});\ndefine('other', function (require) { var x = require('x'); });",
+        "define(function (require, exports, module) {\n  var a = require('a'), b = require(('b'));\n"
+                + "  require(['async'], function () {});\n  (require)('c');\n});",
+        "require.config({\n  paths: {a: 'b'}\n});\nrequire(['main']);",
+        "var require = {baseUrl: 'js', deps: ['x']};",
+        "requirejs({paths: {}}, ['x', 'y'], function () {});\nrequirejs({paths: {}});",
+        "if (true) { define('t', ['yes'], function () {}); } else { define('f', ['no'], function () {}); }\n"
+                + "if (false) { require(['never']); }\nif ('') { require(['s']); } else if (0) {} else { require(['t']); }\n"
+                + "if (x) require(['u']);\nif ((1)) require(['v']);",
+        "require();",
+        "require(['a', , 'b']);",
+        "define(['a'], function () { require(); });",
+        "define.amd = {};",
+        "define['amd'] = 1;",
+        "(define).amd += 1;",
+        "define[amd] = 1;",
+        "define('x', someDeps, function () {});",
+        "define('x', someDeps, function (require) { require('y'); });",
+        "define([ 'a' ;",
+        "new define(['a']);\nnew require(['b']);",
+        "define(['a'], function () {\n  require(['b']);\n  define('inner', ['c'], function () {});\n});",
+        "define({a: 1});\ndefine('str');\ndefine(-1, ['x']);\ndefine(['x'].concat(y));\ndefine('o', {a: 1});",
+        "require(['a'], function () {});\nrequirejs.config({shim: {}});\nrequire['config']({x: 1});",
+        "define('\\u0041', ['b\\x41', 'c\\'d'], function () {});",
+        "define(function () { return { load: function () {} }; });",
+        "var o = {class: 1, default: 2};\no.class = o['default'];\nrequire(['k']);",
+        "var o = {get a() { return require('g'); }};",
+        "define();",
+        "/* define(['c']) */ var r = /define\\(\\['x'\\]\\)/; // require(['z'])\nrequire(['real']);",
+        "try { require(['t1']); } catch (e) { require(['t2']); } finally { define('f', ['t3'], function () {}); }",
+        "require('single'); require('a', 'b'); require(x); require(['']);",
+        "define('main', ['a'], function () {});\nrequire(['b']);",
+        "define(['x'], function () {});\ndefine('main', function (require) { require('y'); });",
+        "var requirejs = ({paths: {\r\n  x: 'y'\r\n}}), require;",
+        "define('d', function (require) { return require('a'); }, function () {});",
+        "label: for (var i in x) { switch (i) { case 1: require(['sw']); } }\nwith (y) { define('w', ['wd'], function () {}); }",
+        "define('é', ['ü'], function () {});",
+        "require.config(((({a: 1}))));",
+        "var require = ( /* c */ ({a: 1}) );",
+    };
+
+    private final ParseHost parse = new ParseHost();
+
+    @Test
+    public void testConformsToEsprima() throws Exception {
+        File dir = new File("target/parse-host-test").getCanonicalFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+
+        List<String> args = new ArrayList<String>();
+        args.add(new File("target/classes/r.js").getCanonicalPath());
+        args.add(new File("target/classes/optimizer-bootstrap.js").getCanonicalPath());
+        for (String testcase : new String[] {"testcase1/js", "testcase2/js", "testcase3/js"}) {
+            for (Object file : FileUtils.getFiles(new File("src/test/resources", testcase), "**/*.js", null)) {
+                args.add(((File) file).getPath());
+            }
+        }
+        for (int i = 0; i < SNIPPETS.length; i++) {
+            File file = new File(dir, "snippet" + i + ".js");
+            FileUtils.fileWrite(file.getPath(), "UTF-8", SNIPPETS[i]);
+            args.add(file.getPath());
+        }
+
+        Map<String, String> results = new TreeMap<String, String>();
+        ExitStatus status = new RhinoRunner(new File("target/rhino-cache")).exec(
+                new File("src/test/resources/parse/conformance.js"), args.toArray(new String[args.size()]),
+                new MojoErrorReporter(new SystemStreamLog(), true), "parseConformance", results);
+        assertTrue(status.success());
+
+        int checks = 0;
+        StringBuilder mismatches = new StringBuilder();
+        for (Map.Entry<String, String> result : results.entrySet()) {
+            if (result.getKey().startsWith("esprima:")) {
+                String check = result.getKey().substring("esprima:".length());
+                String host = results.get("host:" + check);
+                if (!result.getValue().equals(host)) {
+                    mismatches.append(check).append("\n  esprima: ").append(result.getValue())
+                            .append("\n  host:    ").append(host).append('\n');
+                }
+                checks++;
+            }
+        }
+        assertEquals("", mismatches.toString());
+        assertEquals(results.size() / 2, checks);
+        assertTrue(checks >= 12 * (args.size() - 2));
+    }
+
+    @Test
+    public void testScan() {
+        ParseHost.Match[] matches = parse.parse(
+                "define('a', ['b', 1], function () { require(['c']); });\nrequire();").scan(false);
+
+        assertEquals(3, matches.length);
+        assertEquals("define", matches[0].getCallName());
+        assertEquals("sa", matches[0].getName());
+        assertArrayEquals(new String[] {"sb", "n1.0"}, matches[0].getDeps());
+        assertEquals(-1, matches[0].getParent());
+        assertEquals("require", matches[1].getCallName());
+        assertEquals(0, matches[1].getParent());
+        assertNull(matches[2].getCallName());
+    }
+
+    @Test
+    public void testSyntaxError() {
+        assertNull(parse.parse("define([ 'a' ;"));
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+
+/**
+ * Testing RhinoProfile
+ */
+public class RhinoProfileTest {
+
+    @Test
+    public void testAutoPicksBySizeAndCompilation() {
+        assertEquals(RhinoProfile.INTERPRETED, RhinoProfile.AUTO.forInputSize(0, true));
+        assertEquals(RhinoProfile.INTERPRETED, RhinoProfile.AUTO.forInputSize(RhinoProfile.AUTO_THRESHOLD - 1, true));
+        assertEquals(RhinoProfile.OPTIMIZED, RhinoProfile.AUTO.forInputSize(RhinoProfile.AUTO_THRESHOLD, true));
+        assertEquals(RhinoProfile.INTERPRETED, RhinoProfile.AUTO.forInputSize(RhinoProfile.AUTO_THRESHOLD, false));
+        assertEquals(RhinoProfile.DEFAULT, RhinoProfile.DEFAULT.forInputSize(RhinoProfile.AUTO_THRESHOLD, false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAutoHasNoSettings() {
+        RhinoProfile.AUTO.getOptimizationLevel();
+    }
+
+    @Test
+    public void testNamed() {
+        assertEquals(RhinoProfile.OPTIMIZED, RhinoProfile.named("optimized"));
+        assertEquals(RhinoProfile.AUTO, RhinoProfile.named("Auto"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() {
+        RhinoProfile.named("fast");
+    }
+
+    @Test
+    public void testContextFactory() throws Exception {
+        assertContext(RhinoProfile.INTERPRETED, -1);
+        assertContext(RhinoProfile.DEFAULT, 0);
+        assertContext(RhinoProfile.OPTIMIZED, 9);
+    }
+
+    private static void assertContext(RhinoProfile profile, int optimizationLevel) throws Exception {
+        final RhinoContextFactory factory = new RhinoContextFactory(profile);
+        final Context[] created = new Context[1];
+        // A thread of its own, as entering a context reuses one this thread may have entered.
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                created[0] = factory.enterContext();
+                Context.exit();
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertEquals(optimizationLevel, created[0].getOptimizationLevel());
+        assertFalse(created[0].isGeneratingDebug());
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ServiceLoader;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Test;
+
+/**
+ * Scaling of the optimizer with the size of generated projects, for every
+ * runner engine available. Skipped unless project sizes are given, as in
+ * mvn test -Dtest=ScalingTest -Drequirejs.scaling=100,1000,5000,20000
+ * Times and peak heap are written to target/scaling/results.csv. Peak heap
+ * is the heap of this JVM, so it leaves out the heap of node processes.
+ */
+public class ScalingTest {
+
+    private final Log log = new SystemStreamLog();
+
+    @Test
+    public void testScaling() throws Exception {
+        String sizes = System.getProperty("requirejs.scaling");
+        assumeTrue(sizes != null && sizes.length() > 0); //skip unless sizes are given.
+        int fanOut = Integer.getInteger("requirejs.scaling.fanOut", 4);
+        int fileSize = Integer.getInteger("requirejs.scaling.fileSize", 2048);
+        int layers = Integer.getInteger("requirejs.scaling.layers", 4);
+
+        File dir = new File("target/scaling").getCanonicalFile();
+        File results = new File(dir, "results.csv");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        FileUtils.fileWrite(results.getPath(), "UTF-8", "engine,modules,fanOut,fileSize,layers,millis,peakHeapMb\n");
+
+        RunnerSettings settings = new RunnerSettings();
+        settings.setNodeCommand(NodeJsRunner.detectNodeCommand());
+        settings.setWorkDirectory(new File(dir, "work"));
+        for (String size : sizes.split(",")) {
+            int modules = Integer.parseInt(size.trim());
+            int projectLayers = Math.min(layers, modules);
+            File profile = new AmdProjectGenerator().setModules(modules).setFanOut(fanOut).setFileSize(fileSize)
+                    .setLayers(projectLayers).generate(new File(dir, "project-" + modules));
+
+            for (RunnerProvider provider : ServiceLoader.load(RunnerProvider.class)) {
+                Runner runner = provider.createRunner(settings, 0);
+                if (runner == null) {
+                    log.info("Skipping the " + provider.getName() + " engine, which is not available.");
+                    continue;
+                }
+                resetPeakHeap();
+                long start = System.nanoTime();
+                new Optimizer(settings.getWorkDirectory())
+                        .optimize(profile, new MojoErrorReporter(log, true), runner);
+                long millis = (System.nanoTime() - start) / 1000000;
+                long peakHeapMb = getPeakHeap() / (1024 * 1024);
+
+                log.info(provider.getName() + ", " + modules + " modules: " + millis + " ms, " + peakHeapMb + " MB peak heap");
+                FileUtils.fileAppend(results.getPath(), "UTF-8", provider.getName() + "," + modules + "," + fanOut
+                        + "," + fileSize + "," + projectLayers + "," + millis + "," + peakHeapMb + "\n");
+            }
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
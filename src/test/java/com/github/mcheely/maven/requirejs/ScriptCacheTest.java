@@ -0,0 +1,114 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+
+/**
+ * Testing ScriptCache
+ */
+public class ScriptCacheTest {
+
+    private ScriptCache cache;
+
+    private File script;
+
+    private Context cx;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new ScriptCache();
+        script = File.createTempFile("script-cache", ".js");
+        cx = Context.enter();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Context.exit();
+        script.delete();
+    }
+
+    @Test
+    public void testUnchangedScriptIsReused() throws Exception {
+        FileUtils.fileWrite(script.getAbsolutePath(), "var a = 1;");
+        Script first = cache.getScript(cx, script);
+        Script second = cache.getScript(cx, script);
+        assertSame(first, second);
+    }
+
+    @Test
+    public void testChangedScriptIsRecompiled() throws Exception {
+        FileUtils.fileWrite(script.getAbsolutePath(), "var a = 1;");
+        Script first = cache.getScript(cx, script);
+        FileUtils.fileWrite(script.getAbsolutePath(), "var a = 2;");
+        Script second = cache.getScript(cx, script);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testClassFileCacheSurvivesNewCache() throws Exception {
+        File classDir = new File(script.getParentFile(), script.getName() + "-classes");
+        try {
+            FileUtils.fileWrite(script.getAbsolutePath(), "var a = 40 + 2; a;");
+            ClassFileCache classFileCache = new ClassFileCache(classDir);
+            cache.getScript(cx, script, classFileCache);
+            assertEquals(1, classDir.list().length);
+
+            Script reloaded = new ScriptCache().getScript(cx, script, classFileCache);
+            Object result = reloaded.exec(cx, cx.initStandardObjects());
+            assertEquals(42, ((Number) result).intValue());
+            assertEquals(1, classDir.list().length);
+        } finally {
+            FileUtils.deleteDirectory(classDir);
+        }
+    }
+
+    @Test
+    public void testCorruptClassFileIsRecompiled() throws Exception {
+        File classDir = new File(script.getParentFile(), script.getName() + "-classes");
+        try {
+            FileUtils.fileWrite(script.getAbsolutePath(), "var a = 40 + 2; a;");
+            ClassFileCache classFileCache = new ClassFileCache(classDir);
+            cache.getScript(cx, script, classFileCache);
+            File entry = classDir.listFiles()[0];
+
+            // Keep the entry readable but break the magic number of its first class.
+            RandomAccessFile file = new RandomAccessFile(entry, "rw");
+            try {
+                byte[] bytes = new byte[(int) file.length()];
+                file.readFully(bytes);
+                for (int i = 0; i + 3 < bytes.length; i++) {
+                    if ((bytes[i] & 0xff) == 0xca && (bytes[i + 1] & 0xff) == 0xfe
+                            && (bytes[i + 2] & 0xff) == 0xba && (bytes[i + 3] & 0xff) == 0xbe) {
+                        file.seek(i);
+                        file.write(0);
+                        break;
+                    }
+                }
+            } finally {
+                file.close();
+            }
+
+            Script reloaded = new ScriptCache().getScript(cx, script, classFileCache);
+            Object result = reloaded.exec(cx, cx.initStandardObjects());
+            assertEquals(42, ((Number) result).intValue());
+            assertEquals(1, classDir.list().length);
+
+            // The entry was replaced with one that loads.
+            Script cached = new ScriptCache().getScript(cx, script, classFileCache);
+            assertEquals(42, ((Number) cached.exec(cx, cx.initStandardObjects())).intValue());
+        } finally {
+            FileUtils.deleteDirectory(classDir);
+        }
+    }
+}
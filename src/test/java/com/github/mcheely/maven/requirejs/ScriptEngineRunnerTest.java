@@ -0,0 +1,122 @@
+package com.github.mcheely.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.EvaluatorException;
+
+/**
+ * Testing ScriptEngineRunner and the runner providers
+ */
+public class ScriptEngineRunnerTest {
+
+    private File dir;
+
+    private ScriptEngineRunner runner;
+
+    private final MojoErrorReporter reporter = new MojoErrorReporter(new SystemStreamLog(), true);
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/script-engine-test").getCanonicalFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        runner = ScriptEngineRunner.forEngine("graal.js", "nashorn");
+    }
+
+    @Test
+    public void testShellGlobals() throws Exception {
+        assumeTrue(runner != null); //skip if the JVM has no JavaScript engine.
+        write("data.txt", "déjà");
+        File script = write("main.js", "result.put('args', arguments.slice(1).join(','));\n"
+                + "result.put('file', readFile(arguments[0]));\n"
+                + "result.put('host', typeof requirejsPluginHost.getParse().parse('define([], 1);'));\n"
+                + "quit(3);\nresult.put('after', 'quit');\n");
+
+        Map<String, Object> result = new TreeMap<String, Object>();
+        ExitStatus status = runner.exec(script, new String[] {new File(dir, "data.txt").getPath(), "a", "b"},
+                reporter, "result", result);
+
+        assertEquals(3, status.getExitCode());
+        assertEquals("a,b", result.get("args"));
+        assertEquals("déjà", result.get("file"));
+        assertEquals("object", result.get("host"));
+        assertEquals("quit", result.get("after"));
+    }
+
+    @Test
+    public void testFreshGlobals() throws Exception {
+        assumeTrue(runner != null);
+        File script = write("main.js", "if (typeof leaked !== 'undefined') { quit(1); }\nvar leaked = true;\n");
+
+        assertTrue(runner.exec(script, new String[0], reporter).success());
+        assertTrue(runner.exec(script, new String[0], reporter).success());
+    }
+
+    @Test
+    public void testConcurrentMinifyWorkers() throws Exception {
+        assumeTrue(runner != null);
+        File script = write("main.js", "if (arguments[1] === '--minifyWorker=true') {\n"
+                + "  for (var i = requirejsPluginBatch.next(); i !== -1; i = requirejsPluginBatch.next()) {\n"
+                + "    var job = String(requirejsPluginBatch.getJob(i));\n"
+                + "    for (var k = 0, sum = 0; k < 100000; k++) { sum += k; }\n"
+                + "    requirejsPluginBatch.setResult(i, job.toUpperCase());\n"
+                + "  }\n"
+                + "} else {\n"
+                + "  var batch = requirejsPluginHost.newMinifyBatch();\n"
+                + "  for (var j = 0; j < 100; j++) { batch.add('job' + j); }\n"
+                + "  requirejsPluginHost.minify(batch, 2);\n"
+                + "  result.put('batch', batch);\n"
+                + "}\n");
+
+        Map<String, Object> result = new TreeMap<String, Object>();
+        assertTrue(runner.exec(script, new String[] {"r.js"}, reporter, "result", result).success());
+
+        MinifyBatch batch = (MinifyBatch) result.get("batch");
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals("JOB" + i, batch.getResult(i));
+        }
+    }
+
+    @Test(expected = EvaluatorException.class)
+    public void testScriptError() throws Exception {
+        assumeTrue(runner != null);
+        runner.exec(write("main.js", "undefined.x;"), new String[0], reporter);
+    }
+
+    @Test
+    public void testProviders() {
+        List<String> names = new ArrayList<String>();
+        for (RunnerProvider provider : ServiceLoader.load(RunnerProvider.class)) {
+            names.add(provider.getName());
+        }
+        assertEquals("[rhino, node, graaljs, nashorn]", names.toString());
+
+        RunnerSettings settings = new RunnerSettings();
+        assertTrue(new RhinoRunnerProvider().createRunner(settings, 0) instanceof RhinoRunner);
+        assertNull(new NodeJsRunnerProvider().createRunner(settings, 0));
+        settings.setNodeCommand("node");
+        assertTrue(new NodeJsRunnerProvider().createRunner(settings, 0) instanceof NodeJsRunner);
+        assertFalse(new ScriptEngineRunnerProvider.Nashorn().createRunner(settings, 0) instanceof RhinoRunner);
+    }
+
+    private File write(String name, String contents) throws Exception {
+        File file = new File(dir, name);
+        FileUtils.fileWrite(file.getPath(), "UTF-8", contents);
+        return file;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Runs r.js's parse module on files twice, once as r.js ships it and once
+ * with the optimizer bootstrap's hooks installed, and reports the results
+ * of both to the parseConformance map.
+ *
+ * Usage: conformance.js path/to/r.js path/to/optimizer-bootstrap.js file...
+ */
+
+/*global load: false, readFile: false, requirejsPlugin: false, parseConformance: false */
+
+var requirejs, requirejsAsLib, requirejsPluginAsLib;
+
+(function (args) {
+    'use strict';
+
+    var optimizerPath = String(args[0]),
+        bootstrapPath = String(args[1]),
+        files = Array.prototype.slice.call(args, 2).map(String);
+
+    function result(fn) {
+        try {
+            var value = fn();
+            return value === undefined ? 'undefined' : JSON.stringify(value);
+        } catch (e) {
+            return 'error: ' + e;
+        }
+    }
+
+    function report(prefix, parse) {
+        files.forEach(function (fileName) {
+            var contents = String(readFile(fileName, 'utf-8')),
+                checks = {
+                    parse: function () {
+                        return parse('main', fileName, contents, {
+                            insertNeedsDefine: true
+                        });
+                    },
+                    parseNested: function () {
+                        return parse('main', fileName, contents, {
+                            insertNeedsDefine: true,
+                            findNestedDependencies: true
+                        });
+                    },
+                    parseHas: function () {
+                        return parse('main', fileName, contents, {
+                            has: {},
+                            findNestedDependencies: true
+                        });
+                    },
+                    findDependencies: function () {
+                        return parse.findDependencies(fileName, contents);
+                    },
+                    findDependenciesHas: function () {
+                        return parse.findDependencies(fileName, contents, {
+                            has: {}
+                        });
+                    },
+                    findCjsDependencies: function () {
+                        return parse.findCjsDependencies(fileName, contents);
+                    },
+                    definesRequire: function () {
+                        return parse.definesRequire(fileName, contents);
+                    },
+                    getAnonDeps: function () {
+                        return parse.getAnonDeps(fileName, contents);
+                    },
+                    findConfig: function () {
+                        return parse.findConfig(contents);
+                    },
+                    getNamedDefine: function () {
+                        return parse.getNamedDefine(contents);
+                    },
+                    usesAmdOrRequireJs: function () {
+                        return parse.usesAmdOrRequireJs(fileName, contents);
+                    },
+                    usesCommonJs: function () {
+                        return parse.usesCommonJs(fileName, contents);
+                    }
+                };
+            Object.keys(checks).forEach(function (check) {
+                parseConformance.put(prefix + ':' + fileName + ':' + check, result(checks[check]));
+            });
+        });
+    }
+
+    requirejsAsLib = true;
+    load(optimizerPath);
+    requirejs.tools.useLib(function (req) {
+        report('esprima', req('parse'));
+    });
+
+    requirejsPluginAsLib = true;
+    load(bootstrapPath);
+    requirejsPlugin.loadOptimizer(optimizerPath, function (lib) {
+        report('host', lib.parse);
+    }, 'parse');
+}(arguments));
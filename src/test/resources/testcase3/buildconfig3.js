@@ -0,0 +1,29 @@
+({
+    appDir: './',
+    baseUrl: "./js",
+    dir: "../output/3",
+
+    /*
+     * Layers that exclude common are compiled as Closure modules that
+     * depend on it when the plugin compiles closure modules.
+     */
+    optimize: "closure",
+    closure: {
+        CompilationLevel: "ADVANCED_OPTIMIZATIONS",
+        loggingLevel: "WARNING"
+    },
+
+    modules: [
+        {
+            name: "common"
+        },
+        {
+            name: "admin",
+            exclude: ["common"]
+        },
+        {
+            name: "public",
+            exclude: ["common"]
+        }
+    ]
+})
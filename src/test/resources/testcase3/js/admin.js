@@ -0,0 +1,5 @@
+define('admin', ['common'], function (common) {
+    return {
+        message: common.greet('admin')
+    };
+});
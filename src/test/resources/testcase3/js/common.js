@@ -0,0 +1,9 @@
+define('common', [], function () {
+    function greet(name) {
+        return 'hello ' + name;
+    }
+
+    return {
+        greet: greet
+    };
+});
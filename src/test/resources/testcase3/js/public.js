@@ -0,0 +1,5 @@
+define('public', ['common'], function (common) {
+    return {
+        message: common.greet('public')
+    };
+});